@@ -0,0 +1,93 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.benchmarks;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jmeter.config.Arguments;
+import org.apache.jmeter.protocol.java.sampler.JavaSamplerContext;
+import org.apache.jmeter.protocol.mqttws.client.MqttPublisher;
+import org.apache.jmeter.protocol.mqttws.control.gui.MQTTPublisherGui;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+/**
+ * Synthetic input of the arrival benchmarks.
+ * <p>
+ * Clients are set up against a port nothing listens on: the connection
+ * fails at once and messages are handed to messageArrived directly, as the
+ * Paho callback thread would.
+ */
+final class Arrivals {
+	static final String NO_BROKER = "tcp://127.0.0.1:1";
+	private static final AtomicInteger clients = new AtomicInteger(0);
+
+	private Arrivals() {
+	}
+
+	/**
+	 * @return parameters shared by all clients, to complete per client type
+	 */
+	static Arguments arguments() {
+		Arguments args = new Arguments();
+		args.addArgument("SAMPLER_NAME", "benchmark");
+		args.addArgument("HOST", NO_BROKER);
+		//client ids must be unique in the engine
+		args.addArgument("CLIENT_ID", "benchmark-" + clients.incrementAndGet());
+		args.addArgument("CONNECTION_TIMEOUT", "100");
+		args.addArgument("CLEAN_SESSION", "true");
+		args.addArgument("RANDOM_SUFFIX", "FALSE");
+		return args;
+	}
+
+	static JavaSamplerContext context(Arguments args) {
+		return new JavaSamplerContext(args);
+	}
+
+	/**
+	 * @return topics devices/0/telemetry ... devices/n-1/telemetry
+	 */
+	static String[] topics(int n) {
+		String[] topics = new String[n];
+		for (int i = 0; i < n; i++) {
+			topics[i] = "devices/" + i + "/telemetry";
+		}
+		return topics;
+	}
+
+	/**
+	 * @return messages carrying a publisher time stamp, like those of a
+	 *         publisher with "Add TimeStamp"
+	 */
+	static MqttMessage[] messages(int n, int size) throws IOException {
+		StringBuilder text = new StringBuilder(size);
+		while (text.length() < size) {
+			text.append('x');
+		}
+		MqttPublisher publisher = new MqttPublisher();
+		MqttMessage[] messages = new MqttMessage[n];
+		for (int i = 0; i < n; i++) {
+			messages[i] = new MqttMessage(publisher.createPayload(text.toString(), "TRUE", "TRUE",
+					MQTTPublisherGui.STRING, MQTTPublisherGui.NO_ENCODING, "UTF-8"));
+		}
+		return messages;
+	}
+}
@@ -0,0 +1,147 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.benchmarks;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jmeter.protocol.mqttws.client.MqttPublisher;
+import org.apache.jmeter.protocol.mqttws.control.gui.MQTTPublisherGui;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Cost of {@link MqttPublisher#createPayload} for every value type, format
+ * and several payload sizes.
+ * <p>
+ * Run with <code>-prof gc</code> (as {@link #main} does) to get the bytes
+ * allocated per payload (gc.alloc.rate.norm) next to the ops/s. The size is
+ * the length of the text of STRING, TEXT and TEXT_POOL payloads and does not
+ * change the numeric ones.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadBenchmark {
+
+	@Param({ "INT", "LONG", "FLOAT", "DOUBLE", "STRING", "TEXT", "TEXT_POOL" })
+	public String type;
+
+	@Param({ "NO_ENCODING", "BINARY", "BASE64", "BINHEX", "PLAIN_TEXT" })
+	public String format;
+
+	@Param({ "16", "256", "4096" })
+	public int size;
+
+	@Param({ "TRUE" })
+	public String timeStamp;
+
+	@Param({ "TRUE" })
+	public String numberSequence;
+
+	private final MqttPublisher publisher = new MqttPublisher();
+	private String typeValue;
+	private String formatValue;
+	private String message;
+
+	@Setup
+	public void setup() {
+		typeValue = typeValue(type);
+		formatValue = formatValue(format);
+		message = message(type, size);
+	}
+
+	@Benchmark
+	public byte[] createPayload() throws IOException {
+		return publisher.createPayload(message, timeStamp, numberSequence, typeValue, formatValue, "UTF-8");
+	}
+
+	static String typeValue(String type) {
+		if ("INT".equals(type)) {
+			return MQTTPublisherGui.INT;
+		} else if ("LONG".equals(type)) {
+			return MQTTPublisherGui.LONG;
+		} else if ("FLOAT".equals(type)) {
+			return MQTTPublisherGui.FLOAT;
+		} else if ("DOUBLE".equals(type)) {
+			return MQTTPublisherGui.DOUBLE;
+		} else if ("STRING".equals(type)) {
+			return MQTTPublisherGui.STRING;
+		}
+		//TEXT and TEXT_POOL are passed as is
+		return type;
+	}
+
+	static String formatValue(String format) {
+		if ("BINARY".equals(format)) {
+			return MQTTPublisherGui.BINARY;
+		} else if ("BASE64".equals(format)) {
+			return MQTTPublisherGui.BASE64;
+		} else if ("BINHEX".equals(format)) {
+			return MQTTPublisherGui.BINHEX;
+		} else if ("PLAIN_TEXT".equals(format)) {
+			return MQTTPublisherGui.PLAIN_TEXT;
+		}
+		return MQTTPublisherGui.NO_ENCODING;
+	}
+
+	/**
+	 * @return a valid message of the type, size chars long for text types
+	 */
+	static String message(String type, int size) {
+		if ("INT".equals(type) || "LONG".equals(type)) {
+			return "123456789";
+		} else if ("FLOAT".equals(type) || "DOUBLE".equals(type)) {
+			return "12345.678";
+		}
+		StringBuilder sb = new StringBuilder(size);
+		//words for the pool, plain text otherwise
+		String word = "TEXT_POOL".equals(type) ? "mqtt " : "abcdefghij";
+		while (sb.length() < size) {
+			sb.append(word);
+		}
+		sb.setLength(size);
+		return sb.toString();
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include(PayloadBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+	}
+}
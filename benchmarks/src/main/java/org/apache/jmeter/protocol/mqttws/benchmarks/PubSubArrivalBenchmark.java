@@ -0,0 +1,159 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.benchmarks;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jmeter.config.Arguments;
+import org.apache.jmeter.protocol.mqttws.client.MessageCorrelation;
+import org.apache.jmeter.protocol.mqttws.client.MqttPubSub;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of {@link MqttPubSub#messageArrived} per message, see
+ * {@link SubscriberArrivalBenchmark} for arrival, sharedArrival and backoff.
+ * <p>
+ * In CORRELATE mode the messages carry correlation headers of another
+ * client, so they go through the header parsing and registry lookup and are
+ * counted as foreign.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PubSubArrivalBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Input {
+		@Param({ "DEFAULT", "HIGH_THROUGHPUT", "CORRELATE" })
+		public String mode;
+
+		@Param({ "64", "1024" })
+		public int size;
+
+		@Param({ "0", "1000" })
+		public long backoff;
+
+		MqttMessage[] messages;
+
+		@Setup
+		public void setup() throws Exception {
+			messages = Arrivals.messages(1024, size);
+			if ("CORRELATE".equals(mode)) {
+				for (int i = 0; i < messages.length; i++) {
+					messages[i] = new MqttMessage(MessageCorrelation.wrap(i, System.currentTimeMillis(), messages[i].getPayload()));
+				}
+			}
+		}
+
+		MqttPubSub newClient() {
+			Arguments args = Arrivals.arguments();
+			args.addArgument("PUBLISHER_THROTTLE", "0");
+			args.addArgument("PUBLISHER_ACKS_TIMEOUT", "1000");
+			args.addArgument("HIGH_THROUGHPUT", "HIGH_THROUGHPUT".equals(mode) ? "TRUE" : "FALSE");
+			args.addArgument("CORRELATE", "CORRELATE".equals(mode) ? "TRUE" : "FALSE");
+			args.addArgument("LOOPBACK", "FALSE");
+			args.addArgument("RESPONSE_TOPIC", "");
+			args.addArgument("HEARTBEAT_TOPIC", "benchmark/heartbeat");
+			args.addArgument("HEARTBEAT_PAYLOAD", "");
+			args.addArgument("HEARTBEAT_PERIOD", "0");
+			args.addArgument("HEARTBEAT_QOS", "0");
+			MqttPubSub client = new MqttPubSub();
+			client.delayedSetupTest(Arrivals.context(args));
+			return client;
+		}
+	}
+
+	/**
+	 * A client per thread
+	 */
+	@State(Scope.Thread)
+	public static class Client {
+		MqttPubSub client;
+		int next = 0;
+
+		@Setup(Level.Iteration)
+		public void setup(Input input) {
+			client = input.newClient();
+		}
+
+		@TearDown(Level.Iteration)
+		public void tearDown() {
+			client.close(null);
+		}
+	}
+
+	/**
+	 * One client for all threads
+	 */
+	@State(Scope.Benchmark)
+	public static class Shared {
+		MqttPubSub client;
+
+		@Setup(Level.Iteration)
+		public void setup(Input input) {
+			client = input.newClient();
+		}
+
+		@TearDown(Level.Iteration)
+		public void tearDown() {
+			client.close(null);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next = 0;
+	}
+
+	@Benchmark
+	public void arrival(Input input, Client client) throws Exception {
+		if (input.backoff > 0) {
+			Blackhole.consumeCPU(input.backoff);
+		}
+		client.client.messageArrived("benchmark/pubsub", input.messages[client.next++ & 1023]);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void sharedArrival(Input input, Shared shared, Cursor cursor) throws Exception {
+		if (input.backoff > 0) {
+			Blackhole.consumeCPU(input.backoff);
+		}
+		shared.client.messageArrived("benchmark/pubsub", input.messages[cursor.next++ & 1023]);
+	}
+}
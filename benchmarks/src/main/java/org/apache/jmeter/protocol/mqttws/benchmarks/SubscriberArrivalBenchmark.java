@@ -0,0 +1,178 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.benchmarks;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jmeter.config.Arguments;
+import org.apache.jmeter.protocol.mqttws.client.MqttSubscriber;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of {@link MqttSubscriber#messageArrived} per message.
+ * <p>
+ * <b>arrival</b> gives every benchmark thread its own subscriber, as many
+ * clients of one engine (run it with -t to add threads): they only contend on
+ * what the engine shares. <b>sharedArrival</b> feeds one subscriber from 4
+ * threads to measure the contention on its own counters; except in
+ * HIGH_THROUGHPUT and CONTINUOUS mode the calls are serialized, since the
+ * received messages go to a plain list that Paho only ever fills from one
+ * thread.
+ * <p>
+ * <b>backoff</b> spends that many JMH cpu tokens between two messages, to
+ * compare the cost at lower arrival rates. Clients are recreated every
+ * iteration, so the received message list does not grow for the whole run.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubscriberArrivalBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Input {
+		@Param({ "DEFAULT", "HIGH_THROUGHPUT", "TOPIC_STATS", "CONTINUOUS" })
+		public String mode;
+
+		@Param({ "1", "1000" })
+		public int topicCount;
+
+		@Param({ "64", "1024" })
+		public int size;
+
+		@Param({ "0", "1000" })
+		public long backoff;
+
+		String[] topics;
+		MqttMessage[] messages;
+
+		@Setup
+		public void setup() throws Exception {
+			topics = Arrivals.topics(topicCount);
+			messages = Arrivals.messages(1024, size);
+		}
+
+		MqttSubscriber newSubscriber() {
+			Arguments args = Arrivals.arguments();
+			args.addArgument("KEEPALIVE", "0");
+			args.addArgument("AGGREGATE", String.valueOf(Long.MAX_VALUE));
+			args.addArgument("SAMPLER_TIMEOUT", "1000");
+			args.addArgument("HIGH_THROUGHPUT", "HIGH_THROUGHPUT".equals(mode) ? "TRUE" : "FALSE");
+			args.addArgument("TOPIC_STATS", "TOPIC_STATS".equals(mode) ? "TRUE" : "FALSE");
+			args.addArgument("CONTINUOUS", "CONTINUOUS".equals(mode) ? "TRUE" : "FALSE");
+			args.addArgument("WINDOW", "1000");
+			MqttSubscriber subscriber = new MqttSubscriber();
+			subscriber.delayedSetup(Arrivals.context(args));
+			return subscriber;
+		}
+	}
+
+	/**
+	 * A subscriber per thread
+	 */
+	@State(Scope.Thread)
+	public static class Client {
+		MqttSubscriber subscriber;
+		int next = 0;
+
+		@Setup(Level.Iteration)
+		public void setup(Input input) {
+			subscriber = input.newSubscriber();
+		}
+
+		@TearDown(Level.Iteration)
+		public void tearDown() {
+			subscriber.close(null);
+		}
+	}
+
+	/**
+	 * One subscriber for all threads
+	 */
+	@State(Scope.Benchmark)
+	public static class Shared {
+		MqttSubscriber subscriber;
+		boolean serialize;
+
+		@Setup(Level.Iteration)
+		public void setup(Input input) {
+			subscriber = input.newSubscriber();
+			//only these modes do not keep the messages in a list
+			serialize = !"HIGH_THROUGHPUT".equals(input.mode) && !"CONTINUOUS".equals(input.mode);
+		}
+
+		@TearDown(Level.Iteration)
+		public void tearDown() {
+			subscriber.close(null);
+		}
+	}
+
+	/**
+	 * Position of a thread in the input
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next = 0;
+	}
+
+	@Benchmark
+	public void arrival(Input input, Client client) throws Exception {
+		if (input.backoff > 0) {
+			Blackhole.consumeCPU(input.backoff);
+		}
+		int i = client.next++;
+		client.subscriber.messageArrived(input.topics[i % input.topics.length], input.messages[i & 1023]);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void sharedArrival(Input input, Shared shared, Cursor cursor) throws Exception {
+		if (input.backoff > 0) {
+			Blackhole.consumeCPU(input.backoff);
+		}
+		int i = cursor.next++;
+		String topic = input.topics[i % input.topics.length];
+		MqttMessage message = input.messages[i & 1023];
+		if (shared.serialize) {
+			synchronized (shared) {
+				shared.subscriber.messageArrived(topic, message);
+			}
+		} else {
+			shared.subscriber.messageArrived(topic, message);
+		}
+	}
+}
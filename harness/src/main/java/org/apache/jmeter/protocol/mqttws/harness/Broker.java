@@ -0,0 +1,48 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.harness;
+import java.io.IOException;
+
+/**
+ * A broker the scenarios run against.
+ */
+public interface Broker {
+
+	void start() throws IOException;
+
+	void stop();
+
+	/**
+	 * @return url of the tcp listener, as given to the Provider URL field
+	 */
+	String getTcpUrl();
+
+	/**
+	 * @return url of the websocket listener, null if the broker has none
+	 */
+	String getWsUrl();
+
+	/**
+	 * @return the subscriptions the broker acked so far
+	 */
+	Subscriptions getSubscriptions();
+}
@@ -0,0 +1,345 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.harness;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jmeter.config.Arguments;
+import org.apache.jmeter.protocol.java.sampler.JavaSamplerContext;
+import org.apache.jmeter.protocol.mqttws.client.MqttSubscriber;
+import org.apache.jmeter.protocol.mqttws.metrics.MqttMetrics;
+import org.apache.jmeter.protocol.mqttws.stats.LatencyHistogram;
+import org.apache.jmeter.util.JMeterUtils;
+
+/**
+ * Footprint of the clients per idle connection, before sweeping the number
+ * of clients against a real broker (script/generate.sh goes up to 10000).
+ * <p>
+ * For every size, opens that many connections through the subscriber client
+ * setup against an {@link InstantAckBroker}, then reports the heap and
+ * threads added per connection, the connect time percentiles and,
+ * after an idle period, the keep alive pings per second and the cpu time
+ * they cost. Connections spread over 127.0.0.1, 127.0.0.2... so that more
+ * than one range of ephemeral ports is available (Linux loopback); the
+ * process needs two file descriptors per connection (ulimit -n).
+ * <p>
+ * The broker runs in a child JVM ({@link BrokerProcess}): its connection
+ * buffers and its cpu would otherwise be counted as client footprint.
+ *
+ * <pre>
+ * ConnectionScale [-sizes 1000,10000,50000] [-keepalive 30] [-idle 60] [-parallel 16] [-csv file]
+ * </pre>
+ */
+public class ConnectionScale {
+	private static final int CONNECTIONS_PER_ADDRESS = 20000;
+	private static final String HEADER = "connections,connected,failed,heap_kb_per_conn,threads_per_conn,connect_p50_ms,connect_p90_ms,connect_p99_ms,connect_max_ms,pings_per_sec,cpu_us_per_ping";
+
+	private int[] sizes = { 1000, 10000, 50000 };
+	private int keepAlive = 30;
+	private int idle = 60;
+	private int parallel = 16;
+	private File csv = null;
+	private boolean phases = false;
+
+	/**
+	 * Subscriber that only connects
+	 */
+	static class IdleClient extends MqttSubscriber {
+		private static final long serialVersionUID = 1L;
+
+		boolean isConnected() {
+			return client() != null && client().isConnected();
+		}
+	}
+
+	/**
+	 * Main of the child JVM: an {@link InstantAckBroker} on the port given as
+	 * argument, that prints its ping count for every line read from stdin and
+	 * stops at the end of stdin.
+	 */
+	public static class BrokerProcess {
+		public static void main(String[] args) throws Exception {
+			InstantAckBroker broker = new InstantAckBroker("0.0.0.0", Integer.parseInt(args[0]));
+			broker.start();
+			System.out.println(broker.getTcpUrl());
+			System.out.flush();
+			BufferedReader in = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+			while (in.readLine() != null) {
+				System.out.println(broker.getPings());
+				System.out.flush();
+			}
+			broker.stop();
+		}
+	}
+
+	/**
+	 * The {@link BrokerProcess} side of the measuring JVM
+	 */
+	static class ChildBroker {
+		private final Process process;
+		private final BufferedReader out;
+		private final PrintWriter in;
+
+		ChildBroker(int port) throws IOException {
+			//only needs the harness classes, whatever the classpath of this JVM
+			String classes = new File(InstantAckBroker.class.getProtectionDomain().getCodeSource().getLocation().getPath()).getPath();
+			ProcessBuilder pb = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+					"-cp", classes, BrokerProcess.class.getName(), String.valueOf(port));
+			pb.redirectErrorStream(true);
+			process = pb.start();
+			out = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+			in = new PrintWriter(process.getOutputStream(), true);
+			if (out.readLine() == null) {
+				throw new IOException("Broker process ended at start, exit status " + waitFor());
+			}
+		}
+
+		long getPings() throws IOException {
+			in.println();
+			String line = out.readLine();
+			if (line == null) {
+				throw new IOException("Broker process ended, exit status " + waitFor());
+			}
+			return Long.parseLong(line.trim());
+		}
+
+		void stop() {
+			in.close();
+			waitFor();
+		}
+
+		private int waitFor() {
+			try {
+				return process.waitFor();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				process.destroy();
+				return -1;
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		ConnectionScale scale = new ConnectionScale();
+		try {
+			scale.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("usage: ConnectionScale [-sizes 1000,10000,50000] [-keepalive secs] [-idle secs] [-parallel n] [-phases true] [-csv file]");
+			System.exit(2);
+		}
+		Harness.initJMeter();
+		if (scale.phases) {
+			JMeterUtils.setProperty("mqtt.connect_phases", "true");
+		}
+		System.out.println(HEADER);
+		boolean ok = true;
+		for (int size : scale.sizes) {
+			ok &= scale.run(size);
+		}
+		System.exit(ok ? 0 : 1);
+	}
+
+	void parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value for " + arg);
+			}
+			String value = args[++i];
+			if ("-sizes".equals(arg)) {
+				String[] s = value.split(",");
+				sizes = new int[s.length];
+				for (int j = 0; j < s.length; j++) {
+					sizes[j] = Integer.parseInt(s[j].trim());
+				}
+			} else if ("-keepalive".equals(arg)) {
+				keepAlive = Integer.parseInt(value);
+			} else if ("-idle".equals(arg)) {
+				idle = Integer.parseInt(value);
+			} else if ("-parallel".equals(arg)) {
+				parallel = Integer.parseInt(value);
+			} else if ("-phases".equals(arg)) {
+				phases = Boolean.parseBoolean(value);
+			} else if ("-csv".equals(arg)) {
+				csv = new File(value);
+			} else {
+				throw new IllegalArgumentException("Unknown option: " + arg);
+			}
+		}
+	}
+
+	/**
+	 * @return true if all connections were opened
+	 */
+	boolean run(final int size) throws Exception {
+		final int port = freePort();
+		ChildBroker broker = new ChildBroker(port);
+		final List<IdleClient> clients = Collections.synchronizedList(new ArrayList<IdleClient>(size));
+		final LatencyHistogram connectTime = new LatencyHistogram();
+		final AtomicInteger failed = new AtomicInteger(0);
+		final AtomicBoolean exhausted = new AtomicBoolean(false);
+		final String run = Long.toHexString(System.nanoTime());
+
+		long heap0 = usedHeap();
+		int threads0 = ManagementFactory.getThreadMXBean().getThreadCount();
+		ExecutorService executor = Executors.newFixedThreadPool(parallel);
+		for (int i = 0; i < size; i++) {
+			final int n = i;
+			executor.execute(new Runnable() {
+				public void run() {
+					if (exhausted.get()) {
+						failed.incrementAndGet();
+						return;
+					}
+					try {
+						IdleClient client = new IdleClient();
+						long start = System.nanoTime();
+						client.delayedSetup(context(run, n, port));
+						connectTime.record((System.nanoTime() - start) / 1000);
+						clients.add(client);
+						if (!client.isConnected()) {
+							failed.incrementAndGet();
+						}
+					} catch (OutOfMemoryError e) {
+						//usually no more native threads
+						exhausted.set(true);
+						failed.incrementAndGet();
+					} catch (RuntimeException e) {
+						failed.incrementAndGet();
+					}
+				}
+			});
+		}
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.DAYS);
+		int connected = size - failed.get();
+		long heap1 = usedHeap();
+		int threads1 = ManagementFactory.getThreadMXBean().getThreadCount();
+
+		long cpu0 = processCpuTime();
+		long pings0 = broker.getPings();
+		Thread.sleep(idle * 1000L);
+		long cpu1 = processCpuTime();
+		long pings = broker.getPings() - pings0;
+
+		for (IdleClient client : clients) {
+			try {
+				client.close(null);
+			} catch (RuntimeException e) {
+				//closing anyway
+			}
+		}
+		broker.stop();
+
+		int per = Math.max(1, connected);
+		String line = String.format(Locale.ROOT, "%d,%d,%d,%.1f,%.2f,%.2f,%.2f,%.2f,%.2f,%.1f,%.1f",
+				size, connected, failed.get(),
+				(heap1 - heap0) / 1024.0 / per,
+				(threads1 - threads0) / (double) per,
+				connectTime.getValueAtPercentile(50) / 1000.0,
+				connectTime.getValueAtPercentile(90) / 1000.0,
+				connectTime.getValueAtPercentile(99) / 1000.0,
+				connectTime.getMax() / 1000.0,
+				pings / (double) idle,
+				(cpu0 < 0 || pings == 0) ? -1.0 : (cpu1 - cpu0) / 1000.0 / pings);
+		System.out.println(line);
+		if (exhausted.get()) {
+			System.out.println("  stopped connecting: out of memory or native threads");
+		}
+		if (phases) {
+			System.out.println("  phases: " + MqttMetrics.engine().getConnectPhases());
+			MqttMetrics.engine().resetLatencies();
+		}
+		if (csv != null) {
+			boolean header = !csv.exists();
+			PrintWriter out = new PrintWriter(new FileWriter(csv, true));
+			try {
+				if (header) {
+					out.println(HEADER);
+				}
+				out.println(line);
+			} finally {
+				out.close();
+			}
+		}
+		return failed.get() == 0;
+	}
+
+	private JavaSamplerContext context(String run, int n, int port) {
+		Arguments args = new Arguments();
+		args.addArgument("SAMPLER_NAME", "scale");
+		args.addArgument("HOST", "tcp://127.0.0." + (1 + n / CONNECTIONS_PER_ADDRESS) + ":" + port);
+		args.addArgument("CLIENT_ID", "scale-" + run + "-" + n);
+		args.addArgument("CONNECTION_TIMEOUT", "30000");
+		args.addArgument("KEEPALIVE", String.valueOf(keepAlive));
+		args.addArgument("CLEAN_SESSION", "true");
+		args.addArgument("RANDOM_SUFFIX", "FALSE");
+		args.addArgument("AGGREGATE", "");
+		args.addArgument("SAMPLER_TIMEOUT", "");
+		return new JavaSamplerContext(args);
+	}
+
+	private static int freePort() throws IOException {
+		ServerSocket s = new ServerSocket(0);
+		try {
+			return s.getLocalPort();
+		} finally {
+			s.close();
+		}
+	}
+
+	private static long usedHeap() throws InterruptedException {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	/**
+	 * @return cpu time of the process in nanoseconds, -1 if unknown
+	 */
+	private static long processCpuTime() {
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+		}
+		return -1;
+	}
+}
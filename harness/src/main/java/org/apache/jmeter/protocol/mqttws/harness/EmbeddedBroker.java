@@ -0,0 +1,121 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.harness;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Properties;
+
+import io.moquette.broker.Server;
+import io.moquette.interception.AbstractInterceptHandler;
+import io.moquette.interception.messages.InterceptSubscribeMessage;
+
+/**
+ * In-process MQTT broker (Moquette) listening on tcp and websockets, so the
+ * clients can be exercised end to end without the broker of
+ * script/execute.sh. Messages are kept in memory only.
+ */
+public class EmbeddedBroker implements Broker {
+	private final Server server = new Server();
+	private final Subscriptions subscriptions = new Subscriptions();
+	private final String host;
+	private int tcpPort;
+	private int wsPort;
+	private boolean started = false;
+
+	/**
+	 * @param host interface to listen on
+	 * @param tcpPort tcp port, 0 for any free port
+	 * @param wsPort websocket port, 0 for any free port
+	 */
+	public EmbeddedBroker(String host, int tcpPort, int wsPort) {
+		this.host = host;
+		this.tcpPort = tcpPort;
+		this.wsPort = wsPort;
+	}
+
+	public EmbeddedBroker() {
+		this("127.0.0.1", 0, 0);
+	}
+
+	public synchronized void start() throws IOException {
+		if (started) {
+			return;
+		}
+		if (tcpPort == 0) {
+			tcpPort = freePort();
+		}
+		if (wsPort == 0) {
+			wsPort = freePort();
+		}
+		Properties config = new Properties();
+		config.setProperty("host", host);
+		config.setProperty("port", String.valueOf(tcpPort));
+		config.setProperty("websocket_port", String.valueOf(wsPort));
+		config.setProperty("allow_anonymous", "true");
+		//no store: in memory
+		config.setProperty("persistent_store", "");
+		server.startServer(config);
+		server.addInterceptHandler(new AbstractInterceptHandler() {
+			public String getID() {
+				return "harness-subscriptions";
+			}
+
+			public void onSessionLoopError(Throwable error) {
+				error.printStackTrace();
+			}
+
+			@Override
+			public void onSubscribe(InterceptSubscribeMessage msg) {
+				subscriptions.add(msg.getTopicFilter());
+			}
+		});
+		started = true;
+	}
+
+	public synchronized void stop() {
+		if (started) {
+			server.stopServer();
+			started = false;
+		}
+	}
+
+	public String getTcpUrl() {
+		return "tcp://" + host + ":" + tcpPort;
+	}
+
+	public String getWsUrl() {
+		return "ws://" + host + ":" + wsPort + "/mqtt";
+	}
+
+	public Subscriptions getSubscriptions() {
+		return subscriptions;
+	}
+
+	private static int freePort() throws IOException {
+		ServerSocket s = new ServerSocket(0);
+		try {
+			return s.getLocalPort();
+		} finally {
+			s.close();
+		}
+	}
+}
@@ -0,0 +1,193 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.harness;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.jmeter.protocol.mqttws.control.gui.MQTTPublisherGui;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.util.JMeterUtils;
+
+/**
+ * Boots a broker and runs the {@link Scenarios} over tcp and websockets.
+ * <p>
+ * The broker is an {@link EmbeddedBroker}, or with <code>-broker instant</code>
+ * an {@link InstantAckBroker} (tcp only) which gives the ceiling of the
+ * clients alone.
+ * <p>
+ * Every run prints one line (scenario, transport, messages, time, rate) and
+ * may append it to a csv file, so results of successive builds can be
+ * compared. The exit status is 1 if a scenario failed.
+ *
+ * <pre>
+ * Harness [-broker embedded|instant] [-messages n] [-qos 0|1|2] [-transport tcp|ws|both] [-runs n] [-csv file] [scenario...]
+ * </pre>
+ */
+public class Harness {
+	private String brokerType = "embedded";
+	private int messages = 1000;
+	private String qos = MQTTPublisherGui.AT_LEAST_ONCE;
+	private String transport = "both";
+	private int runs = 1;
+	private File csv = null;
+	private final List<Scenario> scenarios = new ArrayList<Scenario>();
+
+	public static void main(String[] args) throws Exception {
+		Harness harness = new Harness();
+		try {
+			harness.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("usage: Harness [-broker embedded|instant] [-messages n] [-qos 0|1|2] [-transport tcp|ws|both] [-runs n] [-csv file] [publisher|subscriber|pubsub...]");
+			System.exit(2);
+		}
+		System.exit(harness.run() ? 0 : 1);
+	}
+
+	void parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if ("-broker".equals(arg)) {
+				brokerType = value(args, ++i);
+				if (!"embedded".equals(brokerType) && !"instant".equals(brokerType)) {
+					throw new IllegalArgumentException("Unknown broker: " + brokerType);
+				}
+			} else if ("-messages".equals(arg)) {
+				messages = Integer.parseInt(value(args, ++i));
+			} else if ("-qos".equals(arg)) {
+				qos = quality(value(args, ++i));
+			} else if ("-transport".equals(arg)) {
+				transport = value(args, ++i);
+			} else if ("-runs".equals(arg)) {
+				runs = Integer.parseInt(value(args, ++i));
+			} else if ("-csv".equals(arg)) {
+				csv = new File(value(args, ++i));
+			} else {
+				scenarios.add(scenario(arg));
+			}
+		}
+		if (scenarios.isEmpty()) {
+			for (Scenario s : Scenarios.ALL) {
+				scenarios.add(s);
+			}
+		}
+	}
+
+	/**
+	 * @return true if every scenario succeeded
+	 */
+	boolean run() throws IOException {
+		initJMeter();
+		Broker broker = "instant".equals(brokerType) ? new InstantAckBroker() : new EmbeddedBroker();
+		broker.start();
+		boolean ok = true;
+		try {
+			for (int r = 0; r < runs; r++) {
+				for (Scenario s : scenarios) {
+					if (!"ws".equals(transport)) {
+						ok &= run(s, broker, "tcp", broker.getTcpUrl());
+					}
+					if (!"tcp".equals(transport) && broker.getWsUrl() != null) {
+						ok &= run(s, broker, "ws", broker.getWsUrl());
+					}
+				}
+			}
+		} finally {
+			broker.stop();
+		}
+		return ok;
+	}
+
+	private boolean run(Scenario scenario, Broker broker, String transport, String url) throws IOException {
+		SampleResult result;
+		try {
+			result = scenario.run(broker, url, messages, qos);
+		} catch (Exception e) {
+			result = new SampleResult();
+			result.setSuccessful(false);
+			result.setResponseMessage(e.toString());
+		}
+		long time = Math.max(1, result.getTime());
+		String line = String.format(Locale.ROOT, "%s,%s,%s,%d,%s,%d,%.1f,%s",
+				brokerType, scenario.getName(), transport, messages, qos, time, messages * 1000.0 / time,
+				result.isSuccessful() ? "ok" : "FAILED");
+		System.out.println(line);
+		if (!result.isSuccessful()) {
+			System.out.println("  " + result.getResponseMessage());
+		}
+		if (csv != null) {
+			boolean header = !csv.exists();
+			PrintWriter out = new PrintWriter(new FileWriter(csv, true));
+			try {
+				if (header) {
+					out.println("broker,scenario,transport,messages,qos,time_ms,msgs_per_sec,status");
+				}
+				out.println(line);
+			} finally {
+				out.close();
+			}
+		}
+		return result.isSuccessful();
+	}
+
+	/**
+	 * The samplers read JMeter properties, give them an empty set
+	 */
+	static void initJMeter() throws IOException {
+		File props = File.createTempFile("harness", ".properties");
+		props.deleteOnExit();
+		JMeterUtils.loadJMeterProperties(props.getAbsolutePath());
+		JMeterUtils.setLocale(Locale.ENGLISH);
+	}
+
+	private static Scenario scenario(String name) {
+		for (Scenario s : Scenarios.ALL) {
+			if (s.getName().equals(name)) {
+				return s;
+			}
+		}
+		throw new IllegalArgumentException("Unknown scenario: " + name);
+	}
+
+	private static String quality(String qos) {
+		if ("0".equals(qos)) {
+			return MQTTPublisherGui.AT_MOST_ONCE;
+		} else if ("1".equals(qos)) {
+			return MQTTPublisherGui.AT_LEAST_ONCE;
+		} else if ("2".equals(qos)) {
+			return MQTTPublisherGui.EXACTLY_ONCE;
+		}
+		throw new IllegalArgumentException("Unknown qos: " + qos);
+	}
+
+	private static String value(String[] args, int i) {
+		if (i >= args.length) {
+			throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+		}
+		return args[i];
+	}
+}
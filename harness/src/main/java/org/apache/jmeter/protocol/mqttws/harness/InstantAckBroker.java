@@ -0,0 +1,473 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.harness;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Broker stand-in doing as little as possible, to measure the ceiling of the
+ * clients rather than the broker.
+ * <p>
+ * A single NIO thread parses the MQTT frames and answers at once: CONNACK,
+ * PUBACK (QoS 1), PUBREC then PUBCOMP on PUBREL (QoS 2), SUBACK, UNSUBACK and
+ * PINGRESP. Payloads are discarded, unless the topic matches a subscription:
+ * the message is then reflected to the subscribers at QoS 0, so subscribers
+ * never have to ack (SUBACK grants QoS 0). There are no sessions, retained
+ * messages, wills, authentication or websockets.
+ */
+public class InstantAckBroker implements Broker {
+	private static final int CONNECT = 1, PUBLISH = 3, PUBREL = 6, SUBSCRIBE = 8,
+			UNSUBSCRIBE = 10, PINGREQ = 12, DISCONNECT = 14;
+	//reflected messages are dropped when a subscriber is that far behind
+	private static final int MAX_PENDING_OUT = 64 * 1024 * 1024;
+
+	private static class Connection {
+		final SocketChannel channel;
+		ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+		ByteBuffer out = ByteBuffer.allocate(64 * 1024);
+		final List<String> filters = new ArrayList<String>();
+
+		Connection(SocketChannel channel) {
+			this.channel = channel;
+		}
+	}
+
+	private final String host;
+	private int port;
+	private Selector selector;
+	private ServerSocketChannel server;
+	private Thread thread;
+	private volatile boolean running = false;
+	private final List<Connection> subscribers = new ArrayList<Connection>();
+	private final Subscriptions subscriptions = new Subscriptions();
+
+	private final AtomicLong connections = new AtomicLong(0);
+	//by QoS
+	private final AtomicLongArray published = new AtomicLongArray(3);
+	private final AtomicLong bytes = new AtomicLong(0);
+	private final AtomicLong reflected = new AtomicLong(0);
+	private final AtomicLong dropped = new AtomicLong(0);
+	private final AtomicLong pings = new AtomicLong(0);
+
+	/**
+	 * @param host interface to listen on
+	 * @param port tcp port, 0 for any free port
+	 */
+	public InstantAckBroker(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	public InstantAckBroker() {
+		this("127.0.0.1", 0);
+	}
+
+	public synchronized void start() throws IOException {
+		if (running) {
+			return;
+		}
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.socket().setReuseAddress(true);
+		server.socket().bind(new InetSocketAddress(host, port), 1024);
+		port = server.socket().getLocalPort();
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+		running = true;
+		thread = new Thread(new Runnable() {
+			public void run() {
+				loop();
+			}
+		}, "instant-ack-broker");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		selector.wakeup();
+		try {
+			thread.join(5000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public String getTcpUrl() {
+		return "tcp://" + host + ":" + port;
+	}
+
+	public String getWsUrl() {
+		return null;
+	}
+
+	public Subscriptions getSubscriptions() {
+		return subscriptions;
+	}
+
+	public long getConnections() {
+		return connections.get();
+	}
+
+	/**
+	 * @return PUBLISH frames received with the given QoS
+	 */
+	public long getPublished(int qos) {
+		return published.get(qos);
+	}
+
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	public long getReflected() {
+		return reflected.get();
+	}
+
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	public long getPings() {
+		return pings.get();
+	}
+
+	private void loop() {
+		try {
+			while (running) {
+				selector.select();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						if (!key.isValid()) {
+							continue;
+						}
+						if (key.isAcceptable()) {
+							accept();
+							continue;
+						}
+						Connection c = (Connection) key.attachment();
+						if (key.isReadable()) {
+							read(key, c);
+						}
+						if (key.isValid() && key.isWritable()) {
+							flush(key, c);
+						}
+					} catch (IOException e) {
+						close(key);
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				close(key);
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				//stopping anyway
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel ch = server.accept();
+		if (ch == null) {
+			return;
+		}
+		ch.configureBlocking(false);
+		ch.socket().setTcpNoDelay(true);
+		ch.register(selector, SelectionKey.OP_READ, new Connection(ch));
+		connections.incrementAndGet();
+	}
+
+	private void close(SelectionKey key) {
+		Object c = key.attachment();
+		if (c instanceof Connection) {
+			subscribers.remove(c);
+		}
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			//closed anyway
+		}
+	}
+
+	private void read(SelectionKey key, Connection c) throws IOException {
+		if (c.channel.read(c.in) < 0) {
+			close(key);
+			return;
+		}
+		ByteBuffer in = c.in;
+		in.flip();
+		while (in.remaining() >= 2) {
+			int start = in.position();
+			int type = (in.get() & 0xff) >>> 4;
+			int flags = in.get(start) & 0x0f;
+			int length = 0;
+			int shift = 0;
+			int b;
+			boolean complete = true;
+			do {
+				if (!in.hasRemaining()) {
+					complete = false;
+					break;
+				}
+				b = in.get();
+				length |= (b & 0x7f) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			if (!complete || in.remaining() < length) {
+				in.position(start);
+				if (complete && in.capacity() < length + 5) {
+					//frame larger than the buffer
+					ByteBuffer bigger = ByteBuffer.allocate(length + 5);
+					bigger.put(in);
+					c.in = bigger;
+					return;
+				}
+				break;
+			}
+			int body = in.position();
+			if (!handle(key, c, type, flags, body, length)) {
+				return;
+			}
+			in.position(body + length);
+		}
+		in.compact();
+		if (c.out.position() > 0) {
+			flush(key, c);
+		}
+	}
+
+	/**
+	 * @return false if the connection was closed
+	 */
+	private boolean handle(SelectionKey key, Connection c, int type, int flags, int body, int length) {
+		ByteBuffer in = c.in;
+		switch (type) {
+		case CONNECT:
+			write(c, 0x20, 0x02, 0x00, 0x00);
+			break;
+		case PUBLISH:
+			int qos = (flags >>> 1) & 0x03;
+			int topicLength = in.getShort(body) & 0xffff;
+			int payload = body + 2 + topicLength + (qos > 0 ? 2 : 0);
+			published.incrementAndGet(Math.min(qos, 2));
+			bytes.addAndGet(body + length - payload);
+			if (qos == 1) {
+				write(c, 0x40, 0x02, in.get(payload - 2), in.get(payload - 1));
+			} else if (qos == 2) {
+				write(c, 0x50, 0x02, in.get(payload - 2), in.get(payload - 1));
+			}
+			if (!subscribers.isEmpty()) {
+				reflect(in, body, topicLength, payload, body + length);
+			}
+			break;
+		case PUBREL:
+			write(c, 0x70, 0x02, in.get(body), in.get(body + 1));
+			break;
+		case SUBSCRIBE:
+		case UNSUBSCRIBE:
+			int p = body + 2;
+			int granted = 0;
+			List<String> added = new ArrayList<String>();
+			while (p < body + length) {
+				int n = in.getShort(p) & 0xffff;
+				String filter = string(in, p + 2, n);
+				p += 2 + n;
+				if (type == SUBSCRIBE) {
+					p++;
+					granted++;
+					c.filters.add(filter);
+					added.add(filter);
+				} else {
+					c.filters.remove(filter);
+				}
+			}
+			if (type == SUBSCRIBE) {
+				ensure(c, 4 + granted);
+				c.out.put((byte) 0x90).put((byte) (2 + granted)).put(in.get(body)).put(in.get(body + 1));
+				for (int i = 0; i < granted; i++) {
+					c.out.put((byte) 0x00);
+				}
+			} else {
+				write(c, 0xb0, 0x02, in.get(body), in.get(body + 1));
+			}
+			subscribers.remove(c);
+			if (!c.filters.isEmpty()) {
+				subscribers.add(c);
+			}
+			for (String filter : added) {
+				subscriptions.add(filter);
+			}
+			break;
+		case PINGREQ:
+			pings.incrementAndGet();
+			write(c, 0xd0, 0x00);
+			break;
+		case DISCONNECT:
+			close(key);
+			return false;
+		default:
+			//acks of the client and anything else are ignored
+			break;
+		}
+		return true;
+	}
+
+	/**
+	 * Send a PUBLISH at QoS 0 to the subscribers of its topic
+	 */
+	private void reflect(ByteBuffer in, int body, int topicLength, int payload, int end) {
+		String topic = string(in, body + 2, topicLength);
+		int remaining = 2 + topicLength + end - payload;
+		for (int i = 0; i < subscribers.size(); i++) {
+			Connection s = subscribers.get(i);
+			if (!matches(s.filters, topic)) {
+				continue;
+			}
+			if (s.out.position() + remaining + 5 > MAX_PENDING_OUT) {
+				dropped.incrementAndGet();
+				continue;
+			}
+			ensure(s, remaining + 5);
+			s.out.put((byte) 0x30);
+			int r = remaining;
+			do {
+				int b = r & 0x7f;
+				r >>>= 7;
+				s.out.put((byte) (r > 0 ? b | 0x80 : b));
+			} while (r > 0);
+			s.out.put(in.array(), body, 2 + topicLength);
+			s.out.put(in.array(), payload, end - payload);
+			reflected.incrementAndGet();
+			SelectionKey key = s.channel.keyFor(selector);
+			if (key != null && key.isValid()) {
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		}
+	}
+
+	private void write(Connection c, int... frame) {
+		ensure(c, frame.length);
+		for (int b : frame) {
+			c.out.put((byte) b);
+		}
+	}
+
+	private static void ensure(Connection c, int n) {
+		if (c.out.remaining() < n) {
+			ByteBuffer bigger = ByteBuffer.allocate(Math.max(c.out.capacity() * 2, c.out.position() + n));
+			c.out.flip();
+			bigger.put(c.out);
+			c.out = bigger;
+		}
+	}
+
+	private void flush(SelectionKey key, Connection c) throws IOException {
+		c.out.flip();
+		c.channel.write(c.out);
+		c.out.compact();
+		key.interestOps(c.out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+	}
+
+	private static String string(ByteBuffer b, int off, int length) {
+		try {
+			return new String(b.array(), off, length, "UTF-8");
+		} catch (java.io.UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static boolean matches(List<String> filters, String topic) {
+		for (int i = 0; i < filters.size(); i++) {
+			if (matches(filters.get(i), topic)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the topic matches the filter, with + and # wildcards
+	 */
+	static boolean matches(String filter, String topic) {
+		int f = 0;
+		int t = 0;
+		while (f < filter.length()) {
+			char c = filter.charAt(f);
+			if (c == '#') {
+				return true;
+			}
+			if (c == '+') {
+				while (t < topic.length() && topic.charAt(t) != '/') {
+					t++;
+				}
+				f++;
+			} else {
+				if (t >= topic.length() || topic.charAt(t) != c) {
+					//"a/#" also matches "a"
+					return t == topic.length() && filter.startsWith("/#", f);
+				}
+				f++;
+				t++;
+			}
+		}
+		return t == topic.length();
+	}
+
+	/**
+	 * Run the broker alone, for JMeter tests: InstantAckBroker [port [host]]
+	 */
+	public static void main(String[] args) throws Exception {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 1883;
+		String host = args.length > 1 ? args[1] : "0.0.0.0";
+		final InstantAckBroker broker = new InstantAckBroker(host, port);
+		broker.start();
+		System.out.println("Instant ack broker listening on " + broker.getTcpUrl());
+		while (true) {
+			Thread.sleep(10000);
+			System.out.println("connections: " + broker.getConnections() +
+					", published qos0/1/2: " + broker.getPublished(0) + "/" + broker.getPublished(1) + "/" + broker.getPublished(2) +
+					", bytes: " + broker.getBytes() + ", reflected: " + broker.getReflected() + ", dropped: " + broker.getDropped());
+		}
+	}
+}
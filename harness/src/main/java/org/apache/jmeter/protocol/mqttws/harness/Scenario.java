@@ -0,0 +1,50 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.harness;
+import org.apache.jmeter.samplers.SampleResult;
+
+/**
+ * An end to end run of the MQTTWS samplers against a broker.
+ * <p>
+ * Samplers are driven the way a JMeter thread does it: threadStarted(),
+ * sample(), threadFinished().
+ */
+public abstract class Scenario {
+	private final String name;
+
+	protected Scenario(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @param broker the broker the scenario runs against
+	 * @param url broker url, tcp or websocket
+	 * @param messages number of messages to exchange
+	 * @param qos one of the MQTTPublisherGui quality of service constants
+	 * @return the result of the measured sampler
+	 */
+	public abstract SampleResult run(Broker broker, String url, int messages, String qos) throws Exception;
+}
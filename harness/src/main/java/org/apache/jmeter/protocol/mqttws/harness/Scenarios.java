@@ -0,0 +1,175 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.harness;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.jmeter.protocol.mqttws.control.gui.MQTTPublisherGui;
+import org.apache.jmeter.protocol.mqttws.sampler.BaseMQTTSampler;
+import org.apache.jmeter.protocol.mqttws.sampler.PubSubSampler;
+import org.apache.jmeter.protocol.mqttws.sampler.PublisherSampler;
+import org.apache.jmeter.protocol.mqttws.sampler.SubscriberSampler;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.testelement.ThreadListener;
+
+/**
+ * The scenarios of the harness: publisher, subscriber and pub/sub throughput.
+ */
+public final class Scenarios {
+	//time given to a subscriber to be subscribed before the scenario fails
+	private static final long SUBSCRIBE_TIMEOUT = 10000;
+
+	private Scenarios() {
+	}
+
+	/**
+	 * One publisher sending messages, measured until all are acked.
+	 */
+	public static final Scenario PUBLISHER = new Scenario("publisher") {
+		@Override
+		public SampleResult run(Broker broker, String url, int messages, String qos) throws Exception {
+			return runOnce(publisher(url, "harness/publisher", messages, qos));
+		}
+	};
+
+	/**
+	 * One subscriber receiving the messages of one publisher, measured from
+	 * subscription to the last message.
+	 */
+	public static final Scenario SUBSCRIBER = new Scenario("subscriber") {
+		@Override
+		public SampleResult run(Broker broker, String url, int messages, String qos) throws Exception {
+			String topic = "harness/subscriber";
+			final SubscriberSampler subscriber = subscriber(url, topic, messages, qos);
+			Subscriptions subscriptions = broker.getSubscriptions();
+			long subscribed = subscriptions.count(topic);
+			ExecutorService executor = Executors.newSingleThreadExecutor();
+			try {
+				Future<SampleResult> received = executor.submit(new Callable<SampleResult>() {
+					public SampleResult call() {
+						return runOnce(subscriber);
+					}
+				});
+				//publish once the broker acked the SUBSCRIBE
+				long deadline = System.currentTimeMillis() + SUBSCRIBE_TIMEOUT;
+				while (!subscriptions.await(topic, subscribed + 1, 100)) {
+					if (received.isDone()) {
+						//failed before it was subscribed
+						return received.get();
+					}
+					if (System.currentTimeMillis() > deadline) {
+						SampleResult result = new SampleResult();
+						result.setSuccessful(false);
+						result.setResponseMessage("Subscriber not subscribed after " + SUBSCRIBE_TIMEOUT + " msecs");
+						return result;
+					}
+				}
+				SampleResult sent = runOnce(publisher(url, "harness/subscriber", messages, qos));
+				SampleResult result = received.get();
+				if (!sent.isSuccessful()) {
+					result.setSuccessful(false);
+					result.setResponseMessage("Publisher failed: " + sent.getResponseMessage());
+				}
+				return result;
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+	};
+
+	/**
+	 * One pub/sub client in loopback mode: every message goes to the broker
+	 * and back, measured until all echoes arrived.
+	 */
+	public static final Scenario PUBSUB = new Scenario("pubsub") {
+		@Override
+		public SampleResult run(Broker broker, String url, int messages, String qos) throws Exception {
+			PubSubSampler sampler = new PubSubSampler();
+			sampler.setName("pubsub");
+			sampler.setProviderUrl(url);
+			sampler.setCLIENT_ID(clientId("pubsub"));
+			sampler.setDestination("harness/pubsub");
+			sampler.setIterations(String.valueOf(messages));
+			sampler.setQuality(qos);
+			sampler.setMessageChoice(MQTTPublisherGui.TEXT_MSG_RSC);
+			sampler.setTextMessage("harness");
+			sampler.setFORMAT(MQTTPublisherGui.NO_ENCODING);
+			sampler.setCHARSET("UTF-8");
+			sampler.setPublisherThrottle("0");
+			sampler.setLoopback(true);
+			sampler.setHeartbeatPeriod("0");
+			sampler.setCLEANSESSION(true);
+			return runOnce(sampler);
+		}
+	};
+
+	public static final Scenario[] ALL = { PUBLISHER, SUBSCRIBER, PUBSUB };
+
+	static PublisherSampler publisher(String url, String topic, int messages, String qos) {
+		PublisherSampler sampler = new PublisherSampler();
+		sampler.setName("publisher");
+		sampler.setProviderUrl(url);
+		sampler.setCLIENT_ID(clientId("pub"));
+		sampler.setDestination(topic);
+		sampler.setIterations(String.valueOf(messages));
+		sampler.setQuality(qos);
+		sampler.setMessageChoice(MQTTPublisherGui.TEXT_MSG_RSC);
+		sampler.setTextMessage("harness");
+		sampler.setFORMAT(MQTTPublisherGui.NO_ENCODING);
+		sampler.setCHARSET("UTF-8");
+		sampler.setUSE_TIMESTAMP(true);
+		sampler.setPublisherThrottle("0");
+		sampler.setCLEANSESSION(true);
+		return sampler;
+	}
+
+	static SubscriberSampler subscriber(String url, String topic, int messages, String qos) {
+		SubscriberSampler sampler = new SubscriberSampler();
+		sampler.setName("subscriber");
+		sampler.setProviderUrl(url);
+		sampler.setClientID(clientId("sub"));
+		sampler.setDestination(topic);
+		sampler.setIterations(String.valueOf(messages));
+		sampler.setMaxQoS(qos);
+		sampler.setHighThroughput(true);
+		sampler.setCLEANSESSION(true);
+		return sampler;
+	}
+
+	private static String clientId(String prefix) {
+		return "harness-" + prefix + "-" + Long.toHexString(System.nanoTime());
+	}
+
+	/**
+	 * @return result of a single sample of a JMeter thread running the sampler
+	 */
+	static <T extends BaseMQTTSampler & ThreadListener> SampleResult runOnce(T sampler) {
+		sampler.threadStarted();
+		try {
+			return sampler.sample();
+		} finally {
+			sampler.threadFinished();
+		}
+	}
+}
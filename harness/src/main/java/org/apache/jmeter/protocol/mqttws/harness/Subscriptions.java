@@ -0,0 +1,65 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.harness;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Subscriptions a broker registered, counted by topic filter, so a scenario
+ * can wait for its subscriber to be subscribed before it publishes.
+ */
+public class Subscriptions {
+	private final Map<String, Long> counts = new HashMap<String, Long>();
+
+	/**
+	 * @return subscriptions to the filter so far
+	 */
+	public synchronized long count(String filter) {
+		Long n = counts.get(filter);
+		return (n == null) ? 0 : n.longValue();
+	}
+
+	/**
+	 * The broker subscribed a client to the filter and acked it
+	 */
+	public synchronized void add(String filter) {
+		counts.put(filter, Long.valueOf(count(filter) + 1));
+		notifyAll();
+	}
+
+	/**
+	 * @param count number of subscriptions to wait for
+	 * @param timeout msecs
+	 * @return false if the filter has fewer subscriptions after the timeout
+	 */
+	public synchronized boolean await(String filter, long count, long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeout;
+		while (count(filter) < count) {
+			long left = end - System.currentTimeMillis();
+			if (left <= 0) {
+				return false;
+			}
+			wait(left);
+		}
+		return true;
+	}
+}
@@ -57,6 +57,11 @@ done
 done
 done
 
+#------------------------------------Report the sweep---------------------------------------------#
+# Summary and time series of every sweep point, from the results files (and the files of the
+# mqtt.results.file and mqtt.histogram.file properties, if set with the same suffix)
+java -cp ../lib/ext/mqttws-jmeter.jar org.apache.jmeter.protocol.mqttws.report.SweepReport -out ~/METRICS/Report ~/METRICS/Results
+
 #echo Please read 16.7 Reducing resource requirements http://jmeter.apache.org/usermanual/best-practices.html
 #echo Please read 2.4.3 2.4.7 http://jmeter.apache.org/usermanual/get-started.html
 #echo Please read http://jmeter.apache.org/usermanual/jmeter_distributed_testing_step_by_step.pdf
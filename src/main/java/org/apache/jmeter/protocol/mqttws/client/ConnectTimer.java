@@ -0,0 +1,243 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+package org.apache.jmeter.protocol.mqttws.client;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+
+import javax.net.SocketFactory;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.apache.jmeter.protocol.mqttws.metrics.MqttMetrics;
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+
+/**
+ * Times the phases of the connections of a client: name resolution, TCP
+ * connect, TLS handshake, WebSocket upgrade and CONNECT to CONNACK, as listed
+ * by {@link MqttMetrics#CONNECT_PHASES}.
+ * <p>
+ * {@link #install} puts a timed socket factory in the connect options of the
+ * client. Its sockets stamp their connect and handshake, and the first reads
+ * and writes on their streams: the upgrade request and response on a
+ * WebSocket, then the CONNECT packet and the CONNACK. Name resolution is
+ * timed by {@link #start}, before Paho resolves the (then cached) address.
+ * Enabled by the <code>mqtt.connect_phases</code> property, as every read
+ * and write goes through one more stream.
+ */
+public class ConnectTimer {
+	private static final Logger log = LoggingManager.getLoggerForClass();
+	private static final boolean ENABLED = JMeterUtils.getPropDefault("mqtt.connect_phases", false); // $NON-NLS-1$
+
+	private final String host;
+	private final boolean websocket;
+	//System.nanoTime() of each event of the current connection, 0 until seen
+	private volatile long dnsStart;
+	private volatile long dnsEnd;
+	private volatile long tcpStart;
+	private volatile long tcpEnd;
+	private volatile long tlsStart;
+	private volatile long tlsEnd;
+	private volatile long upgradeStart;
+	private volatile long upgradeEnd;
+	private volatile long connectSent;
+	private volatile long connackReceived;
+	//CONNACK seen, the streams stop stamping
+	volatile boolean done = false;
+
+	/**
+	 * Time the connections made with the options, if mqtt.connect_phases is set.
+	 *
+	 * @param options connect options of the client, gets a timed socket factory
+	 * @param uri server URI of the client
+	 * @return the timer of the client connections, null if not enabled
+	 */
+	public static ConnectTimer install(MqttConnectOptions options, String uri) {
+		if (!ENABLED) {
+			return null;
+		}
+		URI server;
+		try {
+			server = new URI(uri);
+		} catch (URISyntaxException e) {
+			log.warn("Cannot time the connections to " + uri + ": " + e.getMessage());
+			return null;
+		}
+		String scheme = (server.getScheme() == null) ? "" : server.getScheme().toLowerCase(); // $NON-NLS-1$
+		ConnectTimer timer = new ConnectTimer(server.getHost(), scheme.startsWith("ws")); // $NON-NLS-1$
+		if ("ssl".equals(scheme) || "wss".equals(scheme)) { // $NON-NLS-1$ // $NON-NLS-2$
+			SocketFactory factory = options.getSocketFactory();
+			if (factory instanceof TimedSSLSocketFactory) {
+				//options reused by a new client
+				factory = ((TimedSSLSocketFactory) factory).getDelegate();
+			}
+			options.setSocketFactory(new TimedSSLSocketFactory((factory instanceof SSLSocketFactory)
+					? (SSLSocketFactory) factory : (SSLSocketFactory) SSLSocketFactory.getDefault(), timer));
+		} else {
+			options.setSocketFactory(new TimedSocketFactory(timer));
+		}
+		return timer;
+	}
+
+	ConnectTimer(String host, boolean websocket) {
+		this.host = host;
+		this.websocket = websocket;
+	}
+
+	/**
+	 * Forget the last connection and time the name resolution of the next one
+	 */
+	public void start() {
+		tcpStart = tcpEnd = tlsStart = tlsEnd = 0;
+		upgradeStart = upgradeEnd = connectSent = connackReceived = 0;
+		done = false;
+		dnsStart = System.nanoTime();
+		try {
+			InetAddress.getAllByName(host);
+		} catch (UnknownHostException e) {
+			//Paho reports it
+		}
+		dnsEnd = System.nanoTime();
+	}
+
+	/**
+	 * Record the phases of the last connection, once, if it got its CONNACK
+	 */
+	public void record(MqttMetrics metrics) {
+		if (connackReceived == 0) {
+			return;
+		}
+		metrics.onConnectPhases(new long[] {
+				micros(dnsStart, dnsEnd),
+				micros(tcpStart, tcpEnd),
+				micros(tlsStart, tlsEnd),
+				micros(upgradeStart, upgradeEnd),
+				micros(connectSent, connackReceived) });
+		connackReceived = 0;
+	}
+
+	private static long micros(long start, long end) {
+		return (start == 0 || end == 0) ? -1 : (end - start) / 1000;
+	}
+
+	void onConnectStart() {
+		tcpStart = System.nanoTime();
+	}
+
+	void onConnectEnd() {
+		tcpEnd = System.nanoTime();
+	}
+
+	void onHandshakeStart() {
+		tlsStart = System.nanoTime();
+	}
+
+	void onHandshakeEnd() {
+		tlsEnd = System.nanoTime();
+	}
+
+	/**
+	 * The first write is the upgrade request on a WebSocket, then the CONNECT
+	 */
+	void onWrite() {
+		long now = System.nanoTime();
+		if (websocket && upgradeStart == 0) {
+			upgradeStart = now;
+		} else if (connectSent == 0 && (!websocket || upgradeEnd != 0)) {
+			connectSent = now;
+		}
+	}
+
+	/**
+	 * The first read is the upgrade response on a WebSocket, then the CONNACK
+	 */
+	void onRead() {
+		long now = System.nanoTime();
+		if (websocket && upgradeEnd == 0) {
+			if (upgradeStart != 0) {
+				upgradeEnd = now;
+			}
+		} else if (connectSent != 0 && connackReceived == 0) {
+			connackReceived = now;
+			done = true;
+		}
+	}
+
+	static class TimedInputStream extends FilterInputStream {
+		private final ConnectTimer timer;
+
+		TimedInputStream(InputStream in, ConnectTimer timer) {
+			super(in);
+			this.timer = timer;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if (b >= 0 && !timer.done) {
+				timer.onRead();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = in.read(b, off, len);
+			if (n > 0 && !timer.done) {
+				timer.onRead();
+			}
+			return n;
+		}
+	}
+
+	static class TimedOutputStream extends FilterOutputStream {
+		private final ConnectTimer timer;
+
+		TimedOutputStream(OutputStream out, ConnectTimer timer) {
+			super(out);
+			this.timer = timer;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (!timer.done) {
+				timer.onWrite();
+			}
+			out.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (!timer.done) {
+				timer.onWrite();
+			}
+			out.write(b, off, len);
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.client;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jmeter.protocol.mqttws.stats.LatencyHistogram;
+
+/**
+ * Pairs published requests with their acks and responses.
+ * <p>
+ * A request is handed to Paho as the user context of its publish, so the
+ * delivery token brings it back on ack whatever the message id (ids are
+ * reused as soon as a message is acked). Responses are matched by the
+ * correlation id of their {@link MessageCorrelation} header: a random nonce
+ * of the registry in the high 32 bits and a sequence number in the low ones,
+ * so messages of other clients on a shared topic are told apart from own
+ * late or duplicated responses. All methods
+ * may be called from the sampler thread and the Paho callback thread at the
+ * same time, and every count is O(1).
+ */
+public class CorrelationRegistry {
+
+	public static class Request {
+		private final long correlationId;
+		private final long sentAt;
+		private volatile boolean acked = false;
+
+		Request(long correlationId, long sentAt) {
+			this.correlationId = correlationId;
+			this.sentAt = sentAt;
+		}
+
+		public long getCorrelationId() {
+			return correlationId;
+		}
+	}
+
+	private final ConcurrentHashMap<Long, Request> pending = new ConcurrentHashMap<Long, Request>();
+	private static final long NONCE_MASK = 0x7fffffff00000000L;
+	//random so clients sharing a response topic do not take each other's responses
+	private final long nonce = (new Random().nextInt() & 0x7fffffffL) << 32;
+	private final AtomicLong nextSeq = new AtomicLong(0);
+	private final AtomicLong sent = new AtomicLong(0);
+	private final AtomicLong acked = new AtomicLong(0);
+	private final AtomicLong responded = new AtomicLong(0);
+	private final AtomicLong unmatched = new AtomicLong(0);
+	private final AtomicLong foreign = new AtomicLong(0);
+	private final LatencyHistogram ackLatency = new LatencyHistogram();
+	private final LatencyHistogram roundTrip = new LatencyHistogram();
+
+	/**
+	 * Register a request about to be published
+	 *
+	 * @param expectResponse keep the request until its response arrives
+	 */
+	public Request newRequest(boolean expectResponse) {
+		long id = nonce | (nextSeq.getAndIncrement() & 0xffffffffL);
+		Request r = new Request(id, System.nanoTime());
+		if (expectResponse) {
+			pending.put(id, r);
+		}
+		sent.incrementAndGet();
+		return r;
+	}
+
+	/**
+	 * A request could not be published: forget it
+	 */
+	public void cancel(Request r) {
+		pending.remove(r.correlationId);
+		sent.decrementAndGet();
+	}
+
+	/**
+	 * @param context user context of a delivery token
+	 * @return ack latency in usecs, -1 if the context is not a request of this registry
+	 */
+	public long onAck(Object context) {
+		if (!(context instanceof Request)) {
+			return -1;
+		}
+		Request r = (Request) context;
+		long latency = (System.nanoTime() - r.sentAt) / 1000;
+		if (!r.acked) {
+			r.acked = true;
+			acked.incrementAndGet();
+			ackLatency.record(latency);
+		}
+		return latency;
+	}
+
+	/**
+	 * @param payload a received message
+	 * @return false if the payload has no correlation header or answers no pending request
+	 */
+	public boolean onResponse(byte[] payload) {
+		long id = MessageCorrelation.getCorrelationId(payload);
+		if (id < 0) {
+			return false;
+		}
+		if ((id & NONCE_MASK) != nonce) {
+			foreign.incrementAndGet();
+			return false;
+		}
+		Request r = pending.remove(id);
+		if (r == null) {
+			//late or duplicated
+			unmatched.incrementAndGet();
+			return false;
+		}
+		responded.incrementAndGet();
+		roundTrip.record((System.nanoTime() - r.sentAt) / 1000);
+		return true;
+	}
+
+	public long getSent() {
+		return sent.get();
+	}
+
+	public long getAcked() {
+		return acked.get();
+	}
+
+	public long getResponded() {
+		return responded.get();
+	}
+
+	public long getUnmatched() {
+		return unmatched.get();
+	}
+
+	/**
+	 * @return correlated messages sent by other clients
+	 */
+	public long getForeign() {
+		return foreign.get();
+	}
+
+	/**
+	 * @return requests still waiting for their response
+	 */
+	public int getPending() {
+		return pending.size();
+	}
+
+	/**
+	 * @return time from publish to ack in microseconds
+	 */
+	public LatencyHistogram getAckLatency() {
+		return ackLatency;
+	}
+
+	/**
+	 * @return time from publish to response in microseconds
+	 */
+	public LatencyHistogram getRoundTrip() {
+		return roundTrip;
+	}
+
+	public void reset() {
+		pending.clear();
+		sent.set(0);
+		acked.set(0);
+		responded.set(0);
+		unmatched.set(0);
+		foreign.set(0);
+		ackLatency.reset();
+		roundTrip.reset();
+	}
+}
@@ -0,0 +1,226 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.client;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jmeter.protocol.mqttws.metrics.SaturationDetector;
+import org.apache.jmeter.protocol.mqttws.stats.LatencyHistogram;
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Engine wide hashed wheel timer driving the periodic tasks (heartbeats) of
+ * all clients from a single thread.
+ * <p>
+ * Tasks are kept in a wheel of <code>WHEEL_SIZE</code> buckets advanced every
+ * <code>mqtt.heartbeat.tick</code> msecs, so scheduling and firing cost the
+ * same with 10 or 50000 clients. Tasks run on the timer thread and must not
+ * block: an MQTT publish only queues the message. How late each tick runs
+ * compared to its schedule is recorded as the drift.
+ */
+public class HeartbeatScheduler implements Runnable {
+	private static final Logger log = LoggingManager.getLoggerForClass();
+	private static final int WHEEL_SIZE = 512;
+	private static final HeartbeatScheduler instance = new HeartbeatScheduler(
+			JMeterUtils.getPropDefault("mqtt.heartbeat.tick", 10L)); // $NON-NLS-1$
+
+	public static class Timeout {
+		private final Runnable task;
+		private final long period;
+		//nanos since the scheduler started
+		private long deadline;
+		private long rounds;
+		private Timeout next;
+		private volatile boolean cancelled = false;
+
+		Timeout(Runnable task, long deadline, long period) {
+			this.task = task;
+			this.deadline = deadline;
+			this.period = period;
+		}
+
+		/**
+		 * The task will not run any more
+		 */
+		public void cancel() {
+			cancelled = true;
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+	}
+
+	private final long tickNanos;
+	private final Timeout[] wheel = new Timeout[WHEEL_SIZE];
+	private final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<Timeout>();
+	private final LatencyHistogram drift = new LatencyHistogram();
+	private final AtomicLong fired = new AtomicLong(0);
+	private final long startTime = System.nanoTime();
+	private long tick = 0;
+	private Thread worker = null;
+
+	public static HeartbeatScheduler getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @param tickMillis time between two ticks of the wheel, the precision of the timer
+	 */
+	public HeartbeatScheduler(long tickMillis) {
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+	}
+
+	/**
+	 * @param task what to run, on the timer thread
+	 * @param delay msecs before the first run
+	 * @param period msecs between two runs, 0 to run once
+	 * @return a handle to cancel the task
+	 */
+	public Timeout schedule(Runnable task, long delay, long period) {
+		Timeout t = add(task, System.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(delay),
+				TimeUnit.MILLISECONDS.toNanos(period));
+		start();
+		return t;
+	}
+
+	/**
+	 * Queue a task for the next tick, without starting the timer thread
+	 *
+	 * @param deadline nanos since the scheduler started
+	 * @param period nanos between two runs, 0 to run once
+	 */
+	Timeout add(Runnable task, long deadline, long period) {
+		Timeout t = new Timeout(task, deadline, period);
+		added.add(t);
+		return t;
+	}
+
+	private synchronized void start() {
+		if (worker == null) {
+			worker = new Thread(this, "MQTT heartbeat timer"); // $NON-NLS-1$
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	/**
+	 * @return how late (usecs) ticks ran compared to their schedule
+	 */
+	public LatencyHistogram getDrift() {
+		return drift;
+	}
+
+	/**
+	 * @return number of task runs so far
+	 */
+	public long getFired() {
+		return fired.get();
+	}
+
+	public void run() {
+		while (true) {
+			long deadline = (tick + 1) * tickNanos;
+			long now = System.nanoTime() - startTime;
+			if (now < deadline) {
+				try {
+					long wait = deadline - now;
+					Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+				} catch (InterruptedException e) {
+					return;
+				}
+				now = System.nanoTime() - startTime;
+			}
+			advance(now);
+		}
+	}
+
+	/**
+	 * Run the tasks due at the current tick, then move to the next one
+	 *
+	 * @param now nanos since the scheduler started
+	 */
+	void advance(long now) {
+		long deadline = (tick + 1) * tickNanos;
+		drift.record((now - deadline) / 1000);
+		SaturationDetector.onSendLag(now - deadline);
+		Timeout t;
+		while ((t = added.poll()) != null) {
+			place(t, tick);
+		}
+		expire((int) (tick & (WHEEL_SIZE - 1)));
+		tick++;
+	}
+
+	/**
+	 * @param first earliest tick the task may run at: the current tick before
+	 * its bucket expired, the next one after
+	 */
+	private void place(Timeout t, long first) {
+		//bucket i runs at (i + 1) * tick so a task never runs early
+		long ticks = Math.max(first, t.deadline / tickNanos);
+		//the bucket of first is the next one to expire, a whole turn later a round is gone
+		t.rounds = (ticks - first) / WHEEL_SIZE;
+		int idx = (int) (ticks & (WHEEL_SIZE - 1));
+		t.next = wheel[idx];
+		wheel[idx] = t;
+	}
+
+	private void expire(int idx) {
+		Timeout t = wheel[idx];
+		Timeout kept = null;
+		Timeout again = null;
+		while (t != null) {
+			Timeout next = t.next;
+			if (t.cancelled) {
+				//dropped
+			} else if (t.rounds > 0) {
+				t.rounds--;
+				t.next = kept;
+				kept = t;
+			} else {
+				try {
+					t.task.run();
+				} catch (Throwable e) {
+					log.warn("Heartbeat task failed: " + e.getMessage(), e);
+				}
+				fired.incrementAndGet();
+				if (t.period > 0 && !t.cancelled) {
+					//absolute schedule: a late run does not shift the next ones
+					t.deadline += t.period;
+					t.next = again;
+					again = t;
+				}
+			}
+			t = next;
+		}
+		wheel[idx] = kept;
+		while (again != null) {
+			Timeout next = again.next;
+			place(again, tick + 1);
+			again = next;
+		}
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.client;
+
+/**
+ * Correlation header put in front of a payload so a response can be paired
+ * with its request: 'M' 'C', the correlation id and the send time (msecs),
+ * both as 8 byte big endian longs. Responders copy the header unchanged.
+ */
+public final class MessageCorrelation {
+	public static final int HEADER_LENGTH = 18;
+	private static final byte MAGIC_0 = 'M';
+	private static final byte MAGIC_1 = 'C';
+
+	private MessageCorrelation() {
+	}
+
+	/**
+	 * @return a copy of payload preceded by a correlation header
+	 */
+	public static byte[] wrap(long correlationId, long time, byte[] payload) {
+		byte[] b = new byte[HEADER_LENGTH + payload.length];
+		b[0] = MAGIC_0;
+		b[1] = MAGIC_1;
+		writeLong(b, 2, correlationId);
+		writeLong(b, 10, time);
+		System.arraycopy(payload, 0, b, HEADER_LENGTH, payload.length);
+		return b;
+	}
+
+	public static boolean hasHeader(byte[] payload) {
+		return payload.length >= HEADER_LENGTH && payload[0] == MAGIC_0 && payload[1] == MAGIC_1;
+	}
+
+	/**
+	 * @return the correlation id or -1 if the payload has no correlation header
+	 */
+	public static long getCorrelationId(byte[] payload) {
+		return hasHeader(payload) ? readLong(payload, 2) : -1;
+	}
+
+	/**
+	 * @return the send time (msecs) or -1 if the payload has no correlation header
+	 */
+	public static long getTime(byte[] payload) {
+		return hasHeader(payload) ? readLong(payload, 10) : -1;
+	}
+
+	private static void writeLong(byte[] b, int off, long v) {
+		for (int i = off + 7; i >= off; i--) {
+			b[i] = (byte) v;
+			v >>>= 8;
+		}
+	}
+
+	private static long readLong(byte[] b, int off) {
+		long v = 0;
+		for (int i = off; i < off + 8; i++) {
+			v = (v << 8) | (b[i] & 0xff);
+		}
+		return v;
+	}
+}
@@ -22,19 +22,18 @@ package org.apache.jmeter.protocol.mqttws.client;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Random;
 import java.util.Date;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.jmeter.config.Arguments;
 import org.apache.jmeter.protocol.java.sampler.AbstractJavaSamplerClient;
 import org.apache.jmeter.protocol.java.sampler.JavaSamplerContext;
 import org.apache.jmeter.protocol.mqttws.control.gui.MQTTPublisherGui;
+import org.apache.jmeter.protocol.mqttws.journal.MessageJournal;
+import org.apache.jmeter.protocol.mqttws.metrics.MqttMetrics;
 import org.apache.jmeter.samplers.SampleResult;
 import org.apache.jorphan.logging.LoggingManager;
 import org.apache.log.Logger;
@@ -70,10 +69,29 @@ public class MqttPubSub extends AbstractJavaSamplerClient implements Serializabl
 	private int timeout=30000;
 	private boolean reconnectOnConnLost = true;
 	private String heartbeatChannel = "user/72353640-8f4a-102b-8b12-99c200cfc5b7/device-333/request";
-	Timer heartbeatTimer = new Timer("HeartBeat Timer");
-	private HashMap<Integer, Boolean> SentMsgsAcksMap = new HashMap<Integer, Boolean>();
-	private HashMap<Integer, String> InMsgsMap = new HashMap<Integer, String>();
-	private HashMap<Integer, String> OutMsgsMap = new HashMap<Integer, String>();
+	private String heartbeatPayload = "{  \"type\": \"heartbeat\",  \"id\": \"cor-id-#11\" }";
+	private long heartbeatPeriod = 1000;
+	private int heartbeatQos = 0;
+	//all heartbeats of the engine share one timer thread
+	private final HeartbeatScheduler heartbeatScheduler = HeartbeatScheduler.getInstance();
+	private HeartbeatScheduler.Timeout heartbeat = null;
+	//every iteration connects a new client, the heartbeats go through the last one
+	private volatile MqttAsyncClient heartbeatClient = null;
+	private final CorrelationRegistry registry = new CorrelationRegistry();
+	//put a correlation header in requests and wait for their responses
+	private boolean correlate = false;
+	private String responseTopic = "";
+	//match the broker echo of our own requests, for a broker latency probe
+	private boolean loopback = false;
+	//null unless mqtt.journal.file is set
+	private MessageJournal journal = null;
+	private boolean highThroughput = false;
+	private final TraceBuffer trace = TraceBuffer.getInstance();
+	//live counters, per sampler once set up
+	private MqttMetrics metrics = MqttMetrics.engine();
+	private final AtomicBoolean open = new AtomicBoolean(false);
+	//null unless mqtt.connect_phases is set
+	private ConnectTimer connectTimer = null;
 	
 	
 	
@@ -102,6 +120,15 @@ public class MqttPubSub extends AbstractJavaSamplerClient implements Serializabl
 		acksTimeout = Integer.parseInt((context.getParameter("PUBLISHER_ACKS_TIMEOUT"))); 
 		//System.out.println("Publisher acks timeout: " + acksTimeout);
 		clientId = context.getParameter("CLIENT_ID");
+		highThroughput = "TRUE".equalsIgnoreCase(context.getParameter("HIGH_THROUGHPUT"));
+		correlate = "TRUE".equalsIgnoreCase(context.getParameter("CORRELATE"));
+		loopback = "TRUE".equalsIgnoreCase(context.getParameter("LOOPBACK"));
+		journal = MessageJournal.getInstance();
+		responseTopic = context.getParameter("RESPONSE_TOPIC");
+		heartbeatChannel = context.getParameter("HEARTBEAT_TOPIC");
+		heartbeatPayload = context.getParameter("HEARTBEAT_PAYLOAD");
+		heartbeatPeriod = Long.parseLong(context.getParameter("HEARTBEAT_PERIOD"));
+		heartbeatQos = Integer.parseInt(context.getParameter("HEARTBEAT_QOS"));
 		if("TRUE".equalsIgnoreCase(context.getParameter("RANDOM_SUFFIX"))){
 			clientId= MqttPubSub.getClientId(clientId,Integer.parseInt(context.getParameter("SUFFIX_LENGTH")));	
 		}
@@ -120,6 +147,7 @@ public class MqttPubSub extends AbstractJavaSamplerClient implements Serializabl
 		options.setKeepAliveInterval(0);
 		timeout = Integer.parseInt((context.getParameter("CONNECTION_TIMEOUT")));
 		myname = context.getParameter("SAMPLER_NAME");
+		metrics = MqttMetrics.forSampler(myname);
 		String user = context.getParameter("USER"); 
 		String pwd = context.getParameter("PASSWORD");
 		if (user != null) {
@@ -129,6 +157,7 @@ public class MqttPubSub extends AbstractJavaSamplerClient implements Serializabl
 			}
 		}
 	
+		connectTimer = ConnectTimer.install(options, host);
 		clientConnect(timeout);
 		
 		client.setCallback(this);
@@ -140,27 +169,44 @@ public class MqttPubSub extends AbstractJavaSamplerClient implements Serializabl
 			return true;
 		}
 		try {
+			if (connectTimer != null) {
+				connectTimer.start();
+			}
 			IMqttToken token = client.connect(options);
 			token.waitForCompletion(conntimeout);
 		} catch (MqttSecurityException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
+			metrics.onError(e);
 		} catch (MqttException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
+			metrics.onError(e);
+		}
+		boolean connected = client.isConnected();
+		metrics.updateConnection(open, connected);
+		if (connected && connectTimer != null) {
+			connectTimer.record(metrics);
 		}
-		return client.isConnected();
+		return connected;
 	}
 	
 	
 	public SampleResult runTest(JavaSamplerContext context) {
-		SentMsgsAcksMap.clear();
+		registry.reset();
 		delayedSetupTest(context);
 		
 		SampleResult result = new SampleResult();
 		result.setSampleLabel(myname);
 		//be optimistic - will set an error if we find one
 		result.setResponseOK();
+		if (correlate && !loopback && (responseTopic == null || responseTopic.trim().length() == 0)) {
+			//the echoes of our own requests would be taken for responses
+			result.setResponseMessage("Correlate responses needs a response topic, use Loopback to measure the echo");
+			result.setResponseCode("FAILED");
+			result.setSuccessful(false);
+			return result;
+		}
 		if (!client.isConnected() ) {
 			log.warn( myname + " >>>> Publisher is not connected - Retrying once more...");
 			if (!this.clientConnect(timeout/2)) {
@@ -172,7 +218,7 @@ public class MqttPubSub extends AbstractJavaSamplerClient implements Serializabl
 				return result;
 			}
 		}
-		startHeartBeat(heartbeatTimer);
+		startHeartBeat();
 		result.sampleStart(); // start stopwatch
 		try {
 			produce(context);
@@ -183,6 +229,9 @@ public class MqttPubSub extends AbstractJavaSamplerClient implements Serializabl
 		//this might not make much sense
 		if (quality==0) {
 			
+		} else {
+			//not acked by now: given up
+			metrics.onAbandoned(getNumMsgsSent() - getNumMsgsDelivered());
 		}
 		if ( (quality>0) && (getNumMsgsDelivered()!= getNumMsgsSent() ) ) {
 			result.setResponseMessage("ERROR: Was expecting "+ getNumMsgsSent() +" ACKS. Got only " + getNumMsgsDelivered() + " (Broker: " + client.getServerURI() + ")"  );
@@ -191,13 +240,52 @@ public class MqttPubSub extends AbstractJavaSamplerClient implements Serializabl
 			result.setSamplerData("ERROR: Did not get acks for all of my published messages");
 		}
 		
+		if (loopback && registry.getResponded() != getNumMsgsSent()) {
+			result.setResponseMessage("ERROR: Lost " + registry.getPending() + " of "+ getNumMsgsSent() +" messages on the round trip (Broker: " + client.getServerURI() + ")"  );
+			result.setResponseCode("FAILED");
+			result.setSuccessful(false);
+		} else if (correlate && registry.getResponded() != getNumMsgsSent()) {
+			result.setResponseMessage("ERROR: Was expecting "+ getNumMsgsSent() +" responses. Got only " + registry.getResponded() + " (Broker: " + client.getServerURI() + ")"  );
+			result.setResponseCode("FAILED");
+			result.setSuccessful(false);
+		}
+		
 		result.sampleEnd(); 
-		result.setSamplerData("Published " + getNumMsgsSent() + " messages" + 
-				"\nGot ack for: " + getNumMsgsDelivered() +
-				"\nTopic: " + context.getParameter("TOPIC") +
+		StringBuilder data = new StringBuilder();
+		data.append("Published " + getNumMsgsSent() + " messages" + 
+				"\nGot ack for: " + getNumMsgsDelivered());
+		if (registry.getAckLatency().getCount() > 0) {
+			data.append("\nAck latency: " + registry.getAckLatency().toPercentilesString());
+		}
+		if (loopback) {
+			data.append("\nGot echo for: " + registry.getResponded() +
+					"\nLost: " + registry.getPending());
+			if (registry.getUnmatched() > 0) {
+				data.append("\nLate or duplicated echoes: " + registry.getUnmatched());
+			}
+			if (registry.getRoundTrip().getCount() > 0) {
+				data.append("\nLoopback latency: " + registry.getRoundTrip().toPercentilesString());
+			}
+			result.setLatency(Math.round(registry.getRoundTrip().getMean() / 1000));
+		} else if (correlate) {
+			data.append("\nGot response for: " + registry.getResponded());
+			if (registry.getUnmatched() > 0) {
+				data.append("\nUnmatched responses: " + registry.getUnmatched());
+			}
+			if (registry.getRoundTrip().getCount() > 0) {
+				data.append("\nRound trip: " + registry.getRoundTrip().toPercentilesString());
+			}
+			result.setLatency(Math.round(registry.getRoundTrip().getMean() / 1000));
+		}
+		if (heartbeat != null) {
+			data.append("\nHeartbeats: " + heartbeatsNum.get() +
+					" (timer drift: " + heartbeatScheduler.getDrift().toPercentilesString() + ")");
+		}
+		data.append("\nTopic: " + context.getParameter("TOPIC") +
 				"\nQoS: " + quality +
 				"\nBroker: " + host +
 				"\nMy client ID: " + clientId);
+		result.setSamplerData(data.toString());
 		
 		log.info(myname + ">>>> ending runTest");
 		return result;
@@ -205,29 +293,21 @@ public class MqttPubSub extends AbstractJavaSamplerClient implements Serializabl
 	}
 
 	public long getNumMsgsDelivered() {
-		long numMsgsDelivered = 0;
-		for (int key: SentMsgsAcksMap.keySet() ) {
-			if (SentMsgsAcksMap.get(key)) {
-				numMsgsDelivered++;
-			}
-		}
-		return numMsgsDelivered;
+		return registry.getAcked();
 	}
 	
 	public long getNumMsgsSent() {
-		return SentMsgsAcksMap.size();
+		return registry.getSent();
 	}
 	
 	public void close(JavaSamplerContext context) {
-		heartbeatTimer.cancel();
+		stopHeartBeat();
 		try {
 			client.close();
 		} catch (MqttException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
-		flushMessages();
-		
 	}
 	
 	private static final String mycharset = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
@@ -245,20 +325,25 @@ public class MqttPubSub extends AbstractJavaSamplerClient implements Serializabl
 	private boolean connecting=false;
 	@Override
 	public void connectionLost(Throwable arg0) {
+		metrics.onConnectionLost();
+		metrics.updateConnection(open, false);
 		if ( reconnectOnConnLost && !connecting) {
 			connecting=true;
 			//System.out.println(myname + " WARNING: Publisher client connection was lost. Reason: "+ arg0.getMessage() + ". Will try reconnection.");
 			log.warn(myname + " WARNING: Publisher client connection was lost. Reason: "+ arg0.getMessage() + ". Will try reconnection...");
 			//System.out.println("#################################");
-			clientConnect(timeout/2);
+			if (clientConnect(timeout/2)) {
+				metrics.onReconnect();
+			}
 			connecting=false;
 		}
 	}
 
 	@Override
 	public void deliveryComplete(IMqttDeliveryToken token) {
-		if (SentMsgsAcksMap.containsKey(token.getMessageId())) {
-			SentMsgsAcksMap.put(token.getMessageId(), true);
+		long latency = registry.onAck(token.getUserContext());
+		if (latency >= 0) {
+			metrics.onAck(quality, latency);
 		}
 		//System.out.println("Delivery complete for Msg with Topic: " + token.getTopics()[0]);
 		//System.out.println("Delivery complete for Msg with ID: " + token.getMessageId());
@@ -266,8 +351,18 @@ public class MqttPubSub extends AbstractJavaSamplerClient implements Serializabl
 
 	@Override
 	public void messageArrived(String str, MqttMessage msg) throws Exception {
-		System.out.println("Got message: (id= " + msg.getId() + ")" + msg.toString() + "\n");
-		InMsgsMap.put(msg.getId(), msg.toString());
+		metrics.onReceived(-1);
+		if (correlate || loopback) {
+			registry.onResponse(msg.getPayload());
+		}
+		if (journal != null) {
+			journal.record(MessageJournal.IN, clientId, str, msg.getId(), msg.getQos(), msg.getPayload());
+		}
+		if (highThroughput) {
+			trace.record(TraceBuffer.ARRIVED, clientId, msg.getId());
+		} else if (log.isDebugEnabled()) {
+			log.debug("Got message: (id= " + msg.getId() + ")" + msg.toString());
+		}
 	}
 	
 	
@@ -375,7 +470,7 @@ private void produce(JavaSamplerContext context) throws Exception {
 			} else if (MQTTPublisherGui.AT_MOST_ONCE.equals(qos)) {
 				quality = 0;
 			}
-			client.subscribe(topic, quality);
+			client.subscribe(getResponseTopic(topic), quality);
 			// Retained
 			boolean retained = false;
 			if ("TRUE".equals(isRetained))
@@ -385,9 +480,26 @@ private void produce(JavaSamplerContext context) throws Exception {
 				for (int i = 0; i < aggregate; ++i) {
 					byte[] payload = createPayload(message, useTimeStamp, useNumberSeq, type_value,format, charset);
 					Thread.sleep(throttle);
-					IMqttDeliveryToken token = this.client.publish(topic,payload,quality,retained);
-					OutMsgsMap.put(i, topic+"#"+message);
-					SentMsgsAcksMap.put(token.getMessageId(), false);
+					CorrelationRegistry.Request request = registry.newRequest(correlate || loopback);
+					if (correlate || loopback) {
+						payload = MessageCorrelation.wrap(request.getCorrelationId(), System.currentTimeMillis(), payload);
+					}
+					IMqttDeliveryToken token;
+					try {
+						//the request comes back as the user context of the delivery token
+						token = this.client.publish(topic,payload,quality,retained, request, null);
+					} catch (MqttException e) {
+						registry.cancel(request);
+						metrics.onError(e);
+						throw e;
+					}
+					metrics.onPublished(quality);
+					if (journal != null) {
+						journal.record(MessageJournal.OUT, clientId, topic, token.getMessageId(), quality, payload);
+					}
+					if (highThroughput) {
+						trace.record(TraceBuffer.PUBLISHED, clientId, token.getMessageId());
+					}
 				}
 			} 						
 		} catch (Exception e) {
@@ -402,14 +514,32 @@ private void produce(JavaSamplerContext context) throws Exception {
 				waited++;
 			} while ((getNumMsgsDelivered() < getNumMsgsSent()) && ((waited*throttle) < acksTimeout) );
 		}
+		//same for responses
+		if (correlate || loopback) {
+			long deadline = System.currentTimeMillis() + acksTimeout;
+			while (registry.getPending() > 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+		}
 		//if ((numMsgsDelivered.get() < numMsgsSent.get() )) {
 		//	System.out.println( myname + ":" + numMsgsSent.get() + " " + numMsgsDelivered.get() );
 		//}
 		reconnectOnConnLost = false;
 		client.disconnect();
+		metrics.updateConnection(open, false);
 		//client.close();
 	}
 	
+	/**
+	 * @return the topic responses are expected on, the request topic in loopback mode
+	 */
+	private String getResponseTopic(String topic) {
+		if (loopback || responseTopic == null || responseTopic.trim().length() == 0) {
+			return topic;
+		}
+		return responseTopic.trim();
+	}
+
 	public byte[] createPayload(String message, String useTimeStamp, String useNumSeq ,String type_value, String format, String charset) throws IOException, NumberFormatException {
 		ByteArrayOutputStream b = new ByteArrayOutputStream();
 		DataOutputStream d = new DataOutputStream(b);
@@ -487,17 +617,23 @@ private void produce(JavaSamplerContext context) throws Exception {
 	}
 	
 	private AtomicInteger heartbeatsNum = new AtomicInteger(0);
-	private TimerTask heartbeatTask = new TimerTask () {
-		@Override
+	private Runnable heartbeatTask = new Runnable () {
 		public void run() {
-			heartbeatsNum.incrementAndGet();
-			String heartbeatMsg = "{  \"type\": \"heartbeat\",  \"id\": \"cor-id-#11\" }";
+			MqttAsyncClient client = heartbeatClient;
+			//between two iterations
+			if (client == null || !client.isConnected()) {
+				return;
+			}
+			int seq = heartbeatsNum.incrementAndGet();
+			String heartbeatMsg = formatHeartbeat(seq);
 			byte[] payload = null;
 			//payload = createPayload(heartbeatMsg, "TRUE", "TRUE", "TEXT", "mqtt_plain_text", "US-ASCII");
 			payload = heartbeatMsg.getBytes();
 			try {
-				IMqttDeliveryToken token = client.publish(heartbeatChannel,payload,0, false, 0, null);
-				OutMsgsMap.put(token.getMessageId(), heartbeatChannel + "#" + heartbeatMsg);
+				IMqttDeliveryToken token = client.publish(heartbeatChannel,payload,heartbeatQos, false, 0, null);
+				if (journal != null) {
+					journal.record(MessageJournal.HEARTBEAT, clientId, heartbeatChannel, token.getMessageId(), heartbeatQos, payload);
+				}
 			} catch (MqttPersistenceException e) {
 				// TODO Auto-generated catch block
 				e.printStackTrace();
@@ -509,22 +645,54 @@ private void produce(JavaSamplerContext context) throws Exception {
 		}
 	};
 	
-	private boolean startHeartBeat(Timer t) {
-		try {
-			client.subscribe(heartbeatChannel, 1);
-		} catch (MqttException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+	/**
+	 * Replace {clientId}, {seq} and {timestamp} in the heartbeat payload
+	 */
+	private String formatHeartbeat(int seq) {
+		String msg = heartbeatPayload;
+		if (msg.indexOf('{') < 0) {
+			return msg;
 		}
-		t.scheduleAtFixedRate(heartbeatTask, 0, 1000);
+		msg = msg.replace("{clientId}", clientId);
+		msg = msg.replace("{seq}", String.valueOf(seq));
+		return msg.replace("{timestamp}", String.valueOf(System.currentTimeMillis()));
+	}
+
+	private boolean startHeartBeat() {
+		if (heartbeatPeriod <= 0) {
+			return false;
+		}
+		//a new client has to subscribe too
+		if (heartbeatClient != client) {
+			try {
+				client.subscribe(heartbeatChannel, 1);
+			} catch (MqttException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
+			heartbeatClient = client;
+		}
+		//the timer keeps beating across iterations
+		if (heartbeat != null) {
+			return false;
+		}
+		heartbeat = heartbeatScheduler.schedule(heartbeatTask, 0, heartbeatPeriod);
 		return true;
 		
 	}
+
+	private void stopHeartBeat() {
+		if (heartbeat != null) {
+			heartbeat.cancel();
+			heartbeat = null;
+		}
+		heartbeatClient = null;
+	}
 	
 	@Override
 	public	void teardownTest(JavaSamplerContext context) {
 		System.out.println("@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@");
-		heartbeatTimer.cancel();
+		stopHeartBeat();
 		try {
 			client.close();
 		} catch (MqttException e) {
@@ -533,19 +701,4 @@ private void produce(JavaSamplerContext context) throws Exception {
 		}
 	}
 	
-	public void flushMessages() {
-		StringBuffer strb = new StringBuffer();
-		strb.append("\nSend " + OutMsgsMap.size() + " messages\n");
-		for (int key : OutMsgsMap.keySet()) {
-			strb.append("\nid: " + key + " : " + OutMsgsMap.get(key));
-			strb.append("\n");
-		}
-		strb.append("\n\nReceived " + InMsgsMap.size() + " messages");
-		for (int key : InMsgsMap.keySet()) {
-			strb.append("\nid: " + key + " : " + InMsgsMap.get(key));
-			strb.append("\n");
-		}
-		System.out.println(strb.toString());
-	}
-	
 }
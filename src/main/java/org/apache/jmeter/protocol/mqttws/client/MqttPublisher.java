@@ -26,14 +26,21 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Random;
-import java.util.Date;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.apache.jmeter.config.Arguments;
 import org.apache.jmeter.protocol.java.sampler.AbstractJavaSamplerClient;
 import org.apache.jmeter.protocol.java.sampler.JavaSamplerContext;
 import org.apache.jmeter.protocol.mqttws.control.gui.MQTTPublisherGui;
+import org.apache.jmeter.protocol.mqttws.journal.ResultWriter;
+import org.apache.jmeter.protocol.mqttws.metrics.MqttMetrics;
+import org.apache.jmeter.protocol.mqttws.metrics.SaturationDetector;
+import org.apache.jmeter.protocol.mqttws.stats.MessageSamples;
+import org.apache.jmeter.protocol.mqttws.stats.WindowStats;
 import org.apache.jmeter.samplers.SampleResult;
 import org.apache.jorphan.logging.LoggingManager;
 import org.apache.log.Logger;
@@ -69,6 +76,36 @@ public class MqttPublisher extends AbstractJavaSamplerClient implements Serializ
 	private MqttConnectOptions options = new MqttConnectOptions();
 	private int timeout=30000;
 	private boolean reconnectOnConnLost = true;
+	private boolean highThroughput = false;
+	private final TraceBuffer trace = TraceBuffer.getInstance();
+	private boolean continuous = false;
+	private long window = 1000;
+	private int rate = 100;
+	private boolean publishing = false;
+	private final WindowStats windowStats = new WindowStats();
+	//publish time (nanos) of the messages waiting for an ack, by message id, when writing results
+	private final AtomicLongArray sentAt = new AtomicLongArray(65536);
+	private long nextSend;
+	//latencies from the scheduled send time rather than the actual one
+	private boolean intendedTime = false;
+	//usecs between two publishes on schedule when back-filling dropped sends, else 0
+	private long backfillInterval = 0;
+	//a continuous publish waits on it for an ack when the in-flight window is full
+	private final Object ackLock = new Object();
+	private volatile boolean waitingForAck = false;
+	//live counters, per sampler once set up
+	private MqttMetrics metrics = MqttMetrics.engine();
+	private final AtomicBoolean open = new AtomicBoolean(false);
+	//null unless mqtt.connect_phases is set
+	private ConnectTimer connectTimer = null;
+	//one in N messages reported as sub results, null unless MESSAGE_SAMPLES is set
+	private MessageSamples messageSamples = null;
+	//per message results, null unless mqtt.results.file is set
+	private ResultWriter results = null;
+	//payload size of the messages waiting for an ack, by message id, when writing results
+	private final AtomicIntegerArray sentSize = new AtomicIntegerArray(65536);
+	private String resultTopic;
+	private boolean resultRetained;
 	
 	//common amongst objects
 	private static final Logger log = LoggingManager.getLoggerForClass();
@@ -100,6 +137,20 @@ public class MqttPublisher extends AbstractJavaSamplerClient implements Serializ
 		acksTimeout = Integer.parseInt((context.getParameter("PUBLISHER_ACKS_TIMEOUT"))); 
 		//System.out.println("Publisher acks timeout: " + acksTimeout);
 		clientId = context.getParameter("CLIENT_ID");
+		highThroughput = "TRUE".equalsIgnoreCase(context.getParameter("HIGH_THROUGHPUT"));
+		continuous = "TRUE".equalsIgnoreCase(context.getParameter("CONTINUOUS"));
+		int every = context.getIntParameter("MESSAGE_SAMPLES", 0);
+		messageSamples = (every > 0) ? new MessageSamples(every) : null;
+		results = ResultWriter.getInstance();
+		resultTopic = context.getParameter("TOPIC");
+		resultRetained = "TRUE".equals(context.getParameter("RETAINED"));
+		if (continuous) {
+			//invalid values fail the sample
+			window = context.getLongParameter("WINDOW", 0);
+			rate = context.getIntParameter("PUBLISHER_RATE", -1);
+			intendedTime = "TRUE".equalsIgnoreCase(context.getParameter("INTENDED_TIME"));
+			backfillInterval = ("TRUE".equalsIgnoreCase(context.getParameter("BACKFILL")) && rate > 0) ? 1000000L / rate : 0;
+		}
 		if("TRUE".equalsIgnoreCase(context.getParameter("RANDOM_SUFFIX"))){
 			clientId= MqttPublisher.getClientId(clientId,Integer.parseInt(context.getParameter("SUFFIX_LENGTH")));	
 		}
@@ -121,6 +172,7 @@ public class MqttPublisher extends AbstractJavaSamplerClient implements Serializ
 		options.setKeepAliveInterval(0);
 		timeout = Integer.parseInt((context.getParameter("CONNECTION_TIMEOUT")));
 		myname = context.getParameter("SAMPLER_NAME");
+		metrics = MqttMetrics.forSampler(myname);
 		String user = context.getParameter("USER"); 
 		String pwd = context.getParameter("PASSWORD");
 		if (user != null) {
@@ -130,6 +182,7 @@ public class MqttPublisher extends AbstractJavaSamplerClient implements Serializ
 			}
 		}
 	
+		connectTimer = ConnectTimer.install(options, host);
 		clientConnect(timeout);
 		
 		client().setCallback(this);
@@ -141,20 +194,33 @@ public class MqttPublisher extends AbstractJavaSamplerClient implements Serializ
 			return true;
 		}
 		try {
+			if (connectTimer != null) {
+				connectTimer.start();
+			}
 			IMqttToken token = client().connect(options);
 			token.waitForCompletion(conntimeout);
 		} catch (MqttSecurityException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
+			metrics.onError(e);
 		} catch (MqttException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
+			metrics.onError(e);
 		}
-		return client().isConnected();
+		boolean connected = client().isConnected();
+		metrics.updateConnection(open, connected);
+		if (connected && connectTimer != null) {
+			connectTimer.record(metrics);
+		}
+		return connected;
 	}
 	
 	
 	public SampleResult runTest(JavaSamplerContext context) {
+		if (publishing) {
+			return runWindow(context);
+		}
 		numMsgsDelivered.set(0);
 		numMsgsSent.set(0);
 		delayedSetupTest(context);
@@ -164,6 +230,14 @@ public class MqttPublisher extends AbstractJavaSamplerClient implements Serializ
 		//}
 		SampleResult result = new SampleResult();
 		result.setSampleLabel(myname);
+		if (continuous && (window <= 0 || rate < 0)) {
+			result.setResponseMessage((window <= 0)
+					? "Window must be a number of milliseconds > 0: '" + context.getParameter("WINDOW") + "'"
+					: "Rate must be a number of messages per second >= 0: '" + context.getParameter("PUBLISHER_RATE") + "'");
+			result.setResponseCode("FAILED");
+			result.setSuccessful(false);
+			return result;
+		}
 		//be optimistic - will set an error if we find one
 		result.setResponseOK();
 		if (!client().isConnected() ) {
@@ -177,6 +251,12 @@ public class MqttPublisher extends AbstractJavaSamplerClient implements Serializ
 				return result;
 			}
 		}
+		if (continuous) {
+			publishing = true;
+			windowStats.roll(System.currentTimeMillis());
+			nextSend = System.nanoTime();
+			return runWindow(context);
+		}
 		result.sampleStart(); // start stopwatch
 		try {
 			produce(context);
@@ -190,6 +270,13 @@ public class MqttPublisher extends AbstractJavaSamplerClient implements Serializ
 		}
 		//this does though
 		int numMsgsToSend = Integer.parseInt(context.getParameter("AGGREGATE"));
+		if (quality > 0) {
+			//not acked by now: given up
+			metrics.onAbandoned(numMsgsSent.get() - numMsgsDelivered.get());
+			if (results != null) {
+				recordUnacked();
+			}
+		}
 		if ( (quality>0) && (numMsgsDelivered.get()!= numMsgsSent.get() ) ) {
 			result.setResponseMessage("ERROR: Was expecting "+ numMsgsSent.get() +" ACKS. Got only " + numMsgsDelivered.get() + " (Broker: " + client().getServerURI() + ")"  );
 			result.setResponseCode("FAILED");
@@ -204,6 +291,10 @@ public class MqttPublisher extends AbstractJavaSamplerClient implements Serializ
 				"\nQoS: " + quality +
 				"\nBroker: " + host +
 				"\nMy client ID: " + clientId);
+		if (messageSamples != null) {
+			//the ack wait is over
+			messageSamples.addSubResults(result, Long.MAX_VALUE);
+		}
 		
 		log.info(myname + ">>>> ending runTest");
 		return result;
@@ -216,6 +307,7 @@ public class MqttPublisher extends AbstractJavaSamplerClient implements Serializ
 		if (client()==null) {
 			return;
 		}
+		publishing = false;
 		try {
 			reconnectOnConnLost = false;
 			//System.out.println("Publisher CLOSING my client");
@@ -224,6 +316,7 @@ public class MqttPublisher extends AbstractJavaSamplerClient implements Serializ
 			client().disconnectForcibly();
 			client().close();
 			clientsMap.remove(clientId);
+			metrics.updateConnection(open, false);
 		} catch (MqttException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -262,20 +355,60 @@ public class MqttPublisher extends AbstractJavaSamplerClient implements Serializ
 	private boolean connecting=false;
 	@Override
 	public void connectionLost(Throwable arg0) {
-		
+		metrics.onConnectionLost();
+		metrics.updateConnection(open, false);
 		if ( reconnectOnConnLost && !connecting) {
 			connecting=true;
 			//System.out.println(myname + " WARNING: Publisher client connection was lost. Reason: "+ arg0.getMessage() + ". Will try reconnection.");
 			log.warn(myname + " WARNING: Publisher client connection was lost. Reason: "+ arg0.getMessage() + ". Will try reconnection...");
 			//System.out.println("#################################");
-			clientConnect(timeout/2);
+			if (clientConnect(timeout/2)) {
+				metrics.onReconnect();
+			}
 			connecting=false;
 		}
 	}
 
 	@Override
 	public void deliveryComplete(IMqttDeliveryToken arg0) {
-		numMsgsDelivered.incrementAndGet();
+		if (continuous) {
+			if (waitingForAck) {
+				synchronized (ackLock) {
+					ackLock.notifyAll();
+				}
+			}
+			int id = arg0.getMessageId();
+			long sent = sentTime(arg0);
+			long latency = (sent != 0) ? (System.nanoTime() - sent) / 1000 : -1;
+			windowStats.onAck(latency);
+			metrics.onAck(quality, latency);
+			//unless track() finds the token complete first
+			if (results != null && sent != 0 && sentAt.compareAndSet(id & 0xffff, sent, 0)) {
+				recordResult(id, sent, latency, sentSize.get(id & 0xffff), ResultWriter.OK);
+			}
+			if (messageSamples != null) {
+				messageSamples.onAck(id);
+			}
+			if (highThroughput) {
+				trace.record(TraceBuffer.DELIVERED, clientId, id);
+			}
+			return;
+		}
+		int delivered = numMsgsDelivered.incrementAndGet();
+		long sent = sentTime(arg0);
+		long latency = (sent != 0) ? (System.nanoTime() - sent) / 1000 : -1;
+		metrics.onAck(quality, latency);
+		//unless track() finds the token complete first
+		int id = arg0.getMessageId() & 0xffff;
+		if (results != null && sent != 0 && sentAt.compareAndSet(id, sent, 0)) {
+			recordResult(id, sent, latency, sentSize.get(id), ResultWriter.OK);
+		}
+		if (messageSamples != null) {
+			messageSamples.onAck(arg0.getMessageId());
+		}
+		if (highThroughput) {
+			trace.record(TraceBuffer.DELIVERED, clientId, delivered);
+		}
 	}
 
 	@Override
@@ -380,13 +513,7 @@ private void produce(JavaSamplerContext context) throws Exception {
 		log.info(myname + ">>>> Starting publishing on topic: " + topic);
 		try {
 			// Quality
-			if (MQTTPublisherGui.EXACTLY_ONCE.equals(qos)) {
-				quality = 2;
-			} else if (MQTTPublisherGui.AT_LEAST_ONCE.equals(qos)) {
-				quality = 1;
-			} else if (MQTTPublisherGui.AT_MOST_ONCE.equals(qos)) {
-				quality = 0;
-			}
+			quality = getQuality(qos);
 			// Retained
 			boolean retained = false;
 			if ("TRUE".equals(isRetained))
@@ -396,14 +523,33 @@ private void produce(JavaSamplerContext context) throws Exception {
 				for (int i = 0; i < aggregate; ++i) {
 					byte[] payload = createPayload(message, useTimeStamp, useNumberSeq, type_value,format, charset);
 					Thread.sleep(throttle);
-					client().publish(topic,payload,quality,retained);
-					numMsgsSent.incrementAndGet();
-					log.info(myname + "Publishing msg num " + numMsgsSent.get() );
+					long start = System.nanoTime();
+					//the send time comes back as the user context of the delivery token
+					IMqttDeliveryToken token = client().publish(topic,payload,quality,retained, Long.valueOf(start), null);
+					metrics.onPublished(quality);
+					if (results != null) {
+						track(token, payload.length, start);
+					}
+					if (messageSamples != null && messageSamples.sample()) {
+						sampleMessage(topic, token, payload.length, start);
+					}
+					int sent = numMsgsSent.incrementAndGet();
+					if (highThroughput) {
+						trace.record(TraceBuffer.PUBLISHED, clientId, sent);
+					} else if (log.isDebugEnabled()) {
+						log.debug(myname + "Publishing msg num " + sent);
+					}
 				}
 			} 						
 		} catch (Exception e) {
 			e.printStackTrace();
 			getLogger().warn(e.getLocalizedMessage(), e);
+			if (e instanceof MqttException) {
+				metrics.onError((MqttException) e);
+				if (results != null) {
+					recordResult(0, System.nanoTime(), -1, 0, ResultWriter.ERROR);
+				}
+			}
 		}
 		//if we are waiting for acks wait at least acksTimeout msecs more
 		if ( quality>0 ) {
@@ -420,7 +566,240 @@ private void produce(JavaSamplerContext context) throws Exception {
 		//client().disconnect();
 	}
 	
+	private static int getQuality(String qos) {
+		if (MQTTPublisherGui.EXACTLY_ONCE.equals(qos)) {
+			return 2;
+		} else if (MQTTPublisherGui.AT_LEAST_ONCE.equals(qos)) {
+			return 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Publish at the configured rate until the current window ends and report it.
+	 * Send times follow an absolute schedule, so a slow publish is caught up
+	 * by the next ones instead of lowering the rate. With INTENDED_TIME the ack
+	 * latency and the payload time stamp start at the scheduled send time, so
+	 * a broker stall shows in the latency of all the messages it held back
+	 * rather than of the one that was waiting (coordinated omission). A full
+	 * in-flight window makes a publish wait for an ack, so the stall puts the
+	 * schedule behind rather than failing publishes; the sends dropped when it
+	 * falls more than a window behind are back-filled if BACKFILL is set.
+	 */
+	private SampleResult runWindow(JavaSamplerContext context) {
+		SampleResult result = new SampleResult();
+		result.setSampleLabel(myname);
+		String topic = context.getParameter("TOPIC");
+		String message = context.getParameter("MESSAGE");
+		String useTimeStamp = context.getParameter("TIME_STAMP");
+		String useNumberSeq = context.getParameter("NUMBER_SEQUENCE");
+		String typeValue = context.getParameter("TYPE_VALUE");
+		String format = context.getParameter("FORMAT");
+		String charset = context.getParameter("CHARSET");
+		boolean retained = "TRUE".equals(context.getParameter("RETAINED"));
+		quality = getQuality(context.getParameter("QOS"));
+		//no rate means as fast as the throttle allows
+		long interval = (rate > 0) ? 1000000000L / rate : throttle * 1000000L;
+		long windowEnd = windowStats.getStart() + window;
+		long now = System.currentTimeMillis();
+		try {
+			while (now < windowEnd) {
+				long scheduled = nextSend;
+				long wait = nextSend - System.nanoTime();
+				if (wait > 0) {
+					if (now + wait / 1000000 >= windowEnd) {
+						Thread.sleep(windowEnd - now);
+						now = System.currentTimeMillis();
+						break;
+					}
+					Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+				} else if (-wait > window * 1000000L) {
+					//more than a window late (broker or network stall): drop the backlog
+					if (backfillInterval > 0) {
+						windowStats.onMissed(-wait / 1000, backfillInterval);
+					}
+					nextSend = System.nanoTime();
+				}
+				nextSend += interval;
+				SaturationDetector.onSendLag(System.nanoTime() - scheduled);
+				publishOne(topic, message, useTimeStamp, useNumberSeq, typeValue, format, charset, retained, scheduled, windowEnd);
+				now = System.currentTimeMillis();
+			}
+		} catch (InterruptedException e) {
+			now = System.currentTimeMillis();
+		}
+		//keep windows aligned unless we missed a whole one
+		WindowStats.Window w = windowStats.roll((now - windowEnd < window) ? windowEnd : now);
+		long elapsed = Math.max(1, now - w.getStart());
+		long sent = w.getMessages();
+		result.setStampAndTime(w.getStart(), elapsed);
+		result.setBytes((int) Math.min(Integer.MAX_VALUE, w.getBytes()));
+		result.setLatency(Math.round(w.getLatency().getMean() / 1000));
+		double sentRate = Math.round(sent * 10000.0 / elapsed) / 10.0;
+		String summary = "Published " + sent + " messages (" + sentRate + " msg/s), "
+				+ w.getAcked() + " acked, " + w.getFailed() + " failed";
+		StringBuilder data = new StringBuilder(summary);
+		data.append("\nWindow: ").append(elapsed).append(" ms");
+		data.append("\nBytes: ").append(w.getBytes());
+		if (w.getLatency().getCount() > 0) {
+			data.append("\nAck latency: ").append(w.getLatency().toPercentilesString());
+		}
+		data.append("\nTopic: ").append(topic);
+		data.append("\nQoS: ").append(quality);
+		data.append("\nBroker: ").append(host);
+		data.append("\nMy client ID: ").append(clientId);
+		result.setSamplerData(data.toString());
+		result.setResponseData(data.toString(), null);
+		result.setDataType(SampleResult.TEXT);
+		if (messageSamples != null) {
+			//still waiting for an ack after a whole window: lost
+			messageSamples.addSubResults(result, w.getStart());
+		}
+		result.setResponseMessage(summary);
+		if (sent > 0 && w.getFailed() == 0 && client() != null && client().isConnected()) {
+			result.setResponseOK();
+		} else {
+			result.setResponseCode("FAILED");
+			result.setSuccessful(false);
+		}
+		return result;
+	}
+
+	private void publishOne(String topic, String message, String useTimeStamp, String useNumberSeq,
+			String typeValue, String format, String charset, boolean retained, long scheduled, long windowEnd) throws InterruptedException {
+		try {
+			long start;
+			byte[] payload;
+			if (intendedTime) {
+				start = scheduled;
+				//wall clock time of the schedule
+				payload = createPayload(message, useTimeStamp, useNumberSeq, typeValue, format, charset,
+						System.currentTimeMillis() - (System.nanoTime() - scheduled) / 1000000);
+			} else {
+				payload = createPayload(message, useTimeStamp, useNumberSeq, typeValue, format, charset);
+				start = System.nanoTime();
+			}
+			//the ack may come before publish returns: the token carries the send time
+			IMqttDeliveryToken token;
+			while (true) {
+				try {
+					token = client().publish(topic, payload, quality, retained, Long.valueOf(start), null);
+					break;
+				} catch (MqttException e) {
+					if (e.getReasonCode() != MqttException.REASON_CODE_MAX_INFLIGHT || System.currentTimeMillis() >= windowEnd) {
+						throw e;
+					}
+					awaitAck();
+				}
+			}
+			if (results != null) {
+				track(token, payload.length, start);
+			}
+			windowStats.onMessage(payload.length, -1);
+			metrics.onPublished(quality);
+			if (messageSamples != null && messageSamples.sample()) {
+				sampleMessage(topic, token, payload.length, start);
+			}
+			if (highThroughput) {
+				trace.record(TraceBuffer.PUBLISHED, clientId, token.getMessageId());
+			}
+		} catch (MqttException e) {
+			windowStats.onFailure();
+			metrics.onError(e);
+			if (results != null) {
+				recordResult(0, System.nanoTime(), -1, 0, ResultWriter.ERROR);
+			}
+			if (log.isDebugEnabled()) {
+				log.debug(myname + " publish failed: " + e.getMessage());
+			}
+		} catch (IOException e) {
+			windowStats.onFailure();
+			log.warn(myname + " could not create payload: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Wait for an ack to free a slot of the in-flight window, a few msecs at most
+	 */
+	private void awaitAck() throws InterruptedException {
+		synchronized (ackLock) {
+			waitingForAck = true;
+			ackLock.wait(10);
+			waitingForAck = false;
+		}
+	}
+
+	/**
+	 * @return nanos the message of the token was sent at, 0 if unknown
+	 */
+	private static long sentTime(IMqttDeliveryToken token) {
+		Object context = token.getUserContext();
+		return (context instanceof Long) ? ((Long) context).longValue() : 0;
+	}
+
+	/**
+	 * Keep the send time and size of a message until its ack when writing results.
+	 * QoS 0 messages are written right away, a message whose id is reused
+	 * before it was acked is written as never acked.
+	 */
+	private void track(IMqttDeliveryToken token, int size, long start) {
+		if (quality == 0) {
+			recordResult(0, start, -1, size, ResultWriter.OK);
+			return;
+		}
+		int id = token.getMessageId() & 0xffff;
+		int lostSize = sentSize.getAndSet(id, size);
+		long lost = sentAt.getAndSet(id, start);
+		if (lost != 0) {
+			recordResult(id, lost, -1, lostSize, ResultWriter.NO_ACK);
+		}
+		if (token.isComplete() && sentAt.compareAndSet(id, start, 0)) {
+			//acked before we got here
+			recordResult(id, start, (System.nanoTime() - start) / 1000, size, ResultWriter.OK);
+		}
+	}
+
+	/**
+	 * Write the messages of a batch that are still waiting for their ack as never acked
+	 */
+	private void recordUnacked() {
+		for (int id = 1; id < sentAt.length(); id++) {
+			long sent = sentAt.getAndSet(id, 0);
+			if (sent != 0) {
+				recordResult(id, sent, -1, sentSize.get(id), ResultWriter.NO_ACK);
+			}
+		}
+	}
+
+	/**
+	 * @param start nanos the message was sent at
+	 * @param latency ack latency (usecs), -1 if none
+	 */
+	private void recordResult(int id, long start, long latency, int size, byte status) {
+		results.record(myname, resultTopic, ResultWriter.PUBLISHED,
+				System.currentTimeMillis() - (System.nanoTime() - start) / 1000000, latency, size, quality, id, status, resultRetained);
+	}
+
+	/**
+	 * Report a message as a sub result once acked.
+	 * Its ack may come before we get here: the token is complete by then.
+	 */
+	private void sampleMessage(String topic, IMqttDeliveryToken token, int size, long start) {
+		int id = (quality > 0) ? token.getMessageId() : 0;
+		messageSamples.onPublished(topic, id, size, start);
+		if (id > 0 && token.isComplete()) {
+			messageSamples.onAck(id);
+		}
+	}
+
 	public byte[] createPayload(String message, String useTimeStamp, String useNumSeq ,String type_value, String format, String charset) throws IOException, NumberFormatException {
+		return createPayload(message, useTimeStamp, useNumSeq, type_value, format, charset, System.currentTimeMillis());
+	}
+
+	/**
+	 * @param timeStamp time (msecs) written in the payload if useTimeStamp is set
+	 */
+	public byte[] createPayload(String message, String useTimeStamp, String useNumSeq ,String type_value, String format, String charset, long timeStamp) throws IOException, NumberFormatException {
 		ByteArrayOutputStream b = new ByteArrayOutputStream();
 		DataOutputStream d = new DataOutputStream(b);
 // flags  	
@@ -437,8 +816,7 @@ private void produce(JavaSamplerContext context) throws Exception {
 		}		
 // TimeStamp
 		if("TRUE".equals(useTimeStamp)){
-   		 Date date= new java.util.Date();
-    	 d.writeLong(date.getTime());
+    	 d.writeLong(timeStamp);
     	                               }
 // Number Sequence
 		if("TRUE".equals(useNumSeq)){
@@ -480,7 +858,39 @@ private void produce(JavaSamplerContext context) throws Exception {
 	}
        
 	/**
-	 * 
+	 * Get back the time stamp written by createPayload.
+	 * TEXT payloads have no flags byte, so their time stamp (if any) comes first.
+	 *
+	 * @param payload the received message
+	 * @param now current time, used to tell a time stamp from other content
+	 * @return the time stamp in msecs or -1 if the payload does not carry one
+	 */
+	public static long getTimeStamp(byte[] payload, long now) {
+		if (payload.length >= 9 && (payload[0] & 0x80) != 0) {
+			long stamp = readLong(payload, 1);
+			if (Math.abs(now - stamp) < 3600000L) {
+				return stamp;
+			}
+		}
+		if (payload.length >= 8) {
+			long stamp = readLong(payload, 0);
+			if (Math.abs(now - stamp) < 3600000L) {
+				return stamp;
+			}
+		}
+		return -1;
+	}
+
+	private static long readLong(byte[] b, int off) {
+		long v = 0;
+		for (int i = off; i < off + 8; i++) {
+			v = (v << 8) | (b[i] & 0xff);
+		}
+		return v;
+	}
+
+	/**
+	 *
 	 * @param pool: Space separated words composing a pool of strings.
 	 * @return
 	 */
@@ -0,0 +1,170 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.client;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jmeter.protocol.java.sampler.JavaSamplerContext;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+/**
+ * A subscriber that answers the requests it receives, to play the devices of
+ * a request/response test.
+ * <p>
+ * The reply to a request on <code>x/request</code> goes to
+ * <code>x/response</code> (suffixes are configurable) and keeps the
+ * {@link MessageCorrelation} header of the request, so the requester can
+ * match it and compute the round trip. Replies may be delayed to simulate
+ * processing, and are then sent by a pool of <code>REPLY_CONCURRENCY</code>
+ * threads.
+ */
+public class MqttResponder extends MqttSubscriber {
+	private static final long serialVersionUID = 1L;
+	private static final Logger log = LoggingManager.getLoggerForClass();
+
+	private String requestSuffix = "/request"; // $NON-NLS-1$
+	private String responseSuffix = "/response"; // $NON-NLS-1$
+	private long delay = 0;
+	private int concurrency = 1;
+	private int replyQos = 0;
+	//empty: echo the request
+	private byte[] replyMessage = new byte[0];
+	private ScheduledThreadPoolExecutor executor = null;
+	private final AtomicLong replied = new AtomicLong(0);
+	private final AtomicLong failed = new AtomicLong(0);
+
+	@Override
+	public SampleResult runTest(JavaSamplerContext context) {
+		requestSuffix = context.getParameter("REQUEST_SUFFIX");
+		responseSuffix = context.getParameter("RESPONSE_SUFFIX");
+		delay = Long.parseLong(context.getParameter("REPLY_DELAY"));
+		concurrency = Integer.parseInt(context.getParameter("REPLY_CONCURRENCY"));
+		replyQos = Integer.parseInt(context.getParameter("REPLY_QOS"));
+		replyMessage = context.getParameter("REPLY_MESSAGE").getBytes();
+		if (executor == null && (delay > 0 || concurrency > 1)) {
+			executor = new ScheduledThreadPoolExecutor(Math.max(1, concurrency), new ThreadFactory() {
+				private final AtomicInteger n = new AtomicInteger(0);
+
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "MQTT responder " + n.incrementAndGet()); // $NON-NLS-1$
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		SampleResult result = super.runTest(context);
+		long ok = replied.getAndSet(0);
+		long ko = failed.getAndSet(0);
+		result.setSamplerData(result.getSamplerData() + "\nReplied: " + ok + "\nReply failures: " + ko);
+		if (ko > 0 && result.isSuccessful()) {
+			result.setResponseMessage(result.getResponseMessage() + " - " + ko + " replies failed");
+		}
+		return result;
+	}
+
+	@Override
+	public void messageArrived(String topic, MqttMessage msg) throws Exception {
+		super.messageArrived(topic, msg);
+		//our own replies when the filter also matches the response topics
+		if (responseSuffix.length() > 0 && !responseSuffix.equals(requestSuffix) && topic.endsWith(responseSuffix)) {
+			return;
+		}
+		final String replyTopic = getResponseTopic(topic);
+		final byte[] reply = createReply(msg.getPayload());
+		if (executor == null) {
+			publish(replyTopic, reply);
+		} else {
+			executor.schedule(new Runnable() {
+				public void run() {
+					publish(replyTopic, reply);
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * @return request topic with its request suffix replaced by the response suffix
+	 */
+	String getResponseTopic(String topic) {
+		if (requestSuffix.length() > 0 && topic.endsWith(requestSuffix)) {
+			return topic.substring(0, topic.length() - requestSuffix.length()) + responseSuffix;
+		}
+		return topic + responseSuffix;
+	}
+
+	private byte[] createReply(byte[] request) {
+		if (replyMessage.length == 0) {
+			return request;
+		}
+		if (MessageCorrelation.hasHeader(request)) {
+			return MessageCorrelation.wrap(MessageCorrelation.getCorrelationId(request),
+					MessageCorrelation.getTime(request), replyMessage);
+		}
+		return replyMessage;
+	}
+
+	private void publish(String topic, byte[] payload) {
+		MqttAsyncClient client = client();
+		if (client == null) {
+			failed.incrementAndGet();
+			return;
+		}
+		try {
+			//the send time comes back as the user context of the delivery token
+			client.publish(topic, payload, replyQos, false, Long.valueOf(System.nanoTime()), null);
+			replied.incrementAndGet();
+			metrics().onPublished(replyQos);
+		} catch (MqttException e) {
+			failed.incrementAndGet();
+			metrics().onError(e);
+			if (log.isDebugEnabled()) {
+				log.debug("Reply to " + topic + " failed: " + e.getMessage());
+			}
+		}
+	}
+
+	@Override
+	public void deliveryComplete(IMqttDeliveryToken token) {
+		Object sent = token.getUserContext();
+		if (sent instanceof Long) {
+			metrics().onAck(replyQos, (System.nanoTime() - ((Long) sent).longValue()) / 1000);
+		}
+	}
+
+	@Override
+	public void close(JavaSamplerContext context) {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+		super.close(context);
+	}
+}
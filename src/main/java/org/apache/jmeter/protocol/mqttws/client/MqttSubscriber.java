@@ -22,6 +22,7 @@
 package org.apache.jmeter.protocol.mqttws.client;
 import java.io.Serializable;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.Date;
 import java.util.List;
@@ -34,6 +35,12 @@ import org.apache.jmeter.config.Arguments;
 import org.apache.jmeter.protocol.java.sampler.AbstractJavaSamplerClient;
 import org.apache.jmeter.protocol.java.sampler.JavaSamplerContext;
 import org.apache.jmeter.protocol.mqttws.control.gui.MQTTSubscriberGui;
+import org.apache.jmeter.protocol.mqttws.journal.ResultWriter;
+import org.apache.jmeter.protocol.mqttws.metrics.MqttMetrics;
+import org.apache.jmeter.protocol.mqttws.stats.MessageSamples;
+import org.apache.jmeter.protocol.mqttws.stats.StripedCounter;
+import org.apache.jmeter.protocol.mqttws.stats.TopicStats;
+import org.apache.jmeter.protocol.mqttws.stats.WindowStats;
 import org.apache.jmeter.samplers.SampleResult;
 import org.apache.jorphan.logging.LoggingManager;
 import org.apache.log.Logger;
@@ -64,6 +71,33 @@ public class MqttSubscriber extends AbstractJavaSamplerClient implements Seriali
 	private boolean reconnectOnConnLost = true;
 	private boolean stopTest = false;
 	private String errorMsg = null;
+	private boolean highThroughput = false;
+	private final TraceBuffer trace = TraceBuffer.getInstance();
+	//continuous mode: stay subscribed and report once per window
+	private boolean continuous = false;
+	private long window = 1000;
+	private boolean subscribed = false;
+	private String topic;
+	private int qos = 0;
+	private final WindowStats windowStats = new WindowStats();
+	//per concrete topic counters, null unless enabled
+	private TopicStats topicStats = null;
+	//several comma separated filters are subscribed at once and counted per filter
+	private String[] filters;
+	private TopicFilterIndex filterIndex = null;
+	private StripedCounter[] filterMessages;
+	private StripedCounter[] filterBytes;
+	//only used by the Paho callback thread
+	private final int[] matches = new int[64];
+	//live counters, per sampler once set up
+	private MqttMetrics metrics = MqttMetrics.engine();
+	private final AtomicBoolean open = new AtomicBoolean(false);
+	//null unless mqtt.connect_phases is set
+	private ConnectTimer connectTimer = null;
+	//one in N messages reported as sub results, null unless MESSAGE_SAMPLES is set
+	private MessageSamples messageSamples = null;
+	//per message results, null unless mqtt.results.file is set
+	private ResultWriter results = null;
 	
 	
 	//common amongst objects
@@ -85,14 +119,36 @@ public class MqttSubscriber extends AbstractJavaSamplerClient implements Seriali
 	}
 	
 	//Do not use prior to client being initialised by delayedSetupTest()
-	private MqttAsyncClient client() {
+	protected MqttAsyncClient client() {
 		return clientsMap.get(clientId);
 	}
 	
+	protected MqttMetrics metrics() {
+		return metrics;
+	}
+	
 	public void delayedSetup(JavaSamplerContext context){
 		myname = context.getParameter("SAMPLER_NAME");
+		metrics = MqttMetrics.forSampler(myname);
 		host = context.getParameter("HOST");
 		clientId = context.getParameter("CLIENT_ID");
+		highThroughput = "TRUE".equalsIgnoreCase(context.getParameter("HIGH_THROUGHPUT"));
+		continuous = "TRUE".equalsIgnoreCase(context.getParameter("CONTINUOUS"));
+		if (continuous) {
+			//0 if not a number, the sample fails
+			window = context.getLongParameter("WINDOW", 0);
+		}
+		int every = context.getIntParameter("MESSAGE_SAMPLES", 0);
+		messageSamples = (every > 0) ? new MessageSamples(every) : null;
+		results = ResultWriter.getInstance();
+		if ("TRUE".equalsIgnoreCase(context.getParameter("TOPIC_STATS"))) {
+			if (topicStats == null) {
+				topicStats = new TopicStats();
+			}
+			topicStats.clear();
+		} else {
+			topicStats = null;
+		}
 		
 		if("TRUE".equalsIgnoreCase(context.getParameter("RANDOM_SUFFIX"))){
 			clientId= MqttPublisher.getClientId(clientId,Integer.parseInt(context.getParameter("SUFFIX_LENGTH")));	
@@ -140,6 +196,7 @@ public class MqttSubscriber extends AbstractJavaSamplerClient implements Seriali
 		}
 		//System.out.println("============> " + options.getKeepAliveInterval());
 		
+		connectTimer = ConnectTimer.install(options, host);
 		clientConnect();
 		
 		client().setCallback(this);
@@ -158,6 +215,9 @@ public class MqttSubscriber extends AbstractJavaSamplerClient implements Seriali
 		int trycount = 3;
 		do {
     		try {
+    			if (connectTimer != null) {
+    				connectTimer.start();
+    			}
     			IMqttToken token = client().connect(options);
     			token.waitForCompletion(connectionTimeout);
     		} catch (MqttSecurityException e) {
@@ -165,11 +225,13 @@ public class MqttSubscriber extends AbstractJavaSamplerClient implements Seriali
     			e.printStackTrace();
     			log.error("clientConnect MqttSecurityException" + clientId);
     			errorMsg = "clientConnect MqttSecurityException";
+    			metrics.onError(e);
     		} catch (MqttException e) {
     			// TODO Auto-generated catch block
     			e.printStackTrace();
     			log.error("clientConnect MqttException" + clientId);
                 errorMsg = "clientConnect MqttException";
+                metrics.onError(e);
     		}
     		finally {
     			if (!client().isConnected()) {
@@ -183,7 +245,12 @@ public class MqttSubscriber extends AbstractJavaSamplerClient implements Seriali
     			}
     		}
 		} while (trycount == 0);
-		return client().isConnected();
+		boolean connected = client().isConnected();
+		metrics.updateConnection(open, connected);
+		if (connected && connectTimer != null) {
+			connectTimer.record(metrics);
+		}
+		return connected;
 	}
 	
 	private class EndTask extends TimerTask  {
@@ -200,14 +267,36 @@ public class MqttSubscriber extends AbstractJavaSamplerClient implements Seriali
 
 	@Override
 	public SampleResult runTest(JavaSamplerContext context) {
+		if (subscribed) {
+			//continuous mode - we are still subscribed from a previous sample
+			return runWindow();
+		}
 		nummsgs.set(0);
+		//a sample reports its own messages only
+		allmessages.clear();
+		stopTest = false;
 		delayedSetup(context);
 		log.debug(myname + " >>>> in runtest");
 		SampleResult result = new SampleResult();
 		result.setSampleLabel(context.getParameter("SAMPLER_NAME"));
+		if (continuous && window <= 0) {
+			result.setResponseMessage("Window must be a number of milliseconds > 0: '" + context.getParameter("WINDOW") + "'");
+			result.setResponseCode("FAILED");
+			result.setSuccessful(false);
+			return result;
+		}
 		
 		String quality = context.getParameter("MAXQOS");
-		int qos = 0;
+		topic = context.getParameter("TOPIC");
+		try {
+			setFilters(topic, "TRUE".equalsIgnoreCase(context.getParameter("LIST_TOPIC")));
+		} catch (IllegalArgumentException e) {
+			result.setResponseMessage(e.getMessage());
+			result.setResponseCode("FAILED");
+			result.setSuccessful(false);
+			return result;
+		}
+		qos = 0;
 		if (MQTTSubscriberGui.EXACTLY_ONCE.equals(quality)) {
             qos = 2;
         } else if (MQTTSubscriberGui.AT_LEAST_ONCE.equals(quality)) {
@@ -230,11 +319,28 @@ public class MqttSubscriber extends AbstractJavaSamplerClient implements Seriali
 		
 		try {
 			log.info(myname + ": Subscribing to topic: " + context.getParameter("TOPIC") + " by qos=" + qos);
-			client().subscribe(context.getParameter("TOPIC"), qos);
+			//wait for the SUBACK - a refused filter is granted 0x80
+			IMqttToken token = subscribe();
+			token.waitForCompletion(connectionTimeout);
+			int[] granted = token.getGrantedQos();
+			for (int i = 0; granted != null && i < granted.length; i++) {
+				if (granted[i] == 0x80) {
+					throw new MqttException(MqttException.REASON_CODE_NOT_AUTHORIZED);
+				}
+			}
 		} catch (MqttException e) {
-			log.error(myname + ": Client not connected - Aborting test");
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			log.error(myname + ": Subscribe failed - Aborting sample", e);
+			metrics.onError(e);
+			result.sampleEnd();
+			result.setResponseMessage("Cannot subscribe to " + topic + ": " + e.getMessage());
+			result.setResponseCode("FAILED");
+			result.setSuccessful(false);
+			return result;
+		}
+		if (continuous) {
+			subscribed = true;
+			windowStats.roll(System.currentTimeMillis());
+			return runWindow();
 		}
 		EndTask endtask = new EndTask();
 		Timer timer = new Timer();
@@ -268,7 +374,10 @@ public class MqttSubscriber extends AbstractJavaSamplerClient implements Seriali
 		result.sampleEnd(); 
 		try {
 			StringBuilder allmsgs = new StringBuilder();
-			if ( !allmessages.isEmpty() ) {
+			if (highThroughput && nummsgs.get() != 0) {
+				//payloads are not kept in high throughput mode
+				result.setResponseMessage("Received " + nummsgs.get() + " messages");
+			} else if ( !allmessages.isEmpty() ) {
 				for (String s : this.allmessages)
 				{
 				  allmsgs.append(s + "\n");
@@ -299,6 +408,17 @@ public class MqttSubscriber extends AbstractJavaSamplerClient implements Seriali
 			"\nBroker: " + host +
 			"\nMy client ID: " + clientId);
 			result.setResponseHeaders("topic: " + context.getParameter("TOPIC"));
+			if (filterIndex != null) {
+				result.setSamplerData(result.getSamplerData() + "\n\n" + filterTable(false));
+			}
+			if (topicStats != null) {
+				List<TopicStats.Snapshot> topics = topicStats.snapshot(false);
+				result.setSamplerData(result.getSamplerData() + "\n\n" + TopicStats.toTable(topics));
+				TopicStats.addSubResults(result, topics);
+			}
+			if (messageSamples != null) {
+				messageSamples.addSubResults(result, Long.MAX_VALUE);
+			}
 		} catch (Exception e) {
 			result.sampleEnd(); // stop stopwatch
 			result.setResponseMessage("Exception: " + e);
@@ -334,6 +454,7 @@ public class MqttSubscriber extends AbstractJavaSamplerClient implements Seriali
 	}
 
 	public void close(JavaSamplerContext context) {
+		subscribed = false;
 		if (client()==null) {
 			return;
 		}
@@ -341,6 +462,7 @@ public class MqttSubscriber extends AbstractJavaSamplerClient implements Seriali
 			 client().disconnectForcibly();
 			 client().close();
 			 clientsMap.remove(clientId);
+			 metrics.updateConnection(open, false);
 		} catch (MqttException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -362,13 +484,26 @@ public class MqttSubscriber extends AbstractJavaSamplerClient implements Seriali
 	private boolean connecting=false;
 	@Override
 	public void connectionLost(Throwable arg0) {
+		metrics.onConnectionLost();
+		metrics.updateConnection(open, false);
 		if ( reconnectOnConnLost && !connecting) {
 			connecting=true;
 			log.warn(myname + "WARNING: Subscriber client connection was lost.  Reason: "+ arg0.getMessage() + ". Will try reconnection.");
 			//System.out.println("WARNING: Subscriber client connection was lost.  Reason: "+ arg0.getMessage() + ". Will try reconnection.");
 			//log.info("#Dumping client debug: ");
 			//clientDebug.dumpClientDebug();
-			clientConnect();
+			if (clientConnect()) {
+				metrics.onReconnect();
+				if (subscribed) {
+					//a clean session broker has forgotten our subscription
+					try {
+						subscribe();
+					} catch (MqttException e) {
+						log.error(myname + ": could not subscribe again to " + topic, e);
+						metrics.onError(e);
+					}
+				}
+			}
 			connecting=false;
 		}
 	}
@@ -381,18 +516,185 @@ public class MqttSubscriber extends AbstractJavaSamplerClient implements Seriali
 
 	@Override
 	public void messageArrived(String str, MqttMessage msg) throws Exception {
-		//System.out.println(myname + "=============>: num msgs: " + nummsgs.get() +  ". Got message: " + new String(msg.getPayload()));
-		log.info(myname + "=============>: num msgs: " + nummsgs.get() +  ". Got message: " + new String(msg.getPayload()));
+		if (continuous) {
+			byte[] payload = msg.getPayload();
+			long now = System.currentTimeMillis();
+			long sentAt = MqttPublisher.getTimeStamp(payload, now);
+			long latency = (sentAt < 0) ? -1 : (now - sentAt) * 1000;
+			windowStats.onMessage(payload.length, latency);
+			metrics.onReceived(latency);
+			if (results != null) {
+				results.record(myname, str, ResultWriter.RECEIVED, now, latency, payload.length, msg.getQos(), msg.getId(), ResultWriter.OK, msg.isRetained());
+			}
+			if (filterIndex != null) {
+				countPerFilter(str, payload.length);
+			}
+			if (topicStats != null) {
+				topicStats.onMessage(str, payload.length, latency, now);
+			}
+			if (messageSamples != null && messageSamples.sample()) {
+				messageSamples.onArrived(str, msg.getId(), payload.length, now, latency);
+			}
+			if (highThroughput) {
+				trace.record(TraceBuffer.ARRIVED, clientId, msg.getId());
+			}
+			return;
+		}
+		byte[] bytes = msg.getPayload();
+		long now = System.currentTimeMillis();
+		long sentAt = MqttPublisher.getTimeStamp(bytes, now);
+		long latency = (sentAt < 0) ? -1 : (now - sentAt) * 1000;
+		metrics.onReceived(latency);
+		if (results != null) {
+			results.record(myname, str, ResultWriter.RECEIVED, now, latency, bytes.length, msg.getQos(), msg.getId(), ResultWriter.OK, msg.isRetained());
+		}
 		if (stopTest)
 			return;
-		log.info(myname + "=======================================================================");
-		nummsgs.incrementAndGet();
-		// TODO Auto-generated method stub
-		allmessages.add(new String(msg.getPayload()));
-		if (nummsgs.get() == msgs_aggregate ) {
+		int received = nummsgs.incrementAndGet();
+		if (filterIndex != null) {
+			countPerFilter(str, bytes.length);
+		}
+		if (topicStats != null) {
+			topicStats.onMessage(str, bytes.length, latency, now);
+		}
+		if (messageSamples != null && messageSamples.sample()) {
+			messageSamples.onArrived(str, msg.getId(), bytes.length, now, latency);
+		}
+		if (highThroughput) {
+			trace.record(TraceBuffer.ARRIVED, clientId, received);
+		} else {
+			String payload = new String(bytes);
+			if (log.isDebugEnabled()) {
+				log.debug(myname + ": num msgs: " + received + ". Got message: " + payload);
+			}
+			allmessages.add(payload);
+		}
+		if (received == msgs_aggregate ) {
 			stopTest = true;
 		}
 		
 	}
 	
+	/**
+	 * @param list the topic holds several comma separated filters
+	 */
+	private void setFilters(String topic, boolean list) {
+		filters = list ? topic.split("\\s*,\\s*") : new String[] { topic };
+		if (filters.length > 1) {
+			filterIndex = new TopicFilterIndex(filters);
+			filterMessages = new StripedCounter[filters.length];
+			filterBytes = new StripedCounter[filters.length];
+			for (int i = 0; i < filters.length; i++) {
+				filterMessages[i] = new StripedCounter();
+				filterBytes[i] = new StripedCounter();
+			}
+		} else {
+			filterIndex = null;
+		}
+	}
+
+	/**
+	 * Subscribe to all filters with a single SUBSCRIBE
+	 */
+	private IMqttToken subscribe() throws MqttException {
+		if (filters.length == 1) {
+			return client().subscribe(filters[0], qos);
+		}
+		int[] qoss = new int[filters.length];
+		for (int i = 0; i < qoss.length; i++) {
+			qoss[i] = qos;
+		}
+		return client().subscribe(filters, qoss);
+	}
+
+	private void countPerFilter(String topic, int size) {
+		int n = filterIndex.match(topic, matches);
+		for (int i = 0; i < n; i++) {
+			filterMessages[matches[i]].increment();
+			filterBytes[matches[i]].add(size);
+		}
+	}
+
+	/**
+	 * @param reset start counting again from zero
+	 * @return one line per filter: messages and bytes received
+	 */
+	private String filterTable(boolean reset) {
+		StringBuilder sb = new StringBuilder("filter\tmessages\tbytes\n");
+		for (int i = 0; i < filters.length; i++) {
+			sb.append(filters[i]).append('\t')
+				.append(reset ? filterMessages[i].sumThenReset() : filterMessages[i].sum()).append('\t')
+				.append(reset ? filterBytes[i].sumThenReset() : filterBytes[i].sum()).append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Wait for the current window to elapse and report what was received during it.
+	 */
+	private SampleResult runWindow() {
+		SampleResult result = new SampleResult();
+		result.setSampleLabel(myname);
+		long windowEnd = windowStats.getStart() + window;
+		long now = System.currentTimeMillis();
+		try {
+			while (now < windowEnd) {
+				Thread.sleep(windowEnd - now);
+				now = System.currentTimeMillis();
+			}
+		} catch (InterruptedException e) {
+			now = System.currentTimeMillis();
+		}
+		//keep windows aligned unless we missed a whole one
+		WindowStats.Window w = windowStats.roll((now - windowEnd < window) ? windowEnd : now);
+		long elapsed = Math.max(1, now - w.getStart());
+		long messages = w.getMessages();
+		result.setStampAndTime(w.getStart(), elapsed);
+		result.setBytes((int) Math.min(Integer.MAX_VALUE, w.getBytes()));
+		result.setLatency(Math.round(w.getLatency().getMean() / 1000));
+		double rate = Math.round(messages * 10000.0 / elapsed) / 10.0;
+		String summary = "Received " + messages + " messages (" + rate + " msg/s)";
+		StringBuilder data = new StringBuilder(summary);
+		data.append("\nWindow: ").append(elapsed).append(" ms");
+		data.append("\nBytes: ").append(w.getBytes());
+		if (w.getLatency().getCount() > 0) {
+			data.append("\nLatency: ").append(w.getLatency().toPercentilesString());
+		}
+		data.append("\nTopic: ").append(topic);
+		data.append("\nBroker: ").append(host);
+		data.append("\nMy client ID: ").append(clientId);
+		if (filterIndex != null) {
+			data.append("\n\n").append(filterTable(true));
+		}
+		List<TopicStats.Snapshot> topics = null;
+		if (topicStats != null) {
+			//topics stay known, so those starved during this window show up with 0 messages
+			topics = topicStats.snapshot(true);
+			data.append("\n\n").append(TopicStats.toTable(topics));
+		}
+		result.setSamplerData(data.toString());
+		result.setResponseData(data.toString(), null);
+		result.setDataType(SampleResult.TEXT);
+		if (topics != null) {
+			TopicStats.addSubResults(result, topics);
+		}
+		if (messageSamples != null) {
+			messageSamples.addSubResults(result, Long.MAX_VALUE);
+		}
+		if (messages > 0) {
+			result.setResponseOK();
+			result.setResponseMessage(summary);
+		} else {
+			result.setResponseMessage("No messages received from broker: " + host);
+			result.setResponseCode("FAILED");
+			result.setSuccessful(false);
+		}
+		if (client() == null || !client().isConnected()) {
+			result.setResponseMessage(summary + " - client is not connected to broker: " + host);
+			result.setResponseCode("FAILED");
+			result.setSuccessful(false);
+		}
+		return result;
+	}
+
 }
@@ -0,0 +1,389 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+package org.apache.jmeter.protocol.mqttws.client;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * TLS sockets stamping their connect, handshake, reads and writes on a
+ * {@link ConnectTimer}, for ssl:// and wss:// servers. Paho wants an
+ * {@link SSLSocket}, so the sockets of the wrapped factory are delegated to.
+ */
+public class TimedSSLSocketFactory extends SSLSocketFactory {
+	private final SSLSocketFactory delegate;
+	private final ConnectTimer timer;
+
+	public TimedSSLSocketFactory(SSLSocketFactory delegate, ConnectTimer timer) {
+		this.delegate = delegate;
+		this.timer = timer;
+	}
+
+	public SSLSocketFactory getDelegate() {
+		return delegate;
+	}
+
+	@Override
+	public String[] getDefaultCipherSuites() {
+		return delegate.getDefaultCipherSuites();
+	}
+
+	@Override
+	public String[] getSupportedCipherSuites() {
+		return delegate.getSupportedCipherSuites();
+	}
+
+	@Override
+	public Socket createSocket() throws IOException {
+		return new TimedSSLSocket((SSLSocket) delegate.createSocket(), timer);
+	}
+
+	@Override
+	public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+		//already connected, only the handshake is timed
+		return new TimedSSLSocket((SSLSocket) delegate.createSocket(s, host, port, autoClose), timer);
+	}
+
+	@Override
+	public Socket createSocket(String host, int port) throws IOException {
+		Socket socket = createSocket();
+		socket.connect(new InetSocketAddress(host, port));
+		return socket;
+	}
+
+	@Override
+	public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+		Socket socket = createSocket();
+		socket.bind(new InetSocketAddress(localHost, localPort));
+		socket.connect(new InetSocketAddress(host, port));
+		return socket;
+	}
+
+	@Override
+	public Socket createSocket(InetAddress host, int port) throws IOException {
+		Socket socket = createSocket();
+		socket.connect(new InetSocketAddress(host, port));
+		return socket;
+	}
+
+	@Override
+	public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+		Socket socket = createSocket();
+		socket.bind(new InetSocketAddress(localAddress, localPort));
+		socket.connect(new InetSocketAddress(address, port));
+		return socket;
+	}
+
+	static class TimedSSLSocket extends SSLSocket {
+		private final SSLSocket socket;
+		private final ConnectTimer timer;
+		private InputStream in;
+		private OutputStream out;
+
+		TimedSSLSocket(SSLSocket socket, ConnectTimer timer) {
+			this.socket = socket;
+			this.timer = timer;
+		}
+
+		@Override
+		public void connect(SocketAddress endpoint) throws IOException {
+			connect(endpoint, 0);
+		}
+
+		@Override
+		public void connect(SocketAddress endpoint, int timeout) throws IOException {
+			timer.onConnectStart();
+			socket.connect(endpoint, timeout);
+			timer.onConnectEnd();
+		}
+
+		@Override
+		public void startHandshake() throws IOException {
+			timer.onHandshakeStart();
+			socket.startHandshake();
+			timer.onHandshakeEnd();
+		}
+
+		@Override
+		public synchronized InputStream getInputStream() throws IOException {
+			if (in == null) {
+				in = new ConnectTimer.TimedInputStream(socket.getInputStream(), timer);
+			}
+			return in;
+		}
+
+		@Override
+		public synchronized OutputStream getOutputStream() throws IOException {
+			if (out == null) {
+				out = new ConnectTimer.TimedOutputStream(socket.getOutputStream(), timer);
+			}
+			return out;
+		}
+
+		// ------------------------- delegated ---------------------//
+
+		@Override
+		public void bind(SocketAddress bindpoint) throws IOException {
+			socket.bind(bindpoint);
+		}
+
+		@Override
+		public void close() throws IOException {
+			socket.close();
+		}
+
+		@Override
+		public void shutdownInput() throws IOException {
+			socket.shutdownInput();
+		}
+
+		@Override
+		public void shutdownOutput() throws IOException {
+			socket.shutdownOutput();
+		}
+
+		@Override
+		public InetAddress getInetAddress() {
+			return socket.getInetAddress();
+		}
+
+		@Override
+		public InetAddress getLocalAddress() {
+			return socket.getLocalAddress();
+		}
+
+		@Override
+		public int getPort() {
+			return socket.getPort();
+		}
+
+		@Override
+		public int getLocalPort() {
+			return socket.getLocalPort();
+		}
+
+		@Override
+		public SocketAddress getRemoteSocketAddress() {
+			return socket.getRemoteSocketAddress();
+		}
+
+		@Override
+		public SocketAddress getLocalSocketAddress() {
+			return socket.getLocalSocketAddress();
+		}
+
+		@Override
+		public boolean isConnected() {
+			return socket.isConnected();
+		}
+
+		@Override
+		public boolean isBound() {
+			return socket.isBound();
+		}
+
+		@Override
+		public boolean isClosed() {
+			return socket.isClosed();
+		}
+
+		@Override
+		public boolean isInputShutdown() {
+			return socket.isInputShutdown();
+		}
+
+		@Override
+		public boolean isOutputShutdown() {
+			return socket.isOutputShutdown();
+		}
+
+		@Override
+		public void setTcpNoDelay(boolean on) throws SocketException {
+			socket.setTcpNoDelay(on);
+		}
+
+		@Override
+		public boolean getTcpNoDelay() throws SocketException {
+			return socket.getTcpNoDelay();
+		}
+
+		@Override
+		public void setSoLinger(boolean on, int linger) throws SocketException {
+			socket.setSoLinger(on, linger);
+		}
+
+		@Override
+		public int getSoLinger() throws SocketException {
+			return socket.getSoLinger();
+		}
+
+		@Override
+		public synchronized void setSoTimeout(int timeout) throws SocketException {
+			socket.setSoTimeout(timeout);
+		}
+
+		@Override
+		public synchronized int getSoTimeout() throws SocketException {
+			return socket.getSoTimeout();
+		}
+
+		@Override
+		public synchronized void setSendBufferSize(int size) throws SocketException {
+			socket.setSendBufferSize(size);
+		}
+
+		@Override
+		public synchronized int getSendBufferSize() throws SocketException {
+			return socket.getSendBufferSize();
+		}
+
+		@Override
+		public synchronized void setReceiveBufferSize(int size) throws SocketException {
+			socket.setReceiveBufferSize(size);
+		}
+
+		@Override
+		public synchronized int getReceiveBufferSize() throws SocketException {
+			return socket.getReceiveBufferSize();
+		}
+
+		@Override
+		public void setKeepAlive(boolean on) throws SocketException {
+			socket.setKeepAlive(on);
+		}
+
+		@Override
+		public boolean getKeepAlive() throws SocketException {
+			return socket.getKeepAlive();
+		}
+
+		@Override
+		public String[] getSupportedCipherSuites() {
+			return socket.getSupportedCipherSuites();
+		}
+
+		@Override
+		public String[] getEnabledCipherSuites() {
+			return socket.getEnabledCipherSuites();
+		}
+
+		@Override
+		public void setEnabledCipherSuites(String[] suites) {
+			socket.setEnabledCipherSuites(suites);
+		}
+
+		@Override
+		public String[] getSupportedProtocols() {
+			return socket.getSupportedProtocols();
+		}
+
+		@Override
+		public String[] getEnabledProtocols() {
+			return socket.getEnabledProtocols();
+		}
+
+		@Override
+		public void setEnabledProtocols(String[] protocols) {
+			socket.setEnabledProtocols(protocols);
+		}
+
+		@Override
+		public SSLSession getSession() {
+			return socket.getSession();
+		}
+
+		@Override
+		public SSLParameters getSSLParameters() {
+			return socket.getSSLParameters();
+		}
+
+		@Override
+		public void setSSLParameters(SSLParameters params) {
+			socket.setSSLParameters(params);
+		}
+
+		@Override
+		public void addHandshakeCompletedListener(HandshakeCompletedListener listener) {
+			socket.addHandshakeCompletedListener(listener);
+		}
+
+		@Override
+		public void removeHandshakeCompletedListener(HandshakeCompletedListener listener) {
+			socket.removeHandshakeCompletedListener(listener);
+		}
+
+		@Override
+		public void setUseClientMode(boolean mode) {
+			socket.setUseClientMode(mode);
+		}
+
+		@Override
+		public boolean getUseClientMode() {
+			return socket.getUseClientMode();
+		}
+
+		@Override
+		public void setNeedClientAuth(boolean need) {
+			socket.setNeedClientAuth(need);
+		}
+
+		@Override
+		public boolean getNeedClientAuth() {
+			return socket.getNeedClientAuth();
+		}
+
+		@Override
+		public void setWantClientAuth(boolean want) {
+			socket.setWantClientAuth(want);
+		}
+
+		@Override
+		public boolean getWantClientAuth() {
+			return socket.getWantClientAuth();
+		}
+
+		@Override
+		public void setEnableSessionCreation(boolean flag) {
+			socket.setEnableSessionCreation(flag);
+		}
+
+		@Override
+		public boolean getEnableSessionCreation() {
+			return socket.getEnableSessionCreation();
+		}
+
+		@Override
+		public String toString() {
+			return socket.toString();
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+package org.apache.jmeter.protocol.mqttws.client;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+
+import javax.net.SocketFactory;
+
+/**
+ * Plain sockets stamping their connect, reads and writes on a
+ * {@link ConnectTimer}, for tcp:// and ws:// servers.
+ */
+public class TimedSocketFactory extends SocketFactory {
+	private final ConnectTimer timer;
+
+	public TimedSocketFactory(ConnectTimer timer) {
+		this.timer = timer;
+	}
+
+	@Override
+	public Socket createSocket() {
+		return new TimedSocket(timer);
+	}
+
+	@Override
+	public Socket createSocket(String host, int port) throws IOException {
+		Socket socket = createSocket();
+		socket.connect(new InetSocketAddress(host, port));
+		return socket;
+	}
+
+	@Override
+	public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+		Socket socket = createSocket();
+		socket.bind(new InetSocketAddress(localHost, localPort));
+		socket.connect(new InetSocketAddress(host, port));
+		return socket;
+	}
+
+	@Override
+	public Socket createSocket(InetAddress host, int port) throws IOException {
+		Socket socket = createSocket();
+		socket.connect(new InetSocketAddress(host, port));
+		return socket;
+	}
+
+	@Override
+	public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+		Socket socket = createSocket();
+		socket.bind(new InetSocketAddress(localAddress, localPort));
+		socket.connect(new InetSocketAddress(address, port));
+		return socket;
+	}
+
+	static class TimedSocket extends Socket {
+		private final ConnectTimer timer;
+		private InputStream in;
+		private OutputStream out;
+
+		TimedSocket(ConnectTimer timer) {
+			this.timer = timer;
+		}
+
+		@Override
+		public void connect(SocketAddress endpoint, int timeout) throws IOException {
+			timer.onConnectStart();
+			super.connect(endpoint, timeout);
+			timer.onConnectEnd();
+		}
+
+		@Override
+		public synchronized InputStream getInputStream() throws IOException {
+			if (in == null) {
+				in = new ConnectTimer.TimedInputStream(super.getInputStream(), timer);
+			}
+			return in;
+		}
+
+		@Override
+		public synchronized OutputStream getOutputStream() throws IOException {
+			if (out == null) {
+				out = new ConnectTimer.TimedOutputStream(super.getOutputStream(), timer);
+			}
+			return out;
+		}
+	}
+}
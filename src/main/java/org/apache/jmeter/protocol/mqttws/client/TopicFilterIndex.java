@@ -0,0 +1,202 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.client;
+
+/**
+ * Finds which of a set of MQTT topic filters match a topic.
+ * <p>
+ * The filters are compiled once into a tree with one level per topic level,
+ * '+' and '#' having their own branches. Matching walks the topic in place:
+ * levels are looked up by hashing the characters between two '/' and no
+ * substring, array or regex is created per message. Following the MQTT rules
+ * a filter starting with a wildcard does not match topics starting with '$'.
+ */
+public class TopicFilterIndex {
+
+	private static final int[] NONE = new int[0];
+
+	private static class Node {
+		private String[] names = new String[4];
+		private Node[] children = new Node[4];
+		private int size = 0;
+		private Node plus = null;
+		//filters ending here
+		private int[] exact = NONE;
+		//filters ending with # after this level
+		private int[] multi = NONE;
+
+		Node find(String topic, int start, int end) {
+			int h = 0;
+			for (int i = start; i < end; i++) {
+				h = 31 * h + topic.charAt(i);
+			}
+			int mask = names.length - 1;
+			int len = end - start;
+			for (int i = spread(h) & mask; names[i] != null; i = (i + 1) & mask) {
+				String name = names[i];
+				if (name.length() == len && topic.regionMatches(start, name, 0, len)) {
+					return children[i];
+				}
+			}
+			return null;
+		}
+
+		Node child(String name) {
+			Node n = find(name, 0, name.length());
+			if (n != null) {
+				return n;
+			}
+			if (2 * (size + 1) > names.length) {
+				String[] oldNames = names;
+				Node[] oldChildren = children;
+				names = new String[oldNames.length * 2];
+				children = new Node[oldNames.length * 2];
+				for (int i = 0; i < oldNames.length; i++) {
+					if (oldNames[i] != null) {
+						put(oldNames[i], oldChildren[i]);
+					}
+				}
+			}
+			n = new Node();
+			put(name, n);
+			size++;
+			return n;
+		}
+
+		private void put(String name, Node n) {
+			int mask = names.length - 1;
+			int i = spread(name.hashCode()) & mask;
+			while (names[i] != null) {
+				i = (i + 1) & mask;
+			}
+			names[i] = name;
+			children[i] = n;
+		}
+
+		private static int spread(int h) {
+			return h ^ (h >>> 16);
+		}
+	}
+
+	private final String[] filters;
+	private final Node root = new Node();
+
+	/**
+	 * @param filters topic filters, their position is the index reported by {@link #match(String, int[])}
+	 * @throws IllegalArgumentException if a filter has a '#' that is not its last level
+	 */
+	public TopicFilterIndex(String[] filters) {
+		this.filters = filters.clone();
+		for (int f = 0; f < filters.length; f++) {
+			add(filters[f], f);
+		}
+	}
+
+	private void add(String filter, int index) {
+		Node node = root;
+		int start = 0;
+		while (true) {
+			int end = filter.indexOf('/', start);
+			if (end < 0) {
+				end = filter.length();
+			}
+			String level = filter.substring(start, end);
+			if ("#".equals(level)) {
+				if (end != filter.length()) {
+					throw new IllegalArgumentException("'#' must be the last level of topic filter " + filter);
+				}
+				node.multi = append(node.multi, index);
+				return;
+			}
+			if ("+".equals(level)) {
+				if (node.plus == null) {
+					node.plus = new Node();
+				}
+				node = node.plus;
+			} else {
+				node = node.child(level);
+			}
+			if (end == filter.length()) {
+				node.exact = append(node.exact, index);
+				return;
+			}
+			start = end + 1;
+		}
+	}
+
+	private static int[] append(int[] a, int value) {
+		int[] b = new int[a.length + 1];
+		System.arraycopy(a, 0, b, 0, a.length);
+		b[a.length] = value;
+		return b;
+	}
+
+	public int size() {
+		return filters.length;
+	}
+
+	public String getFilter(int index) {
+		return filters[index];
+	}
+
+	/**
+	 * @param topic the topic of a message
+	 * @param matches filled with the indexes of the matching filters, up to its length
+	 * @return the number of indexes put in matches
+	 */
+	public int match(String topic, int[] matches) {
+		boolean system = topic.length() > 0 && topic.charAt(0) == '$';
+		return walk(root, topic, 0, system, matches, 0);
+	}
+
+	/**
+	 * @param start index of the next level in topic, past its end when all levels are consumed
+	 * @param system topic starts with '$' and we are at the first level
+	 */
+	private static int walk(Node node, String topic, int start, boolean system, int[] matches, int n) {
+		if (!system) {
+			n = addAll(node.multi, matches, n);
+		}
+		if (start > topic.length()) {
+			return addAll(node.exact, matches, n);
+		}
+		int end = topic.indexOf('/', start);
+		if (end < 0) {
+			end = topic.length();
+		}
+		Node child = node.find(topic, start, end);
+		if (child != null) {
+			n = walk(child, topic, end + 1, false, matches, n);
+		}
+		if (node.plus != null && !system) {
+			n = walk(node.plus, topic, end + 1, false, matches, n);
+		}
+		return n;
+	}
+
+	private static int addAll(int[] filters, int[] matches, int n) {
+		for (int i = 0; i < filters.length && n < matches.length; i++) {
+			matches[n++] = filters[i];
+		}
+		return n;
+	}
+}
@@ -0,0 +1,166 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+package org.apache.jmeter.protocol.mqttws.client;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Engine wide trace of per-message events, used instead of logging when a
+ * sampler runs in high throughput mode.
+ * <p>
+ * Recording only stores primitives and references into preallocated slots of
+ * a ring buffer, so the send and receive paths never build strings. Once the
+ * buffer is full the oldest events are overwritten, and no more than
+ * <code>mqtt.trace.rate</code> events per second are kept. Records are only
+ * formatted when the buffer is dumped, either on demand through
+ * {@link #dump(Writer)} or at test end when <code>mqtt.trace.file</code> is set.
+ */
+public class TraceBuffer {
+	public static final int PUBLISHED = 1;
+	public static final int DELIVERED = 2;
+	public static final int ARRIVED = 3;
+	private static final String[] EVENT_NAMES = {"?", "published", "delivered", "arrived"};
+
+	private static final Logger log = LoggingManager.getLoggerForClass();
+	private static final TraceBuffer instance = new TraceBuffer(
+			JMeterUtils.getPropDefault("mqtt.trace.size", 65536),
+			JMeterUtils.getPropDefault("mqtt.trace.rate", 10000));
+
+	private final int mask;
+	private final long[] times;
+	private final int[] events;
+	private final String[] sources;
+	private final long[] args;
+	private final AtomicLong next = new AtomicLong(0);
+	private final AtomicLong dropped = new AtomicLong(0);
+	private final int maxPerSecond;
+	private final AtomicInteger windowCount = new AtomicInteger(0);
+	private volatile long windowStart = 0;
+
+	/**
+	 * @param size number of events kept, rounded up to a power of two
+	 * @param maxPerSecond events accepted per second, 0 to disable tracing
+	 */
+	public TraceBuffer(int size, int maxPerSecond) {
+		int capacity = Integer.highestOneBit(Math.max(size, 2) - 1) << 1;
+		this.mask = capacity - 1;
+		this.times = new long[capacity];
+		this.events = new int[capacity];
+		this.sources = new String[capacity];
+		this.args = new long[capacity];
+		this.maxPerSecond = maxPerSecond;
+	}
+
+	public static TraceBuffer getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Record an event. Never blocks and never allocates.
+	 *
+	 * @param event one of PUBLISHED, DELIVERED, ARRIVED
+	 * @param source client id the event belongs to
+	 * @param arg message counter or message id
+	 */
+	public void record(int event, String source, long arg) {
+		if (maxPerSecond <= 0) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if (now - windowStart >= 1000) {
+			windowStart = now;
+			windowCount.set(0);
+		}
+		if (windowCount.incrementAndGet() > maxPerSecond) {
+			dropped.incrementAndGet();
+			return;
+		}
+		int slot = (int) (next.getAndIncrement() & mask);
+		times[slot] = now;
+		events[slot] = event;
+		sources[slot] = source;
+		args[slot] = arg;
+	}
+
+	public long getRecorded() {
+		return next.get();
+	}
+
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Write the events currently held, oldest first.
+	 */
+	public void dump(Writer out) {
+		PrintWriter pw = new PrintWriter(out);
+		SimpleDateFormat fmt = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss.SSS");
+		long end = next.get();
+		long start = Math.max(0, end - (mask + 1));
+		pw.println("# " + (end - start) + " of " + end + " traced events, " + dropped.get() + " dropped by rate limit");
+		for (long i = start; i < end; i++) {
+			int slot = (int) (i & mask);
+			int event = events[slot];
+			pw.println(fmt.format(new Date(times[slot])) + " "
+					+ EVENT_NAMES[(event > 0 && event < EVENT_NAMES.length) ? event : 0] + " "
+					+ sources[slot] + " " + args[slot]);
+		}
+		pw.flush();
+	}
+
+	/**
+	 * Dump the engine trace to the file named by the <code>mqtt.trace.file</code>
+	 * property, if any.
+	 */
+	public static synchronized void dumpIfConfigured() {
+		String file = JMeterUtils.getPropDefault("mqtt.trace.file", "");
+		if (file == null || file.length() == 0 || instance.getRecorded() == 0) {
+			return;
+		}
+		Writer out = null;
+		try {
+			out = new FileWriter(file);
+			instance.dump(out);
+			log.info("Dumped MQTT trace to " + file);
+		} catch (IOException e) {
+			log.warn("Could not dump MQTT trace to " + file, e);
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+	}
+}
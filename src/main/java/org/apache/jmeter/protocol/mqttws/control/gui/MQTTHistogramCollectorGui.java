@@ -0,0 +1,92 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.control.gui;
+import java.awt.BorderLayout;
+import java.awt.Color;
+
+import javax.swing.BorderFactory;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+
+import org.apache.jmeter.gui.util.VerticalPanel;
+import org.apache.jmeter.protocol.mqttws.metrics.HistogramCollector;
+import org.apache.jmeter.testelement.TestElement;
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jmeter.visualizers.gui.AbstractListenerGui;
+import org.apache.jorphan.gui.JLabeledTextField;
+
+/**
+ * This is the GUI for the mqtt histogram collector <br>
+ *
+ */
+public class MQTTHistogramCollectorGui extends AbstractListenerGui {
+
+    private static final long serialVersionUID = 240L;
+    private final JLabeledTextField filename = new JLabeledTextField(JMeterUtils.getResString("mqtt_histogram_collector_file")); //$NON-NLS-1$
+
+    public MQTTHistogramCollectorGui() {
+        init();
+    }
+
+    @Override
+    public String getLabelResource() {
+        return "mqtt_histogram_collector_title"; // $NON-NLS-1$
+    }
+
+    @Override
+    public TestElement createTestElement() {
+        HistogramCollector collector = new HistogramCollector();
+        modifyTestElement(collector);
+        return collector;
+    }
+
+    @Override
+    public void modifyTestElement(TestElement el) {
+        HistogramCollector collector = (HistogramCollector) el;
+        this.configureTestElement(collector);
+        collector.setFilename(filename.getText());
+    }
+
+    @Override
+    public void configure(TestElement el) {
+        super.configure(el);
+        HistogramCollector collector = (HistogramCollector) el;
+        filename.setText(collector.getFilename());
+    }
+
+    @Override
+    public void clearGui() {
+        super.clearGui();
+        filename.setText(""); // $NON-NLS-1$
+    }
+
+    private void init() {
+        setLayout(new BorderLayout());
+        setBorder(makeBorder());
+        add(makeTitlePanel(), BorderLayout.NORTH);
+        JPanel mainPanel = new VerticalPanel();
+        mainPanel.add(filename);
+        mainPanel.add(new JLabel("Merges the latency histograms sent by the engines every mqtt.histogram.snapshot seconds"));
+        mainPanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray),"Merged histograms"));
+        add(mainPanel, BorderLayout.CENTER);
+    }
+}
@@ -125,6 +125,14 @@ public class MQTTPubSubGui extends AbstractSamplerGui implements
 	private final JCheckBox useNumberSeq = new JCheckBox(JMeterUtils.getResString("mqtt_use_number_seq"), false); // $NON-NLS-1$
 	private final JCheckBox isRetained = new JCheckBox(JMeterUtils.getResString("mqtt_send_as_retained_msg"), false); // $NON-NLS-1$
 	private final JCheckBox cleanSession = new JCheckBox(JMeterUtils.getResString("mqtt_clean_session"), true); // $NON-NLS-1$
+	private final JCheckBox highThroughput = new JCheckBox(JMeterUtils.getResString("mqtt_high_throughput"), false); // $NON-NLS-1$
+	private final JCheckBox correlate = new JCheckBox(JMeterUtils.getResString("mqtt_correlate"), false); // $NON-NLS-1$
+	private final JLabeledTextField responseTopic = new JLabeledTextField(JMeterUtils.getResString("mqtt_response_topic")); //$NON-NLS-1$
+	private final JCheckBox loopback = new JCheckBox(JMeterUtils.getResString("mqtt_loopback"), false); // $NON-NLS-1$
+	private final JLabeledTextField heartbeatTopic = new JLabeledTextField(JMeterUtils.getResString("mqtt_heartbeat_topic")); //$NON-NLS-1$
+	private final JLabeledTextField heartbeatPayload = new JLabeledTextField(JMeterUtils.getResString("mqtt_heartbeat_payload")); //$NON-NLS-1$
+	private final JLabeledTextField heartbeatPeriod = new JLabeledTextField(JMeterUtils.getResString("mqtt_heartbeat_period")); //$NON-NLS-1$
+	private final JLabeledTextField heartbeatQoS = new JLabeledTextField(JMeterUtils.getResString("mqtt_heartbeat_qos")); //$NON-NLS-1$
 	private final JLabeledRadioI18N typeQoSValue = new JLabeledRadioI18N("mqtt_qos", QTYPES_ITEMS,AT_MOST_ONCE); //$NON-NLS-1$
 	private final JLabeledRadioI18N typeGeneratedValue = new JLabeledRadioI18N("mqtt_type_of_generated_value", VALTYPES_ITEMS,INT); //$NON-NLS-1$
 	private final JLabeledRadioI18N typeFixedValue = new JLabeledRadioI18N("mqtt_type_of_fixed_value", FVALTYPES_ITEMS,INT); //$NON-NLS-1$
@@ -184,10 +192,28 @@ public class MQTTPubSubGui extends AbstractSamplerGui implements
 		StampPanel.add(useTimeStamp);
 		StampPanel.add(useNumberSeq);
 		StampPanel.add(isRetained);
+		StampPanel.add(highThroughput);
 		typeQoSValue.setLayout(new BoxLayout(typeQoSValue, BoxLayout.X_AXIS));
 		StampPanel.add(this.typeQoSValue);	
 		StampPanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray),"Option"));
 		mainPanel.add(StampPanel);		
+		JPanel CorrelationPanel = new JPanel();
+		CorrelationPanel.setLayout(new BoxLayout(CorrelationPanel, BoxLayout.X_AXIS));
+		CorrelationPanel.add(correlate);
+		CorrelationPanel.add(responseTopic);
+		CorrelationPanel.add(loopback);
+		CorrelationPanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray),"Responses"));
+		mainPanel.add(CorrelationPanel);
+		JPanel HeartbeatPanel = new VerticalPanel();
+		HeartbeatPanel.add(heartbeatTopic);
+		HeartbeatPanel.add(heartbeatPayload);
+		JPanel HBPanel = new JPanel();
+		HBPanel.setLayout(new BoxLayout(HBPanel, BoxLayout.X_AXIS));
+		HBPanel.add(heartbeatPeriod);
+		HBPanel.add(heartbeatQoS);
+		HeartbeatPanel.add(HBPanel);
+		HeartbeatPanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray),"Heartbeat"));
+		mainPanel.add(HeartbeatPanel);
 //--------------------------------------Message Type-------------------------------------//		
 		JPanel ContentPanel = new VerticalPanel();		
 		msgChoice.setLayout(new BoxLayout(msgChoice, BoxLayout.X_AXIS));
@@ -292,6 +318,14 @@ public class MQTTPubSubGui extends AbstractSamplerGui implements
 		destSetup.setText(DEST_SETUP_STATIC);
 		textArea.setText("");
 	    clientId.setText("");
+	    highThroughput.setSelected(false);
+	    correlate.setSelected(false);
+	    responseTopic.setText(""); // $NON-NLS-1$
+	    loopback.setSelected(false);
+	    heartbeatTopic.setText("user/72353640-8f4a-102b-8b12-99c200cfc5b7/device-333/request"); // $NON-NLS-1$
+	    heartbeatPayload.setText("{  \"type\": \"heartbeat\",  \"id\": \"cor-id-#11\" }"); // $NON-NLS-1$
+	    heartbeatPeriod.setText("1000"); // $NON-NLS-1$
+	    heartbeatQoS.setText("0"); // $NON-NLS-1$
 	    //connectionPerTopic.setSelected(false);
 	   
 		
@@ -332,6 +366,14 @@ public class MQTTPubSubGui extends AbstractSamplerGui implements
         sampler.setRandomSuffix(false);
         sampler.setLength(this.suffixLength.getText());
         sampler.setCLEANSESSION(cleanSession.isSelected());
+        sampler.setHighThroughput(highThroughput.isSelected());
+        sampler.setCorrelate(correlate.isSelected());
+        sampler.setResponseTopic(responseTopic.getText());
+        sampler.setLoopback(loopback.isSelected());
+        sampler.setHeartbeatTopic(heartbeatTopic.getText());
+        sampler.setHeartbeatPayload(heartbeatPayload.getText());
+        sampler.setHeartbeatPeriod(heartbeatPeriod.getText());
+        sampler.setHeartbeatQoS(heartbeatQoS.getText());
 	}
 		
 	/**
@@ -363,6 +405,14 @@ public class MQTTPubSubGui extends AbstractSamplerGui implements
         updateChoice(msgFormat.getText());
         updateChoice("Suffix=" + String.valueOf(this.suffixClientId.isSelected()));
         cleanSession.setSelected(Boolean.parseBoolean(sampler.getCLEANSESSION()));
+        highThroughput.setSelected(sampler.isHighThroughput());
+        correlate.setSelected(sampler.isCorrelate());
+        responseTopic.setText(sampler.getResponseTopic());
+        loopback.setSelected(sampler.isLoopback());
+        heartbeatTopic.setText(sampler.getHeartbeatTopic());
+        heartbeatPayload.setText(sampler.getHeartbeatPayload());
+        heartbeatPeriod.setText(sampler.getHeartbeatPeriod());
+        heartbeatQoS.setText(sampler.getHeartbeatQoS());
 	
 	}
 	
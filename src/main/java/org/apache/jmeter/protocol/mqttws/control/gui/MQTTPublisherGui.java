@@ -127,6 +127,13 @@ public class MQTTPublisherGui extends AbstractSamplerGui implements
 	private final JCheckBox useNumberSeq = new JCheckBox(JMeterUtils.getResString("mqtt_use_number_seq"), false); // $NON-NLS-1$
 	private final JCheckBox isRetained = new JCheckBox(JMeterUtils.getResString("mqtt_send_as_retained_msg"), false); // $NON-NLS-1$
 	private final JCheckBox cleanSession = new JCheckBox(JMeterUtils.getResString("mqtt_clean_session"), true); // $NON-NLS-1$
+	private final JCheckBox highThroughput = new JCheckBox(JMeterUtils.getResString("mqtt_high_throughput"), false); // $NON-NLS-1$
+	private final JLabeledTextField messageSamples = new JLabeledTextField(JMeterUtils.getResString("mqtt_message_samples")); //$NON-NLS-1$
+	private final JCheckBox continuous = new JCheckBox(JMeterUtils.getResString("mqtt_continuous"), false); // $NON-NLS-1$
+	private final JLabeledTextField window = new JLabeledTextField(JMeterUtils.getResString("mqtt_window")); //$NON-NLS-1$
+	private final JLabeledTextField publisherRate = new JLabeledTextField(JMeterUtils.getResString("mqtt_publisher_rate")); //$NON-NLS-1$
+	private final JCheckBox intendedTime = new JCheckBox(JMeterUtils.getResString("mqtt_intended_time"), false); // $NON-NLS-1$
+	private final JCheckBox backfill = new JCheckBox(JMeterUtils.getResString("mqtt_backfill"), false); // $NON-NLS-1$
 	private final JLabeledRadioI18N typeQoSValue = new JLabeledRadioI18N("mqtt_qos", QTYPES_ITEMS,AT_MOST_ONCE); //$NON-NLS-1$
 	private final JLabeledRadioI18N typeGeneratedValue = new JLabeledRadioI18N("mqtt_type_of_generated_value", VALTYPES_ITEMS,INT); //$NON-NLS-1$
 	private final JLabeledRadioI18N typeFixedValue = new JLabeledRadioI18N("mqtt_type_of_fixed_value", FVALTYPES_ITEMS,INT); //$NON-NLS-1$
@@ -186,10 +193,21 @@ public class MQTTPublisherGui extends AbstractSamplerGui implements
 		StampPanel.add(useTimeStamp);
 		StampPanel.add(useNumberSeq);
 		StampPanel.add(isRetained);
+		StampPanel.add(highThroughput);
+		StampPanel.add(messageSamples);
 		typeQoSValue.setLayout(new BoxLayout(typeQoSValue, BoxLayout.X_AXIS));
 		StampPanel.add(this.typeQoSValue);	
 		StampPanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray),"Option"));
 		mainPanel.add(StampPanel);		
+		JPanel WPanel = new JPanel();
+		WPanel.setLayout(new BoxLayout(WPanel, BoxLayout.X_AXIS));
+		WPanel.add(continuous);
+		WPanel.add(window);
+		WPanel.add(publisherRate);
+		WPanel.add(intendedTime);
+		WPanel.add(backfill);
+		WPanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray),"Continuous"));
+		mainPanel.add(WPanel);
 //--------------------------------------Message Type-------------------------------------//		
 		JPanel ContentPanel = new VerticalPanel();		
 		msgChoice.setLayout(new BoxLayout(msgChoice, BoxLayout.X_AXIS));
@@ -232,6 +250,7 @@ public class MQTTPublisherGui extends AbstractSamplerGui implements
 		typeRandom.addChangeListener(this);
 	 	msgFormat.addChangeListener(this);
 	 	suffixClientId.addChangeListener(this);
+	 	continuous.addChangeListener(this);
 	
 	}
 
@@ -294,6 +313,14 @@ public class MQTTPublisherGui extends AbstractSamplerGui implements
 		destSetup.setText(DEST_SETUP_STATIC);
 		textArea.setText("");
 	    clientId.setText("");
+	    highThroughput.setSelected(false);
+	    messageSamples.setText("0"); // $NON-NLS-1$
+	    continuous.setSelected(false);
+	    window.setText("1000"); // $NON-NLS-1$
+	    publisherRate.setText("100"); // $NON-NLS-1$
+	    intendedTime.setSelected(false);
+	    backfill.setSelected(false);
+	    updateContinuous();
 	    //connectionPerTopic.setSelected(false);
 	   
 		
@@ -334,6 +361,13 @@ public class MQTTPublisherGui extends AbstractSamplerGui implements
         sampler.setRandomSuffix(false);
         sampler.setLength(this.suffixLength.getText());
         sampler.setCLEANSESSION(cleanSession.isSelected());
+        sampler.setHighThroughput(highThroughput.isSelected());
+        sampler.setMessageSamples(messageSamples.getText());
+        sampler.setContinuous(continuous.isSelected());
+        sampler.setWindow(window.getText());
+        sampler.setPublisherRate(publisherRate.getText());
+        sampler.setIntendedTime(intendedTime.isSelected());
+        sampler.setBackfill(backfill.isSelected());
 	}
 		
 	/**
@@ -365,6 +399,14 @@ public class MQTTPublisherGui extends AbstractSamplerGui implements
         updateChoice(msgFormat.getText());
         updateChoice("Suffix=" + String.valueOf(this.suffixClientId.isSelected()));
         cleanSession.setSelected(Boolean.parseBoolean(sampler.getCLEANSESSION()));
+        highThroughput.setSelected(sampler.isHighThroughput());
+        messageSamples.setText(sampler.getMessageSamples());
+        continuous.setSelected(sampler.isContinuous());
+        window.setText(sampler.getWindow());
+        publisherRate.setText(sampler.getPublisherRate());
+        intendedTime.setSelected(sampler.isIntendedTime());
+        backfill.setSelected(sampler.isBackfill());
+        updateContinuous();
 	
 	}
 	
@@ -419,6 +461,20 @@ public class MQTTPublisherGui extends AbstractSamplerGui implements
 		else if(event.getSource()==suffixClientId){
 			updateChoice("Suffix="+String.valueOf(this.suffixClientId.isSelected()));
 		}
+		else if (event.getSource() == continuous) {
+			updateContinuous();
+		}
+	}
+
+	/**
+	 * Number of samples is replaced by window and rate in continuous mode
+	 */
+	private void updateContinuous() {
+		window.setEnabled(continuous.isSelected());
+		publisherRate.setEnabled(continuous.isSelected());
+		intendedTime.setEnabled(continuous.isSelected());
+		backfill.setEnabled(continuous.isSelected());
+		iterations.setEnabled(!continuous.isSelected());
 	}
 
 	/**
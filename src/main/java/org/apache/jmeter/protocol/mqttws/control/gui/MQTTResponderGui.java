@@ -0,0 +1,115 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.control.gui;
+import java.awt.BorderLayout;
+import java.awt.Color;
+
+import javax.swing.BorderFactory;
+import javax.swing.BoxLayout;
+import javax.swing.JPanel;
+
+import org.apache.jmeter.gui.util.VerticalPanel;
+import org.apache.jmeter.protocol.mqttws.sampler.ResponderSampler;
+import org.apache.jmeter.testelement.TestElement;
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.gui.JLabeledTextField;
+
+/**
+ * This is the GUI for mqtt Responder: a subscriber GUI with the reply settings <br>
+ *
+ */
+public class MQTTResponderGui extends MQTTSubscriberGui {
+
+    private static final long serialVersionUID = 240L;
+    private final JLabeledTextField requestSuffix = new JLabeledTextField(JMeterUtils.getResString("mqtt_request_suffix")); //$NON-NLS-1$
+    private final JLabeledTextField responseSuffix = new JLabeledTextField(JMeterUtils.getResString("mqtt_response_suffix")); //$NON-NLS-1$
+    private final JLabeledTextField replyDelay = new JLabeledTextField(JMeterUtils.getResString("mqtt_reply_delay")); //$NON-NLS-1$
+    private final JLabeledTextField replyConcurrency = new JLabeledTextField(JMeterUtils.getResString("mqtt_reply_concurrency")); //$NON-NLS-1$
+    private final JLabeledTextField replyQoS = new JLabeledTextField(JMeterUtils.getResString("mqtt_reply_qos")); //$NON-NLS-1$
+    private final JLabeledTextField replyMessage = new JLabeledTextField(JMeterUtils.getResString("mqtt_reply_message")); //$NON-NLS-1$
+
+    public MQTTResponderGui() {
+        super();
+        JPanel ReplyPanel = new VerticalPanel();
+        JPanel SPanel = new JPanel();
+        SPanel.setLayout(new BoxLayout(SPanel, BoxLayout.X_AXIS));
+        SPanel.add(requestSuffix);
+        SPanel.add(responseSuffix);
+        ReplyPanel.add(SPanel);
+        JPanel DPanel = new JPanel();
+        DPanel.setLayout(new BoxLayout(DPanel, BoxLayout.X_AXIS));
+        DPanel.add(replyDelay);
+        DPanel.add(replyConcurrency);
+        DPanel.add(replyQoS);
+        ReplyPanel.add(DPanel);
+        ReplyPanel.add(replyMessage);
+        ReplyPanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray),"Reply"));
+        add(ReplyPanel, BorderLayout.SOUTH);
+    }
+
+    @Override
+    public String getLabelResource() {
+        return "mqtt_responder_title"; // $NON-NLS-1$
+    }
+
+    @Override
+    public TestElement createTestElement() {
+        ResponderSampler sampler = new ResponderSampler();
+        modifyTestElement(sampler);
+        return sampler;
+    }
+
+    @Override
+    public void modifyTestElement(TestElement s) {
+        super.modifyTestElement(s);
+        ResponderSampler sampler = (ResponderSampler) s;
+        sampler.setRequestSuffix(requestSuffix.getText());
+        sampler.setResponseSuffix(responseSuffix.getText());
+        sampler.setReplyDelay(replyDelay.getText());
+        sampler.setReplyConcurrency(replyConcurrency.getText());
+        sampler.setReplyQoS(replyQoS.getText());
+        sampler.setReplyMessage(replyMessage.getText());
+    }
+
+    @Override
+    public void configure(TestElement el) {
+        super.configure(el);
+        ResponderSampler sampler = (ResponderSampler) el;
+        requestSuffix.setText(sampler.getRequestSuffix());
+        responseSuffix.setText(sampler.getResponseSuffix());
+        replyDelay.setText(sampler.getReplyDelay());
+        replyConcurrency.setText(sampler.getReplyConcurrency());
+        replyQoS.setText(sampler.getReplyQoS());
+        replyMessage.setText(sampler.getReplyMessage());
+    }
+
+    @Override
+    public void clearGui() {
+        super.clearGui();
+        requestSuffix.setText("/request"); // $NON-NLS-1$
+        responseSuffix.setText("/response"); // $NON-NLS-1$
+        replyDelay.setText("0"); // $NON-NLS-1$
+        replyConcurrency.setText("1"); // $NON-NLS-1$
+        replyQoS.setText("0"); // $NON-NLS-1$
+        replyMessage.setText(""); // $NON-NLS-1$
+    }
+}
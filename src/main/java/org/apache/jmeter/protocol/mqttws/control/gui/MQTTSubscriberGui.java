@@ -70,6 +70,11 @@ public class MQTTSubscriberGui extends AbstractSamplerGui implements ChangeListe
     private final JLabeledTextField clientId = new JLabeledTextField(JMeterUtils.getResString("mqtt_client_id")); //$NON-NLS-1$
     //private final JLabeledRadioI18N typeQoSValue = new JLabeledRadioI18N("mqtt_qos", QTYPES_ITEMS,AT_MOST_ONCE); //$NON-NLS-1$
     private final JCheckBox cleanSession = new JCheckBox(JMeterUtils.getResString("mqtt_clean_session"), true); // $NON-NLS-1$
+    private final JCheckBox highThroughput = new JCheckBox(JMeterUtils.getResString("mqtt_high_throughput"), false); // $NON-NLS-1$
+    private final JCheckBox topicStats = new JCheckBox(JMeterUtils.getResString("mqtt_topic_stats"), false); // $NON-NLS-1$
+    private final JLabeledTextField messageSamples = new JLabeledTextField(JMeterUtils.getResString("mqtt_message_samples")); //$NON-NLS-1$
+    private final JCheckBox continuous = new JCheckBox(JMeterUtils.getResString("mqtt_continuous"), false); // $NON-NLS-1$
+    private final JLabeledTextField window = new JLabeledTextField(JMeterUtils.getResString("mqtt_window")); //$NON-NLS-1$
     private final JLabeledTextField iterations = new JLabeledTextField(	JMeterUtils.getResString("mqtt_itertions")); //$NON-NLS-1$
     private final JLabeledTextField connectionTimeout = new JLabeledTextField(	JMeterUtils.getResString("mqtt_connection_timeout")); //$NON-NLS-1$
     private final JLabeledTextField keepAliveInterval = new JLabeledTextField(  JMeterUtils.getResString("mqtt_keep_alive_interval"));
@@ -122,6 +127,11 @@ public class MQTTSubscriberGui extends AbstractSamplerGui implements ChangeListe
         sampler.setCLEANSESSION(cleanSession.isSelected());
         sampler.setMaxQoS(maxQoS.getText());
         sampler.setKeepAliveInterval(keepAliveInterval.getText());
+        sampler.setHighThroughput(highThroughput.isSelected());
+        sampler.setTopicStats(topicStats.isSelected());
+        sampler.setMessageSamples(messageSamples.getText());
+        sampler.setContinuous(continuous.isSelected());
+        sampler.setWindow(window.getText());
         
     }
 
@@ -156,8 +166,18 @@ public class MQTTSubscriberGui extends AbstractSamplerGui implements ChangeListe
 		//TPanel.add(typeQoSValue);
 		TPanel.add(samplerTimeout);
 		TPanel.add(iterations);
+		TPanel.add(highThroughput);
+		TPanel.add(topicStats);
+		TPanel.add(messageSamples);
 		TPanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray),"Option"));
 		mainPanel.add(TPanel);
+		JPanel WPanel = new JPanel();
+		WPanel.setLayout(new BoxLayout(WPanel, BoxLayout.X_AXIS));
+		WPanel.add(continuous);
+		WPanel.add(window);
+		WPanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray),"Continuous"));
+		mainPanel.add(WPanel);
+		continuous.addChangeListener(this);
 		useAuth.addChangeListener(this);
 		suffixClientId.addChangeListener(this);
 		
@@ -197,6 +217,12 @@ public class MQTTSubscriberGui extends AbstractSamplerGui implements ChangeListe
         keepAliveInterval.setText(""+sampler.getKeepAliveInterval());
         maxQoS.setText(sampler.getMaxQoS());
         cleanSession.setSelected(Boolean.parseBoolean(sampler.getCLEANSESSION()));
+        highThroughput.setSelected(sampler.isHighThroughput());
+        topicStats.setSelected(sampler.isTopicStats());
+        messageSamples.setText(sampler.getMessageSamples());
+        continuous.setSelected(sampler.isContinuous());
+        window.setText(sampler.getWindow());
+        window.setEnabled(continuous.isSelected());
         //typeQoSValue.setText(sampler.getQuality());
     }
 
@@ -218,6 +244,12 @@ public class MQTTSubscriberGui extends AbstractSamplerGui implements ChangeListe
         mqttUser.setEnabled(false);
         mqttPwd.setEnabled(false);
         stopBetweenSamples.setSelected(false);
+        highThroughput.setSelected(false);
+        topicStats.setSelected(false);
+        messageSamples.setText("0"); // $NON-NLS-1$
+        continuous.setSelected(false);
+        window.setText("1000"); // $NON-NLS-1$
+        window.setEnabled(false);
       
     }
 
@@ -231,6 +263,9 @@ public class MQTTSubscriberGui extends AbstractSamplerGui implements ChangeListe
             mqttUser.setEnabled(useAuth.isSelected());
             mqttPwd.setEnabled(useAuth.isSelected());
         }
+        else if (event.getSource() == continuous) {
+            window.setEnabled(continuous.isSelected());
+        }
         else if(event.getSource()==suffixClientId){
 			updateChoice("Suffix="+String.valueOf(this.suffixClientId.isSelected()));
 		}
@@ -0,0 +1,239 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.journal;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads a {@link MessageJournal} and prints a summary per direction, topic
+ * and client, or every record with -dump.
+ * <pre>
+ * java -cp mqttws.jar org.apache.jmeter.protocol.mqttws.journal.JournalReader [-dump] journal-file
+ * </pre>
+ */
+public class JournalReader {
+
+	public interface Visitor {
+		void record(long time, int direction, int qos, int client, int topic, int msgId, int size, int hash);
+	}
+
+	private final File file;
+	private final Map<Integer, String> names;
+
+	public JournalReader(File file) throws IOException {
+		this.file = file;
+		this.names = readNames(new File(file.getPath() + MessageJournal.NAMES_SUFFIX));
+	}
+
+	/**
+	 * @return the names of a file written by a {@link NameFile}, by id; empty if there is no such file
+	 */
+	static Map<Integer, String> readNames(File file) throws IOException {
+		Map<Integer, String> names = new HashMap<Integer, String>();
+		if (!file.exists()) {
+			return names;
+		}
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8")); // $NON-NLS-1$
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] fields = line.split("\t", 3); // $NON-NLS-1$
+				if (fields.length == 3) {
+					names.put(Integer.valueOf(fields[1]), fields[2]);
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return names;
+	}
+
+	public String getName(int id) {
+		String name = names.get(id);
+		return (name == null) ? "#" + id : name;
+	}
+
+	/**
+	 * Read all records, in the order they were reserved
+	 *
+	 * @return the number of records read
+	 */
+	public long read(Visitor visitor) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		long n = 0;
+		try {
+			if (in.readInt() != MessageJournal.MAGIC) {
+				throw new IOException(file + " is not a message journal");
+			}
+			int recordSize = in.readInt();
+			in.readLong();
+			//0 if the journal was not closed: read to the end
+			long count = in.readLong();
+			in.skipBytes(MappedRecordFile.HEADER_SIZE - MappedRecordFile.COUNT_OFFSET - 8);
+			for (long i = 0; count == 0 || i < count; i++) {
+				long time = in.readLong();
+				if (time == 0) {
+					//never written
+					in.skipBytes(recordSize - 8);
+					continue;
+				}
+				int direction = in.readByte();
+				int qos = in.readByte();
+				in.readShort();
+				int client = in.readInt();
+				int topic = in.readInt();
+				int msgId = in.readInt();
+				int size = in.readInt();
+				int hash = in.readInt();
+				in.skipBytes(recordSize - MessageJournal.RECORD_SIZE);
+				visitor.record(time, direction, qos, client, topic, msgId, size, hash);
+				n++;
+			}
+		} catch (EOFException e) {
+			//end of a journal that was not closed
+		} finally {
+			in.close();
+		}
+		return n;
+	}
+
+	private static class Counts {
+		long out;
+		long in;
+		long heartbeats;
+		long bytes;
+
+		void add(int direction, int size) {
+			if (direction == MessageJournal.OUT) {
+				out++;
+			} else if (direction == MessageJournal.IN) {
+				in++;
+			} else {
+				heartbeats++;
+			}
+			bytes += size;
+		}
+
+		@Override
+		public String toString() {
+			return out + "\t" + in + "\t" + heartbeats + "\t" + bytes;
+		}
+	}
+
+	private static final String[] DIRECTIONS = {"?", "out", "in", "heartbeat"};
+
+	public void summarize(final PrintStream out) throws IOException {
+		final Counts total = new Counts();
+		final Map<Integer, Counts> perTopic = new HashMap<Integer, Counts>();
+		final Map<Integer, Counts> perClient = new HashMap<Integer, Counts>();
+		final long[] span = {Long.MAX_VALUE, 0};
+		long n = read(new Visitor() {
+			public void record(long time, int direction, int qos, int client, int topic, int msgId, int size, int hash) {
+				total.add(direction, size);
+				counts(perTopic, topic).add(direction, size);
+				counts(perClient, client).add(direction, size);
+				span[0] = Math.min(span[0], time);
+				span[1] = Math.max(span[1], time);
+			}
+		});
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS"); // $NON-NLS-1$
+		out.println("Records: " + n);
+		if (n == 0) {
+			return;
+		}
+		long duration = Math.max(1, span[1] - span[0]);
+		out.println("From: " + format.format(new Date(span[0])) + " to " + format.format(new Date(span[1])));
+		out.println("Out: " + total.out + " In: " + total.in + " Heartbeats: " + total.heartbeats
+				+ " Bytes: " + total.bytes + " (" + Math.round(n * 1000.0 / duration) + " records/s)");
+		out.println();
+		out.println("topic\tout\tin\theartbeats\tbytes");
+		print(out, perTopic);
+		out.println();
+		out.println("client\tout\tin\theartbeats\tbytes");
+		print(out, perClient);
+	}
+
+	private static Counts counts(Map<Integer, Counts> map, int id) {
+		Counts c = map.get(id);
+		if (c == null) {
+			c = new Counts();
+			map.put(id, c);
+		}
+		return c;
+	}
+
+	private void print(PrintStream out, Map<Integer, Counts> map) {
+		Map<String, Counts> sorted = new TreeMap<String, Counts>();
+		for (Map.Entry<Integer, Counts> e : map.entrySet()) {
+			sorted.put(getName(e.getKey()), e.getValue());
+		}
+		for (Map.Entry<String, Counts> e : sorted.entrySet()) {
+			out.println(e.getKey() + "\t" + e.getValue());
+		}
+	}
+
+	public void dump(final PrintStream out) throws IOException {
+		final SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS"); // $NON-NLS-1$
+		read(new Visitor() {
+			public void record(long time, int direction, int qos, int client, int topic, int msgId, int size, int hash) {
+				out.println(format.format(new Date(time)) + "\t"
+						+ ((direction > 0 && direction < DIRECTIONS.length) ? DIRECTIONS[direction] : "?") + "\t"
+						+ getName(client) + "\t" + getName(topic) + "\tid=" + msgId + "\tqos=" + qos
+						+ "\tsize=" + size + "\thash=" + Integer.toHexString(hash));
+			}
+		});
+	}
+
+	public static void main(String[] args) throws IOException {
+		boolean dump = false;
+		String file = null;
+		for (String arg : args) {
+			if ("-dump".equals(arg)) {
+				dump = true;
+			} else {
+				file = arg;
+			}
+		}
+		if (file == null) {
+			System.err.println("Usage: JournalReader [-dump] journal-file");
+			System.exit(1);
+		}
+		JournalReader reader = new JournalReader(new File(file));
+		if (dump) {
+			reader.dump(System.out);
+		} else {
+			reader.summarize(System.out);
+		}
+	}
+}
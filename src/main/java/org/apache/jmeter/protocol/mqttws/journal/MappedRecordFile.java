@@ -0,0 +1,196 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.journal;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append only file of fixed size records, written through memory mapped
+ * regions.
+ * <p>
+ * Writers reserve a slot with an atomic counter and fill it with absolute
+ * puts, so threads append concurrently without locking and nothing is copied
+ * to the heap. The file grows one region at a time; unwritten slots are all
+ * zeros.
+ * <p>
+ * The header holds the magic, the record size, the creation time and, once
+ * closed, the number of records: the file is then cut after the last one.
+ * Readers go through that many records, skipping the unwritten ones; a file
+ * that was not closed has a count of 0 and is read to its end.
+ */
+public class MappedRecordFile {
+	public static final int HEADER_SIZE = 32;
+	//position of the record count in the header
+	public static final int COUNT_OFFSET = 16;
+	private static final int REGION_RECORDS = 1 << 20;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final int recordSize;
+	private final long regionSize;
+	private final AtomicLong next = new AtomicLong(0);
+	private final ConcurrentHashMap<Long, MappedByteBuffer> regions = new ConcurrentHashMap<Long, MappedByteBuffer>();
+	private volatile boolean closed = false;
+
+	/**
+	 * Create (or overwrite) a record file
+	 *
+	 * @param f the file
+	 * @param magic 4 bytes identifying the kind of records, written in the header
+	 * @param recordSize bytes per record
+	 */
+	public MappedRecordFile(File f, int magic, int recordSize) throws IOException {
+		this.recordSize = recordSize;
+		this.regionSize = (long) recordSize * REGION_RECORDS;
+		this.file = new RandomAccessFile(f, "rw"); // $NON-NLS-1$
+		this.file.setLength(0);
+		this.channel = file.getChannel();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(magic);
+		header.putInt(recordSize);
+		header.putLong(System.currentTimeMillis());
+		header.flip();
+		channel.write(header, 0);
+	}
+
+	/**
+	 * Reserve the next record
+	 *
+	 * @return a buffer whose record starts at {@link #offset(long)} of the returned slot,
+	 *         or null once the file is closed
+	 */
+	public ByteBuffer reserve(long[] slot) {
+		long n = next.getAndIncrement();
+		//checked after the increment: close() counts the slot, or we see it closed
+		if (closed) {
+			return null;
+		}
+		slot[0] = n;
+		try {
+			return region(n / REGION_RECORDS);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Reserve several consecutive records, to be filled with {@link #write(long, ByteBuffer)}
+	 *
+	 * @return the first reserved slot, or -1 once the file is closed
+	 */
+	public long reserve(int count) {
+		long first = next.getAndAdd(count);
+		if (closed) {
+			return -1;
+		}
+		return first;
+	}
+
+	/**
+	 * Copy whole records into reserved slots, across regions if need be
+	 *
+	 * @param slot first slot returned by {@link #reserve(int)}
+	 * @param src the records, from its position to its limit
+	 */
+	public void write(long slot, ByteBuffer src) throws IOException {
+		int limit = src.limit();
+		while (src.hasRemaining()) {
+			ByteBuffer b = region(slot / REGION_RECORDS).duplicate();
+			int off = offset(slot);
+			int n = Math.min(src.remaining(), b.capacity() - off);
+			src.limit(src.position() + n);
+			b.position(off);
+			b.put(src);
+			src.limit(limit);
+			slot += n / recordSize;
+		}
+	}
+
+	/**
+	 * @return position of a record in the buffer returned by {@link #reserve(long[])}
+	 */
+	public int offset(long slot) {
+		return (int) (slot % REGION_RECORDS) * recordSize;
+	}
+
+	private ByteBuffer region(long r) throws IOException {
+		MappedByteBuffer b = regions.get(r);
+		if (b != null) {
+			return b;
+		}
+		synchronized (this) {
+			b = regions.get(r);
+			if (b == null) {
+				b = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + r * regionSize, regionSize);
+				regions.put(r, b);
+				//keep the previous region for slow writers, forget older ones
+				for (Iterator<Long> it = regions.keySet().iterator(); it.hasNext();) {
+					if (it.next() < r - 1) {
+						it.remove();
+					}
+				}
+			}
+			return b;
+		}
+	}
+
+	/**
+	 * @return number of records reserved so far
+	 */
+	public long size() {
+		return next.get();
+	}
+
+	/**
+	 * Flush the mapped regions still in use, write the number of records in
+	 * the header, cut the file after the last one and close it
+	 */
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		//no slot is reserved from now on
+		long count = next.get();
+		try {
+			for (MappedByteBuffer b : regions.values()) {
+				b.force();
+			}
+			regions.clear();
+			ByteBuffer header = ByteBuffer.allocate(8);
+			header.putLong(count);
+			header.flip();
+			channel.write(header, COUNT_OFFSET);
+			channel.truncate(HEADER_SIZE + count * recordSize);
+		} finally {
+			channel.close();
+			file.close();
+		}
+	}
+}
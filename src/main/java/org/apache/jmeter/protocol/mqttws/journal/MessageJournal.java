@@ -0,0 +1,154 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.journal;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Engine wide binary journal of the messages sent and received, enabled by
+ * the <code>mqtt.journal.file</code> property.
+ * <p>
+ * Every message is one 32 byte record:
+ * <pre>
+ * 0  long  time (msecs)
+ * 8  byte  direction ({@link #OUT}, {@link #IN}, {@link #HEARTBEAT})
+ * 9  byte  qos
+ * 10 short unused
+ * 12 int   client id
+ * 16 int   topic id
+ * 20 int   MQTT message id
+ * 24 int   payload size
+ * 28 int   payload hash (0 unless mqtt.journal.hash is true)
+ * </pre>
+ * Client and topic names are written once, with their id, to a
+ * <code>.names</code> file next to the journal. {@link JournalReader} reads both.
+ */
+public class MessageJournal {
+	public static final int MAGIC = 0x4d514a31; // MQJ1
+	public static final int RECORD_SIZE = 32;
+	public static final byte OUT = 1;
+	public static final byte IN = 2;
+	public static final byte HEARTBEAT = 3;
+	public static final String NAMES_SUFFIX = ".names"; // $NON-NLS-1$
+
+	private static final Logger log = LoggingManager.getLoggerForClass();
+	private static MessageJournal instance = null;
+
+	private final MappedRecordFile records;
+	private final NameFile names;
+	private final boolean hash;
+	private final ThreadLocal<long[]> slots = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[1];
+		}
+	};
+
+	/**
+	 * @return the journal of this engine, null if mqtt.journal.file is not set
+	 */
+	public static synchronized MessageJournal getInstance() {
+		if (instance == null) {
+			String file = JMeterUtils.getProperty("mqtt.journal.file"); // $NON-NLS-1$
+			if (file == null || file.trim().length() == 0) {
+				return null;
+			}
+			try {
+				instance = new MessageJournal(new File(file.trim()),
+						JMeterUtils.getPropDefault("mqtt.journal.hash", false)); // $NON-NLS-1$
+				log.info("Journaling messages to " + file);
+			} catch (IOException e) {
+				log.error("Could not create message journal " + file, e);
+				return null;
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Close the journal of this engine, if any. The next test gets a new one.
+	 */
+	public static synchronized void closeInstance() {
+		if (instance != null) {
+			try {
+				instance.close();
+			} catch (IOException e) {
+				log.warn("Could not close message journal", e);
+			}
+			instance = null;
+		}
+	}
+
+	public MessageJournal(File file, boolean hash) throws IOException {
+		this.records = new MappedRecordFile(file, MAGIC, RECORD_SIZE);
+		this.names = new NameFile(new File(file.getPath() + NAMES_SUFFIX), "CT"); // $NON-NLS-1$
+		this.hash = hash;
+	}
+
+	/**
+	 * @param direction {@link #OUT}, {@link #IN} or {@link #HEARTBEAT}
+	 * @param client client id
+	 * @param topic topic of the message
+	 * @param msgId MQTT message id
+	 * @param qos quality of service
+	 * @param payload the message payload
+	 */
+	public void record(byte direction, String client, String topic, int msgId, int qos, byte[] payload) {
+		long[] slot = slots.get();
+		ByteBuffer b = records.reserve(slot);
+		if (b == null) {
+			return;
+		}
+		int off = records.offset(slot[0]);
+		b.putLong(off, System.currentTimeMillis());
+		b.put(off + 8, direction);
+		b.put(off + 9, (byte) qos);
+		b.putInt(off + 12, names.id('C', client));
+		b.putInt(off + 16, names.id('T', topic));
+		b.putInt(off + 20, msgId);
+		b.putInt(off + 24, payload.length);
+		b.putInt(off + 28, hash ? hash(payload) : 0);
+	}
+
+	//FNV-1a, cheap and good enough to spot duplicated or altered payloads
+	private static int hash(byte[] payload) {
+		int h = 0x811c9dc5;
+		for (int i = 0; i < payload.length; i++) {
+			h = (h ^ (payload[i] & 0xff)) * 0x01000193;
+		}
+		return h;
+	}
+
+	public long size() {
+		return records.size();
+	}
+
+	public void close() throws IOException {
+		records.close();
+		names.close();
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.journal;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Ids of the names (clients, topics, samplers) of a record file, written
+ * once each to a text file as "kind TAB id TAB name" lines.
+ * <p>
+ * Known names are looked up without locking; a new name takes the lock
+ * to get its id and its line.
+ */
+public class NameFile {
+	private static final Logger log = LoggingManager.getLoggerForClass();
+
+	private final Writer names;
+	private final ConcurrentHashMap<String, Integer>[] ids;
+	private final AtomicInteger nextId = new AtomicInteger(1);
+
+	/**
+	 * @param kinds the kinds of names, one character each
+	 */
+	@SuppressWarnings("unchecked")
+	public NameFile(File file, String kinds) throws IOException {
+		this.names = new OutputStreamWriter(new FileOutputStream(file), "UTF-8"); // $NON-NLS-1$
+		this.ids = new ConcurrentHashMap[128];
+		for (int i = 0; i < kinds.length(); i++) {
+			ids[kinds.charAt(i)] = new ConcurrentHashMap<String, Integer>();
+		}
+	}
+
+	/**
+	 * @param kind one of the kinds given to the constructor
+	 * @return the id of the name, unique amongst all kinds
+	 */
+	public int id(char kind, String name) {
+		ConcurrentHashMap<String, Integer> map = ids[kind];
+		Integer id = map.get(name);
+		if (id != null) {
+			return id.intValue();
+		}
+		synchronized (names) {
+			id = map.get(name);
+			if (id == null) {
+				id = Integer.valueOf(nextId.getAndIncrement());
+				try {
+					names.write(kind + "\t" + id + "\t" + name + "\n");
+				} catch (IOException e) {
+					log.warn("Could not write names", e);
+				}
+				map.put(name, id);
+			}
+			return id.intValue();
+		}
+	}
+
+	public void close() throws IOException {
+		synchronized (names) {
+			names.close();
+		}
+	}
+}
@@ -0,0 +1,270 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.journal;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.jmeter.protocol.mqttws.stats.LatencyHistogram;
+
+/**
+ * Reads the files of a {@link ResultWriter}, one record at a time, and
+ * converts them to a JMeter CSV results file or prints latency percentiles
+ * per sampler (and topic with -topics).
+ * <pre>
+ * java -cp mqttws.jar org.apache.jmeter.protocol.mqttws.journal.ResultReader [-csv | -topics] results-file
+ * </pre>
+ * The CSV has the columns of a JMeter CSV results file, with a header, so it
+ * can be loaded in a listener or given to the HTML report generator: a published
+ * message starts when it was sent and lasts until its ack, a received one ends when
+ * it arrived and lasts its end to end latency. The topic is in the URL column.
+ */
+public class ResultReader {
+
+	public interface Visitor {
+		/**
+		 * @param latency usecs, -1 if unknown
+		 */
+		void record(long time, int latency, int size, int sampler, int topic, int msgId, int kind, int qos, int status, int flags);
+	}
+
+	private static final String[] KINDS = {"?", "published", "received"};
+	private static final String[] STATUSES = {"OK", "NO_ACK", "ERROR"};
+
+	private final File file;
+	private final Map<Integer, String> names;
+
+	public ResultReader(File file) throws IOException {
+		this.file = file;
+		this.names = JournalReader.readNames(new File(file.getPath() + MessageJournal.NAMES_SUFFIX));
+	}
+
+	public String getName(int id) {
+		String name = names.get(id);
+		return (name == null) ? "#" + id : name;
+	}
+
+	/**
+	 * @return the n-th file of results written to base
+	 */
+	public static File segment(File base, int n) {
+		return (n == 0) ? base : new File(base.getPath() + "." + n);
+	}
+
+	/**
+	 * Read the records of all files, each file in the order its records were reserved
+	 *
+	 * @return the number of records read
+	 */
+	public long read(Visitor visitor) throws IOException {
+		long n = 0;
+		for (int i = 0; segment(file, i).exists(); i++) {
+			n += readSegment(segment(file, i), visitor);
+		}
+		return n;
+	}
+
+	/**
+	 * Read the records of one file, sampler and topic ids are not resolved
+	 *
+	 * @return the number of records read
+	 */
+	public static long readSegment(File segment, Visitor visitor) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment), 1 << 16));
+		long n = 0;
+		try {
+			if (in.readInt() != ResultWriter.MAGIC) {
+				throw new IOException(segment + " is not a message results file");
+			}
+			int recordSize = in.readInt();
+			in.readLong();
+			//0 if the file was not closed: read to the end
+			long count = in.readLong();
+			in.skipBytes(MappedRecordFile.HEADER_SIZE - MappedRecordFile.COUNT_OFFSET - 8);
+			for (long i = 0; count == 0 || i < count; i++) {
+				long time = in.readLong();
+				if (time == 0) {
+					//never written: lost, or reserved past the rotation
+					in.skipBytes(recordSize - 8);
+					continue;
+				}
+				int latency = in.readInt();
+				int size = in.readInt();
+				int sampler = in.readInt();
+				int topic = in.readInt();
+				int msgId = in.readInt();
+				int kind = in.readByte();
+				int qos = in.readByte();
+				int status = in.readByte();
+				int flags = in.readByte();
+				in.skipBytes(recordSize - ResultWriter.RECORD_SIZE);
+				visitor.record(time, latency, size, sampler, topic, msgId, kind, qos, status, flags);
+				n++;
+			}
+		} catch (EOFException e) {
+			//end of a file that was not closed
+		} finally {
+			in.close();
+		}
+		return n;
+	}
+
+	public void toCsv(final PrintStream out) throws IOException {
+		out.println("timeStamp,elapsed,label,responseCode,responseMessage,success,bytes,URL,Latency"); // $NON-NLS-1$
+		final Map<Integer, String> quoted = new HashMap<Integer, String>();
+		read(new Visitor() {
+			public void record(long time, int latency, int size, int sampler, int topic, int msgId, int kind, int qos, int status, int flags) {
+				long elapsed = (latency < 0) ? 0 : latency / 1000;
+				long start = (kind == ResultWriter.RECEIVED) ? time - elapsed : time;
+				out.println(start + "," + elapsed + "," + csv(quoted, sampler) + "," + status(status) + ","
+						+ kind(kind) + " qos=" + qos + " id=" + msgId + (((flags & ResultWriter.RETAINED) != 0) ? " retained" : "") + ","
+						+ (status == ResultWriter.OK) + ","
+						+ size + "," + csv(quoted, topic) + "," + elapsed);
+			}
+		});
+	}
+
+	private String csv(Map<Integer, String> quoted, int id) {
+		String s = quoted.get(id);
+		if (s == null) {
+			s = getName(id);
+			if (s.indexOf(',') >= 0 || s.indexOf('"') >= 0 || s.indexOf('\n') >= 0) {
+				s = '"' + s.replace("\"", "\"\"") + '"';
+			}
+			quoted.put(id, s);
+		}
+		return s;
+	}
+
+	private static String kind(int kind) {
+		return (kind > 0 && kind < KINDS.length) ? KINDS[kind] : KINDS[0];
+	}
+
+	private static String status(int status) {
+		return (status >= 0 && status < STATUSES.length) ? STATUSES[status] : "?";
+	}
+
+	private static class Group {
+		long messages;
+		long failed;
+		long bytes;
+		long first = Long.MAX_VALUE;
+		long last = 0;
+		final LatencyHistogram latency = new LatencyHistogram();
+
+		void add(long time, int latency, int size, int status) {
+			messages++;
+			if (status != ResultWriter.OK) {
+				failed++;
+			}
+			bytes += size;
+			first = Math.min(first, time);
+			last = Math.max(last, time);
+			if (latency >= 0) {
+				this.latency.record(latency);
+			}
+		}
+
+		@Override
+		public String toString() {
+			long duration = Math.max(1, last - first);
+			return messages + "\t" + failed + "\t" + bytes + "\t" + Math.round(messages * 1000.0 / duration) + "\t"
+					+ ((latency.getCount() > 0) ? latency.toPercentilesString() : "-");
+		}
+	}
+
+	/**
+	 * @param perTopic one line per sampler, kind and topic instead of per sampler and kind
+	 */
+	public void summarize(final PrintStream out, final boolean perTopic) throws IOException {
+		final Group total = new Group();
+		//by sampler, kind and topic ids
+		final Map<String, Group> groups = new HashMap<String, Group>();
+		long n = read(new Visitor() {
+			public void record(long time, int latency, int size, int sampler, int topic, int msgId, int kind, int qos, int status, int flags) {
+				total.add(time, latency, size, status);
+				String key = sampler + "\t" + kind + (perTopic ? "\t" + topic : "");
+				Group g = groups.get(key);
+				if (g == null) {
+					g = new Group();
+					groups.put(key, g);
+				}
+				g.add(time, latency, size, status);
+			}
+		});
+		out.println("Records: " + n);
+		if (n == 0) {
+			return;
+		}
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS"); // $NON-NLS-1$
+		out.println("From: " + format.format(new Date(total.first)) + " to " + format.format(new Date(total.last)));
+		out.println();
+		out.println("sampler\tkind" + (perTopic ? "\ttopic" : "") + "\tmessages\tfailed\tbytes\tmsg/s\tlatency");
+		Map<String, Group> sorted = new TreeMap<String, Group>();
+		for (Map.Entry<String, Group> e : groups.entrySet()) {
+			String[] ids = e.getKey().split("\t"); // $NON-NLS-1$
+			sorted.put(getName(Integer.parseInt(ids[0])) + "\t" + kind(Integer.parseInt(ids[1]))
+					+ (perTopic ? "\t" + getName(Integer.parseInt(ids[2])) : ""), e.getValue());
+		}
+		for (Map.Entry<String, Group> e : sorted.entrySet()) {
+			out.println(e.getKey() + "\t" + e.getValue());
+		}
+		out.println("all\t" + (perTopic ? "\t" : "") + "\t" + total);
+	}
+
+	public static void main(String[] args) throws IOException {
+		boolean csv = false;
+		boolean topics = false;
+		String file = null;
+		for (String arg : args) {
+			if ("-csv".equals(arg)) {
+				csv = true;
+			} else if ("-topics".equals(arg)) {
+				topics = true;
+			} else {
+				file = arg;
+			}
+		}
+		if (file == null) {
+			System.err.println("Usage: ResultReader [-csv | -topics] results-file");
+			System.exit(1);
+		}
+		ResultReader reader = new ResultReader(new File(file));
+		PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false);
+		if (csv) {
+			reader.toCsv(out);
+		} else {
+			reader.summarize(out, topics);
+		}
+		out.flush();
+	}
+}
@@ -0,0 +1,304 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.journal;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Engine wide binary file of per message results, enabled by the
+ * <code>mqtt.results.file</code> property, for rates at which a JMeter
+ * listener per message would be the bottleneck.
+ * <p>
+ * Every message is one 32 byte record:
+ * <pre>
+ * 0  long  time (msecs) the message was published, or received
+ * 8  int   ack latency of a published message, end to end latency of a received one (usecs, -1 if unknown)
+ * 12 int   payload size
+ * 16 int   sampler id
+ * 20 int   topic id
+ * 24 int   MQTT message id
+ * 28 byte  kind ({@link #PUBLISHED}, {@link #RECEIVED})
+ * 29 byte  qos
+ * 30 byte  status ({@link #OK}, {@link #NO_ACK}, {@link #ERROR})
+ * 31 byte  flags ({@link #RETAINED})
+ * </pre>
+ * Records are put in a buffer of the calling thread, under a lock of its own
+ * that only close() and the flush of the buffers of ended threads contend for,
+ * and a full buffer is copied to the file at once into records reserved with a
+ * single atomic add. There is a buffer per Paho callback thread, that is per
+ * client: they are small, and those of ended threads are flushed and dropped
+ * as new ones come. A file holds mqtt.results.rotate records at most, then the
+ * next one is started: file, file.1, file.2... Sampler and topic names are
+ * written once, with their id, to a <code>.names</code> file next to the first
+ * one. {@link ResultReader} converts them to CSV or summarizes them.
+ * <p>
+ * Buffers are flushed when full and when the test ends, so the records of
+ * messages still arriving while the results are closed may be lost.
+ */
+public class ResultWriter {
+	public static final int MAGIC = 0x4d515231; // MQR1
+	public static final int RECORD_SIZE = 32;
+	public static final byte PUBLISHED = 1;
+	public static final byte RECEIVED = 2;
+	public static final byte OK = 0;
+	public static final byte NO_ACK = 1;
+	public static final byte ERROR = 2;
+	public static final byte RETAINED = 1;
+
+	private static final Logger log = LoggingManager.getLoggerForClass();
+	private static ResultWriter instance = null;
+
+	private final File file;
+	private final long rotate;
+	private final int bufferSize;
+	private final NameFile names;
+	private volatile MappedRecordFile current;
+	//kept open until the next rotation for writers still copying into it
+	private MappedRecordFile previous = null;
+	private int segment = 0;
+	private volatile boolean closed = false;
+	private final AtomicLong written = new AtomicLong(0);
+	private final AtomicLong lost = new AtomicLong(0);
+	//the buffers of all threads, flushed on close
+	private final ConcurrentLinkedQueue<Buffer> buffers = new ConcurrentLinkedQueue<Buffer>();
+	private final AtomicInteger bufferCount = new AtomicInteger(0);
+	//number of buffers at which those of ended threads are dropped
+	private volatile int sweepAt = 64;
+	private final AtomicBoolean sweeping = new AtomicBoolean(false);
+	private final ThreadLocal<Buffer> buffer = new ThreadLocal<Buffer>() {
+		@Override
+		protected Buffer initialValue() {
+			if (bufferCount.incrementAndGet() >= sweepAt) {
+				sweepEnded();
+			}
+			Buffer b = new Buffer(bufferSize * RECORD_SIZE);
+			buffers.add(b);
+			return b;
+		}
+	};
+
+	/**
+	 * Records of a thread not in the file yet, filled under the lock of the buffer
+	 */
+	private static class Buffer {
+		final ByteBuffer bytes;
+		final WeakReference<Thread> owner = new WeakReference<Thread>(Thread.currentThread());
+
+		Buffer(int size) {
+			bytes = ByteBuffer.allocate(size);
+		}
+
+		boolean isOwnerAlive() {
+			Thread t = owner.get();
+			return t != null && t.isAlive();
+		}
+	}
+
+	/**
+	 * @return the results of this engine, null if mqtt.results.file is not set
+	 */
+	public static synchronized ResultWriter getInstance() {
+		if (instance == null) {
+			String file = JMeterUtils.getProperty("mqtt.results.file"); // $NON-NLS-1$
+			if (file == null || file.trim().length() == 0) {
+				return null;
+			}
+			try {
+				instance = new ResultWriter(new File(file.trim()),
+						JMeterUtils.getPropDefault("mqtt.results.rotate", 16L << 20), // $NON-NLS-1$
+						JMeterUtils.getPropDefault("mqtt.results.buffer", 64)); // $NON-NLS-1$
+				log.info("Writing message results to " + file);
+			} catch (IOException e) {
+				log.error("Could not create message results " + file, e);
+				return null;
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Close the results of this engine, if any. The next test gets new ones.
+	 */
+	public static synchronized void closeInstance() {
+		if (instance != null) {
+			try {
+				instance.close();
+				log.info("Wrote " + instance.written.get() + " message results to " + (instance.segment + 1)
+						+ " file(s) " + instance.file + ((instance.lost.get() > 0) ? ", lost " + instance.lost.get() : ""));
+			} catch (IOException e) {
+				log.warn("Could not close message results", e);
+			}
+			instance = null;
+		}
+	}
+
+	/**
+	 * @param rotate records per file
+	 * @param bufferSize records buffered per thread
+	 */
+	public ResultWriter(File file, long rotate, int bufferSize) throws IOException {
+		this.file = file;
+		this.rotate = Math.max(1, rotate);
+		this.bufferSize = Math.max(1, bufferSize);
+		this.current = new MappedRecordFile(file, MAGIC, RECORD_SIZE);
+		this.names = new NameFile(new File(file.getPath() + MessageJournal.NAMES_SUFFIX), "ST"); // $NON-NLS-1$
+	}
+
+	/**
+	 * @param sampler name of the sampler
+	 * @param topic topic of the message
+	 * @param kind {@link #PUBLISHED} or {@link #RECEIVED}
+	 * @param time msecs the message was published or received
+	 * @param latency usecs, -1 if unknown
+	 * @param size payload size
+	 * @param qos quality of service
+	 * @param msgId MQTT message id
+	 * @param status {@link #OK}, {@link #NO_ACK} or {@link #ERROR}
+	 * @param retained the message was published, or received, as retained
+	 */
+	public void record(String sampler, String topic, byte kind, long time, long latency, int size, int qos, int msgId, byte status, boolean retained) {
+		if (closed) {
+			return;
+		}
+		Buffer buf = buffer.get();
+		synchronized (buf) {
+			//closed while we were getting the lock: the buffer is flushed for good
+			if (closed) {
+				return;
+			}
+			ByteBuffer b = buf.bytes;
+			b.putLong(time);
+			b.putInt((int) Math.min(Integer.MAX_VALUE, latency));
+			b.putInt(size);
+			b.putInt(names.id('S', sampler));
+			b.putInt(names.id('T', topic));
+			b.putInt(msgId);
+			b.put(kind);
+			b.put((byte) qos);
+			b.put(status);
+			b.put(retained ? RETAINED : 0);
+			if (!b.hasRemaining()) {
+				flush(b);
+			}
+		}
+	}
+
+	/**
+	 * Flush and drop the buffers of the threads that ended, once their number doubled
+	 */
+	private void sweepEnded() {
+		if (!sweeping.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			for (Buffer b : buffers) {
+				if (!b.isOwnerAlive() && buffers.remove(b)) {
+					synchronized (b) {
+						flush(b.bytes);
+					}
+					bufferCount.decrementAndGet();
+				}
+			}
+			sweepAt = Math.max(64, bufferCount.get() * 2);
+		} finally {
+			sweeping.set(false);
+		}
+	}
+
+	private void flush(ByteBuffer b) {
+		//whole records only
+		b.limit(b.position() - b.position() % RECORD_SIZE);
+		b.position(0);
+		try {
+			while (b.hasRemaining()) {
+				MappedRecordFile f = current;
+				int count = b.remaining() / RECORD_SIZE;
+				long first = f.reserve(count);
+				if (first < 0) {
+					if (closed && f == current) {
+						break;
+					}
+					//rotated since we read it
+					continue;
+				}
+				int fit = (int) Math.max(0, Math.min(count, rotate - first));
+				if (fit > 0) {
+					int limit = b.limit();
+					b.limit(b.position() + fit * RECORD_SIZE);
+					f.write(first, b);
+					b.limit(limit);
+					written.addAndGet(fit);
+				}
+				if (fit < count) {
+					rotate(f);
+				}
+			}
+		} catch (IOException e) {
+			log.warn("Could not write message results", e);
+		}
+		lost.addAndGet(b.remaining() / RECORD_SIZE);
+		b.clear();
+	}
+
+	private synchronized void rotate(MappedRecordFile full) throws IOException {
+		if (current != full) {
+			return;
+		}
+		MappedRecordFile next = new MappedRecordFile(ResultReader.segment(file, segment + 1), MAGIC, RECORD_SIZE);
+		segment++;
+		if (previous != null) {
+			previous.close();
+		}
+		previous = full;
+		current = next;
+	}
+
+	public long size() {
+		return written.get();
+	}
+
+	public void close() throws IOException {
+		closed = true;
+		for (Buffer b : buffers) {
+			synchronized (b) {
+				flush(b.bytes);
+			}
+		}
+		synchronized (this) {
+			if (previous != null) {
+				previous.close();
+			}
+			current.close();
+		}
+		names.close();
+	}
+}
@@ -0,0 +1,177 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.metrics;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.jmeter.engine.util.NoThreadClone;
+import org.apache.jmeter.samplers.Remoteable;
+import org.apache.jmeter.samplers.SampleEvent;
+import org.apache.jmeter.samplers.SampleListener;
+import org.apache.jmeter.testelement.AbstractTestElement;
+import org.apache.jmeter.testelement.TestStateListener;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Listener merging the {@link HistogramSnapshot}s of all the engines of a test.
+ * Being {@link Remoteable}, it stays on the controller in distributed runs and
+ * gets the results of every remote engine; it keeps the last snapshot of each
+ * engine and, at the end of the test, logs the counts and percentiles of all
+ * the messages, and writes them as a {@link HistogramDump} to its file if set.
+ * <p>
+ * The last snapshot of an engine may be up to one snapshot interval older than
+ * its end, so the merged percentiles miss the messages of that last interval
+ * on every engine. The exact global percentiles only come from merging the
+ * <code>mqtt.histogram.file</code> dumps of the engines with
+ * {@link HistogramMerge} after the test.
+ */
+public class HistogramCollector extends AbstractTestElement implements SampleListener, TestStateListener, NoThreadClone, Remoteable {
+
+	private static final long serialVersionUID = 240L;
+	private static final Logger log = LoggingManager.getLoggerForClass();
+	private static final String FILENAME = "mqtt.histogram_collector.file"; // $NON-NLS-1$
+
+	/**
+	 * Last snapshot of an engine
+	 */
+	private static class Snapshot {
+		final long time;
+		final byte[] dump;
+
+		Snapshot(long time, byte[] dump) {
+			this.time = time;
+			this.dump = dump;
+		}
+	}
+
+	private transient Map<String, Snapshot> engines = new ConcurrentHashMap<String, Snapshot>();
+	//engines running the test, each of them ends it
+	private transient int running = 0;
+
+	public void setFilename(String filename) {
+		setProperty(FILENAME, filename, ""); // $NON-NLS-1$
+	}
+
+	public String getFilename() {
+		return getPropertyAsString(FILENAME, ""); // $NON-NLS-1$
+	}
+
+	// ------------------------- Samples ---------------------//
+
+	public void sampleOccurred(SampleEvent e) {
+		byte[] dump = HistogramSnapshot.find(e.getResult());
+		if (dump == null) {
+			return;
+		}
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(dump));
+		try {
+			if (in.readInt() != HistogramDump.MAGIC) {
+				return;
+			}
+			keep(in.readUTF(), new Snapshot(in.readLong(), dump));
+		} catch (IOException ex) {
+			log.warn("Could not read the latency histograms of " + e.getHostname(), ex);
+		}
+	}
+
+	/**
+	 * Keep the snapshot unless a later one of the engine came first
+	 */
+	private synchronized void keep(String engine, Snapshot snapshot) {
+		Snapshot last = engines().get(engine);
+		if (last == null || last.time <= snapshot.time) {
+			engines().put(engine, snapshot);
+		}
+	}
+
+	private synchronized Map<String, Snapshot> engines() {
+		//not serialized, nor set by clone()
+		if (engines == null) {
+			engines = new ConcurrentHashMap<String, Snapshot>();
+		}
+		return engines;
+	}
+
+	public void sampleStarted(SampleEvent e) {
+	}
+
+	public void sampleStopped(SampleEvent e) {
+	}
+
+	// ------------------------- Test ---------------------//
+
+	public void testStarted() {
+		testStarted("local"); // $NON-NLS-1$
+	}
+
+	public synchronized void testStarted(String host) {
+		if (running++ == 0) {
+			engines().clear();
+		}
+	}
+
+	public void testEnded() {
+		testEnded("local"); // $NON-NLS-1$
+	}
+
+	public synchronized void testEnded(String host) {
+		if (--running > 0) {
+			return;
+		}
+		running = 0;
+		if (engines().isEmpty()) {
+			log.info("No latency histograms collected, is mqtt.histogram.snapshot set on the engines?");
+			return;
+		}
+		HistogramMerge merge = new HistogramMerge();
+		for (Map.Entry<String, Snapshot> e : engines().entrySet()) {
+			try {
+				merge.add(e.getValue().dump);
+			} catch (IOException ex) {
+				log.warn("Could not merge the latency histograms of " + e.getKey(), ex);
+			}
+		}
+		ByteArrayOutputStream text = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(text);
+		merge.print(out);
+		out.println("Up to one snapshot interval per engine is missing, merge the mqtt.histogram.file dumps for exact totals");
+		out.flush();
+		log.info(text.toString());
+		String filename = getFilename().trim();
+		if (filename.length() > 0) {
+			try {
+				merge.write(new File(filename));
+				log.info("Wrote the latency histograms of " + merge.getEngines() + " engines to " + filename);
+			} catch (IOException e) {
+				log.warn("Could not write the latency histograms to " + filename, e);
+			}
+		}
+		engines().clear();
+	}
+}
@@ -0,0 +1,175 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.metrics;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.jmeter.protocol.mqttws.stats.LatencyHistogram;
+
+/**
+ * Latency histograms of the samplers of an engine (ack, receive and connection
+ * phases), with their message counts. Dumped at the end of the test when the
+ * <code>mqtt.histogram.file</code> property is set, and sent with the results
+ * as {@link HistogramSnapshot}s, so that the percentiles of several engines can
+ * be merged exactly afterwards ({@link HistogramMerge}) instead of averaging
+ * their summaries.
+ * <pre>
+ * int   magic
+ * UTF   engine (process id@host)
+ * long  time of the dump (msecs)
+ * int   number of samplers, then per sampler:
+ * UTF   name
+ * long  start (msecs), published, acked, received, errors
+ *       ack latency, receive latency histograms (see {@link LatencyHistogram#writeTo(java.io.DataOutput)})
+ * byte  number of connection phases, then per phase: UTF name, histogram
+ * </pre>
+ */
+public class HistogramDump {
+	public static final int MAGIC = 0x4d514831; // MQH1
+
+	public interface Visitor {
+		void sampler(String engine, String name, long start, long end, long published, long acked, long received, long errors,
+				LatencyHistogram ackLatency, LatencyHistogram receiveLatency, Map<String, LatencyHistogram> connectPhases);
+	}
+
+	/**
+	 * @return name of this engine, to tell the dumps of several engines apart
+	 */
+	static String engineName() {
+		return ManagementFactory.getRuntimeMXBean().getName();
+	}
+
+	static void write(File file, Map<String, MqttMetrics> samplers) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp"); // $NON-NLS-1$
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			write(out, samplers);
+		} finally {
+			out.close();
+		}
+		rename(tmp, file);
+	}
+
+	static void rename(File tmp, File file) throws IOException {
+		if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+			throw new IOException("Could not rename " + tmp + " to " + file);
+		}
+	}
+
+	/**
+	 * Write the counters of the samplers as they are now
+	 */
+	static void write(DataOutput out, Map<String, MqttMetrics> samplers) throws IOException {
+		//a copy, as samplers may be added meanwhile
+		List<Map.Entry<String, MqttMetrics>> entries = new ArrayList<Map.Entry<String, MqttMetrics>>(samplers.entrySet());
+		writeHeader(out, engineName(), System.currentTimeMillis(), entries.size());
+		Map<String, LatencyHistogram> phases = new LinkedHashMap<String, LatencyHistogram>();
+		for (Map.Entry<String, MqttMetrics> e : entries) {
+			MqttMetrics m = e.getValue();
+			for (int i = 0; i < MqttMetrics.CONNECT_PHASES.length; i++) {
+				phases.put(MqttMetrics.CONNECT_PHASES[i], m.getConnectPhase(i));
+			}
+			writeSampler(out, e.getKey(), m.getSince(), m.getPublished(), m.getAcked(), m.getReceived(), m.getErrors(),
+					m.getAckLatency(), m.getReceiveLatency(), phases);
+		}
+	}
+
+	static void writeHeader(DataOutput out, String engine, long time, int samplers) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeUTF(engine);
+		out.writeLong(time);
+		out.writeInt(samplers);
+	}
+
+	static void writeSampler(DataOutput out, String name, long start, long published, long acked, long received, long errors,
+			LatencyHistogram ackLatency, LatencyHistogram receiveLatency, Map<String, LatencyHistogram> connectPhases) throws IOException {
+		out.writeUTF(name);
+		out.writeLong(start);
+		out.writeLong(published);
+		out.writeLong(acked);
+		out.writeLong(received);
+		out.writeLong(errors);
+		ackLatency.writeTo(out);
+		receiveLatency.writeTo(out);
+		out.writeByte(connectPhases.size());
+		for (Map.Entry<String, LatencyHistogram> phase : connectPhases.entrySet()) {
+			out.writeUTF(phase.getKey());
+			phase.getValue().writeTo(out);
+		}
+	}
+
+	/**
+	 * @return the number of samplers read
+	 */
+	public static int read(File file, Visitor visitor) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			return read(in, visitor);
+		} catch (IOException e) {
+			throw new IOException(file + ": " + e.getMessage(), e);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @return the number of samplers read
+	 */
+	public static int read(DataInput in, Visitor visitor) throws IOException {
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a histogram dump");
+		}
+		String engine = in.readUTF();
+		long end = in.readLong();
+		int samplers = in.readInt();
+		for (int i = 0; i < samplers; i++) {
+			String name = in.readUTF();
+			long start = in.readLong();
+			long published = in.readLong();
+			long acked = in.readLong();
+			long received = in.readLong();
+			long errors = in.readLong();
+			LatencyHistogram ackLatency = LatencyHistogram.readFrom(in);
+			LatencyHistogram receiveLatency = LatencyHistogram.readFrom(in);
+			Map<String, LatencyHistogram> connectPhases = new LinkedHashMap<String, LatencyHistogram>();
+			for (int p = in.readUnsignedByte(); p > 0; p--) {
+				String phase = in.readUTF();
+				connectPhases.put(phase, LatencyHistogram.readFrom(in));
+			}
+			visitor.sampler(engine, name, start, end, published, acked, received, errors, ackLatency, receiveLatency, connectPhases);
+		}
+		return samplers;
+	}
+}
@@ -0,0 +1,186 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.metrics;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.jmeter.protocol.mqttws.stats.LatencyHistogram;
+
+/**
+ * Merge of the {@link HistogramDump}s of several engines: counts are summed and
+ * histograms added sampler by sampler, so the percentiles are those of all the
+ * messages, not an average of the percentiles of each engine.
+ * <pre>
+ * java -cp mqttws.jar org.apache.jmeter.protocol.mqttws.metrics.HistogramMerge [-o merged-file] dump...
+ * </pre>
+ * Prints the merged counts and percentiles, and writes them as a dump of their
+ * own with -o (read by SweepReport like the dump of a single engine).
+ */
+public class HistogramMerge {
+
+	/**
+	 * Counters of a sampler, summed over the engines
+	 */
+	private static class Totals {
+		long start = Long.MAX_VALUE;
+		long published;
+		long acked;
+		long received;
+		long errors;
+		final LatencyHistogram ackLatency = new LatencyHistogram();
+		final LatencyHistogram receiveLatency = new LatencyHistogram();
+		final Map<String, LatencyHistogram> connectPhases = new LinkedHashMap<String, LatencyHistogram>();
+	}
+
+	private final Map<String, Totals> samplers = new TreeMap<String, Totals>();
+	private final Set<String> engines = new TreeSet<String>();
+	private long end = 0;
+
+	private final HistogramDump.Visitor visitor = new HistogramDump.Visitor() {
+		public void sampler(String engine, String name, long start, long end, long published, long acked, long received, long errors,
+				LatencyHistogram ackLatency, LatencyHistogram receiveLatency, Map<String, LatencyHistogram> connectPhases) {
+			engines.add(engine);
+			HistogramMerge.this.end = Math.max(HistogramMerge.this.end, end);
+			Totals t = samplers.get(name);
+			if (t == null) {
+				t = new Totals();
+				samplers.put(name, t);
+			}
+			t.start = Math.min(t.start, start);
+			t.published += published;
+			t.acked += acked;
+			t.received += received;
+			t.errors += errors;
+			t.ackLatency.add(ackLatency);
+			t.receiveLatency.add(receiveLatency);
+			for (Map.Entry<String, LatencyHistogram> phase : connectPhases.entrySet()) {
+				LatencyHistogram h = t.connectPhases.get(phase.getKey());
+				if (h == null) {
+					h = new LatencyHistogram();
+					t.connectPhases.put(phase.getKey(), h);
+				}
+				h.add(phase.getValue());
+			}
+		}
+	};
+
+	/**
+	 * Add the dump of a file
+	 */
+	public void add(File file) throws IOException {
+		HistogramDump.read(file, visitor);
+	}
+
+	/**
+	 * Add a dump, as written to a snapshot
+	 */
+	public void add(byte[] dump) throws IOException {
+		HistogramDump.read(new DataInputStream(new ByteArrayInputStream(dump)), visitor);
+	}
+
+	/**
+	 * @return the number of engines merged
+	 */
+	public int getEngines() {
+		return engines.size();
+	}
+
+	/**
+	 * @return the number of samplers merged
+	 */
+	public int getSamplers() {
+		return samplers.size();
+	}
+
+	/**
+	 * Write the merged counters as a dump of engine "merged"
+	 */
+	public void write(File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp"); // $NON-NLS-1$
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			HistogramDump.writeHeader(out, "merged", end, samplers.size()); // $NON-NLS-1$
+			for (Map.Entry<String, Totals> e : samplers.entrySet()) {
+				Totals t = e.getValue();
+				HistogramDump.writeSampler(out, e.getKey(), t.start, t.published, t.acked, t.received, t.errors,
+						t.ackLatency, t.receiveLatency, t.connectPhases);
+			}
+		} finally {
+			out.close();
+		}
+		HistogramDump.rename(tmp, file);
+	}
+
+	/**
+	 * Print the merged counts and percentiles, a few lines per sampler
+	 */
+	public void print(PrintStream out) {
+		out.println("Merged " + samplers.size() + " samplers of " + engines.size() + " engines: " + engines);
+		for (Map.Entry<String, Totals> e : samplers.entrySet()) {
+			Totals t = e.getValue();
+			out.println(e.getKey() + ": published " + t.published + ", acked " + t.acked + ", received " + t.received
+					+ ", errors " + t.errors + " in " + Math.max(0, end - t.start) / 1000 + " s");
+			if (t.ackLatency.getCount() > 0) {
+				out.println("  ack " + t.ackLatency.toPercentilesString());
+			}
+			if (t.receiveLatency.getCount() > 0) {
+				out.println("  receive " + t.receiveLatency.toPercentilesString());
+			}
+			for (Map.Entry<String, LatencyHistogram> phase : t.connectPhases.entrySet()) {
+				if (phase.getValue().getCount() > 0) {
+					out.println("  connect " + phase.getKey() + " " + phase.getValue().toPercentilesString());
+				}
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		HistogramMerge merge = new HistogramMerge();
+		File out = null;
+		for (int i = 0; i < args.length; i++) {
+			if ("-o".equals(args[i]) && i + 1 < args.length) {
+				out = new File(args[++i]);
+			} else {
+				merge.add(new File(args[i]));
+			}
+		}
+		if (merge.getEngines() == 0) {
+			System.err.println("Usage: HistogramMerge [-o merged-file] dump...");
+			System.exit(1);
+		}
+		merge.print(System.out);
+		if (out != null) {
+			merge.write(out);
+		}
+	}
+}
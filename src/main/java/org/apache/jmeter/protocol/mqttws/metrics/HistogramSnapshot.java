@@ -0,0 +1,119 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.metrics;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Periodic snapshots of the latency histograms of the engine, sent with the
+ * results. Remote engines only send sample results back to the controller, so
+ * every <code>mqtt.histogram.snapshot</code> seconds the first MQTT sample to
+ * end gets a sub result labelled {@link #LABEL}, whose sampler data is the
+ * {@link HistogramDump} of all the samplers of the engine in base64 (sampler
+ * data is kept by the stripping sample senders, response data is not).
+ * <p>
+ * Snapshots are cumulative since the start of the test: the last one of each
+ * engine is all the {@link HistogramCollector} needs, lost or reordered ones
+ * do not matter.
+ */
+public class HistogramSnapshot {
+	public static final String LABEL = "MQTT histograms"; // $NON-NLS-1$
+	private static final Logger log = LoggingManager.getLoggerForClass();
+	//msecs between snapshots, 0 for none, -1 until read from the property
+	private static volatile long interval = -1;
+	private static final AtomicLong next = new AtomicLong(0);
+
+	/**
+	 * Add a snapshot to the result if one is due
+	 */
+	public static void attach(SampleResult result) {
+		long every = interval;
+		if (every < 0) {
+			every = Math.max(0, JMeterUtils.getPropDefault("mqtt.histogram.snapshot", 0L) * 1000); // $NON-NLS-1$
+			interval = every;
+		}
+		if (every == 0 || MqttMetrics.samplers().isEmpty()) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		long due = next.get();
+		if (now < due || !next.compareAndSet(due, now + every)) {
+			return;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+		try {
+			HistogramDump.write(new DataOutputStream(bytes), MqttMetrics.samplers());
+		} catch (IOException e) {
+			log.warn("Could not snapshot the latency histograms", e);
+			return;
+		}
+		SampleResult sub = new SampleResult();
+		sub.setSampleLabel(LABEL);
+		sub.setStampAndTime(now, 0);
+		sub.setSamplerData(Base64.encodeBase64String(bytes.toByteArray()));
+		sub.setResponseMessage("Latency histograms of " + MqttMetrics.samplers().size() + " samplers");
+		sub.setResponseOK();
+		//addSubResult may stretch the end of the parent
+		long start = result.getStartTime();
+		long end = result.getEndTime();
+		int size = result.getBytes();
+		result.addSubResult(sub);
+		result.setBytes(size);
+		result.setStampAndTime(start, end - start);
+	}
+
+	/**
+	 * @return the snapshot of the result or of one of its sub results, null if none
+	 */
+	public static byte[] find(SampleResult result) {
+		if (LABEL.equals(result.getSampleLabel())) {
+			String data = result.getSamplerData();
+			return (data == null) ? null : Base64.decodeBase64(data);
+		}
+		SampleResult[] subs = result.getSubResults();
+		if (subs != null) {
+			for (SampleResult sub : subs) {
+				byte[] snapshot = find(sub);
+				if (snapshot != null) {
+					return snapshot;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Start again at the next test
+	 */
+	static void reset() {
+		interval = -1;
+		next.set(0);
+	}
+}
@@ -0,0 +1,545 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.metrics;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.jmeter.protocol.mqttws.client.TraceBuffer;
+import org.apache.jmeter.protocol.mqttws.stats.LatencyHistogram;
+import org.apache.jmeter.protocol.mqttws.stats.StripedCounter;
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+/**
+ * Live counters of the clients of a sampler, or of the whole engine,
+ * registered as MBeans under <code>org.apache.jmeter.protocol.mqttws</code>:
+ * <code>type=Engine</code> and <code>type=Sampler,name=...</code>.
+ * <p>
+ * Clients update them from the sampler threads and the Paho callbacks; every
+ * update also goes to the engine counters. Updates are lock free (striped
+ * counters and lock free histograms), only reads compute sums, rates and
+ * percentiles. MBeans are not registered when <code>mqtt.jmx</code> is false.
+ */
+public class MqttMetrics implements MqttMetricsMBean {
+	public static final String DOMAIN = "org.apache.jmeter.protocol.mqttws"; // $NON-NLS-1$
+	//phases of a connection, as measured by ConnectTimer
+	public static final String[] CONNECT_PHASES = { "dns", "tcp", "tls", "ws", "connack" }; // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$ // $NON-NLS-4$ // $NON-NLS-5$
+	private static final Logger log = LoggingManager.getLoggerForClass();
+	private static final boolean JMX = JMeterUtils.getPropDefault("mqtt.jmx", true);
+	private static final MqttMetrics engine = new MqttMetrics(null);
+	private static final AtomicBoolean engineRegistered = new AtomicBoolean(false);
+	private static final ConcurrentHashMap<String, MqttMetrics> samplers = new ConcurrentHashMap<String, MqttMetrics>();
+	//samplers between test start and test end
+	private static int running = 0;
+
+	/**
+	 * Events per second between two reads
+	 */
+	private static class Rate {
+		private long lastCount = 0;
+		private long lastTime = System.nanoTime();
+		private double rate = 0;
+
+		synchronized double get(long count) {
+			long now = System.nanoTime();
+			if (now - lastTime >= 1000000000L) {
+				rate = (count - lastCount) * 1e9 / (now - lastTime);
+				lastCount = count;
+				lastTime = now;
+			}
+			return rate;
+		}
+
+		synchronized void reset() {
+			lastCount = 0;
+			lastTime = System.nanoTime();
+			rate = 0;
+		}
+	}
+
+	private final MqttMetrics parent;
+	private final AtomicLong openConnections = new AtomicLong(0);
+	private final AtomicLong inFlight = new AtomicLong(0);
+	private final StripedCounter reconnects = new StripedCounter();
+	private final StripedCounter connectionsLost = new StripedCounter();
+	private final StripedCounter published = new StripedCounter();
+	private final StripedCounter acked = new StripedCounter();
+	private final StripedCounter received = new StripedCounter();
+	private final StripedCounter errors = new StripedCounter();
+	private final ConcurrentHashMap<Integer, AtomicLong> errorCodes = new ConcurrentHashMap<Integer, AtomicLong>();
+	private final LatencyHistogram ackLatency = new LatencyHistogram();
+	private final LatencyHistogram receiveLatency = new LatencyHistogram();
+	private final LatencyHistogram[] connectPhases = new LatencyHistogram[CONNECT_PHASES.length];
+	private final Rate publishRate = new Rate();
+	private final Rate ackRate = new Rate();
+	private final Rate receiveRate = new Rate();
+	private final long since = System.currentTimeMillis();
+
+	MqttMetrics(MqttMetrics parent) {
+		this.parent = parent;
+		for (int i = 0; i < connectPhases.length; i++) {
+			connectPhases[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * @return counters of all the clients of the engine
+	 */
+	public static MqttMetrics engine() {
+		if (engineRegistered.compareAndSet(false, true)) {
+			register(engine, "type=Engine"); // $NON-NLS-1$
+		}
+		return engine;
+	}
+
+	/**
+	 * @return counters of the clients of the sampler, shared by its threads
+	 */
+	public static MqttMetrics forSampler(String name) {
+		MqttMetrics metrics = samplers.get(name);
+		if (metrics == null) {
+			MqttMetrics created = new MqttMetrics(engine());
+			metrics = samplers.putIfAbsent(name, created);
+			if (metrics == null) {
+				metrics = created;
+				register(metrics, "type=Sampler,name=" + ObjectName.quote(name)); // $NON-NLS-1$
+				OpenMetricsExporter.getInstance();
+				SaturationDetector.getInstance();
+				PahoThreadCpu.getInstance();
+			}
+		}
+		return metrics;
+	}
+
+	/**
+	 * Count a sampler in at test start: the engine wide resources are only
+	 * closed once the last sampler ended.
+	 */
+	public static synchronized void testStarted() {
+		running++;
+	}
+
+	/**
+	 * @return true for the last sampler to end, which has to close the
+	 * engine wide resources
+	 */
+	public static synchronized boolean testEnded() {
+		return running == 0 || --running == 0;
+	}
+
+	/**
+	 * Unregister the sampler MBeans and reset the engine counters, at test end
+	 */
+	public static void closeAll() {
+		//last export, before the counters go
+		String dump = JMeterUtils.getProperty("mqtt.histogram.file"); // $NON-NLS-1$
+		if (dump != null && dump.trim().length() > 0 && !samplers.isEmpty()) {
+			try {
+				HistogramDump.write(new File(dump.trim()), samplers);
+				log.info("Dumped the latency histograms of " + samplers.size() + " samplers to " + dump);
+			} catch (IOException e) {
+				log.warn("Could not dump the latency histograms to " + dump, e);
+			}
+		}
+		OpenMetricsExporter.closeInstance();
+		PahoThreadCpu.closeInstance();
+		SaturationDetector.closeInstance();
+		HistogramSnapshot.reset();
+		Iterator<Map.Entry<String, MqttMetrics>> it = samplers.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, MqttMetrics> e = it.next();
+			unregister("type=Sampler,name=" + ObjectName.quote(e.getKey())); // $NON-NLS-1$
+			it.remove();
+		}
+		engine.reset();
+	}
+
+	/**
+	 * @return the counters of the samplers, by sampler name
+	 */
+	static Map<String, MqttMetrics> samplers() {
+		return samplers;
+	}
+
+	private static void register(MqttMetrics metrics, String keys) {
+		if (!JMX) {
+			return;
+		}
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(DOMAIN + ":" + keys);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(metrics, name);
+		} catch (Exception e) {
+			log.warn("Could not register MQTT metrics " + keys, e);
+		}
+	}
+
+	private static void unregister(String keys) {
+		if (!JMX) {
+			return;
+		}
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(DOMAIN + ":" + keys);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		} catch (Exception e) {
+			log.warn("Could not unregister MQTT metrics " + keys, e);
+		}
+	}
+
+	// ------------------------- Updates, from the clients ---------------------//
+
+	/**
+	 * Count a client connection as open or closed, once whatever the number
+	 * of calls.
+	 *
+	 * @param open state of the client as last counted
+	 * @param connected current state of the client
+	 */
+	public void updateConnection(AtomicBoolean open, boolean connected) {
+		if (connected ? open.compareAndSet(false, true) : open.compareAndSet(true, false)) {
+			addOpenConnections(connected ? 1 : -1);
+		}
+	}
+
+	private void addOpenConnections(long n) {
+		openConnections.addAndGet(n);
+		if (parent != null) {
+			parent.addOpenConnections(n);
+		}
+	}
+
+	public void onReconnect() {
+		reconnects.increment();
+		if (parent != null) {
+			parent.onReconnect();
+		}
+	}
+
+	public void onConnectionLost() {
+		connectionsLost.increment();
+		if (parent != null) {
+			parent.onConnectionLost();
+		}
+	}
+
+	public void onPublished(int qos) {
+		published.increment();
+		if (qos > 0) {
+			inFlight.incrementAndGet();
+		}
+		if (parent != null) {
+			parent.onPublished(qos);
+		}
+	}
+
+	/**
+	 * @param qos quality of service of the message: Paho completes QoS 0
+	 * messages once written, that is no ack and is not counted
+	 * @param latencyMicros time from publish to ack, negative if unknown
+	 */
+	public void onAck(int qos, long latencyMicros) {
+		if (qos == 0) {
+			return;
+		}
+		acked.increment();
+		inFlight.decrementAndGet();
+		if (latencyMicros >= 0) {
+			ackLatency.record(latencyMicros);
+		}
+		if (parent != null) {
+			parent.onAck(qos, latencyMicros);
+		}
+	}
+
+	/**
+	 * Messages that will never be acked (timed out, client closed)
+	 */
+	public void onAbandoned(long messages) {
+		if (messages <= 0) {
+			return;
+		}
+		inFlight.addAndGet(-messages);
+		if (parent != null) {
+			parent.onAbandoned(messages);
+		}
+	}
+
+	/**
+	 * @param latencyMicros time from publish to arrival, negative if unknown
+	 */
+	public void onReceived(long latencyMicros) {
+		received.increment();
+		if (latencyMicros >= 0) {
+			receiveLatency.record(latencyMicros);
+		}
+		if (parent != null) {
+			parent.onReceived(latencyMicros);
+		}
+	}
+
+	public void onError(MqttException e) {
+		onError(e.getReasonCode());
+	}
+
+	public void onError(int reasonCode) {
+		errors.increment();
+		AtomicLong count = errorCodes.get(reasonCode);
+		if (count == null) {
+			AtomicLong created = new AtomicLong(0);
+			count = errorCodes.putIfAbsent(reasonCode, created);
+			if (count == null) {
+				count = created;
+			}
+		}
+		count.incrementAndGet();
+		if (parent != null) {
+			parent.onError(reasonCode);
+		}
+	}
+
+	/**
+	 * @param micros duration of each of the {@link #CONNECT_PHASES} of a
+	 * connection, negative for the phases it did not go through
+	 */
+	public void onConnectPhases(long[] micros) {
+		for (int i = 0; i < connectPhases.length; i++) {
+			if (micros[i] >= 0) {
+				connectPhases[i].record(micros[i]);
+			}
+		}
+		if (parent != null) {
+			parent.onConnectPhases(micros);
+		}
+	}
+
+	void reset() {
+		openConnections.set(0);
+		inFlight.set(0);
+		reconnects.sumThenReset();
+		connectionsLost.sumThenReset();
+		published.sumThenReset();
+		acked.sumThenReset();
+		received.sumThenReset();
+		errors.sumThenReset();
+		errorCodes.clear();
+		resetLatencies();
+		publishRate.reset();
+		ackRate.reset();
+		receiveRate.reset();
+	}
+
+	// ------------------------- MBean ---------------------//
+
+	/**
+	 * @return msecs the counters were created at
+	 */
+	long getSince() {
+		return since;
+	}
+
+	LatencyHistogram getAckLatency() {
+		return ackLatency;
+	}
+
+	LatencyHistogram getReceiveLatency() {
+		return receiveLatency;
+	}
+
+	LatencyHistogram getConnectPhase(int phase) {
+		return connectPhases[phase];
+	}
+
+	/**
+	 * @return errors count by reason code, sorted
+	 */
+	Map<Integer, Long> getErrorCounts() {
+		Map<Integer, Long> counts = new TreeMap<Integer, Long>();
+		for (Map.Entry<Integer, AtomicLong> e : errorCodes.entrySet()) {
+			counts.put(e.getKey(), e.getValue().get());
+		}
+		return counts;
+	}
+
+	public long getOpenConnections() {
+		return openConnections.get();
+	}
+
+	public long getReconnects() {
+		return reconnects.sum();
+	}
+
+	public long getConnectionsLost() {
+		return connectionsLost.sum();
+	}
+
+	public long getInFlight() {
+		return Math.max(0, inFlight.get());
+	}
+
+	public long getPublished() {
+		return published.sum();
+	}
+
+	public long getAcked() {
+		return acked.sum();
+	}
+
+	public long getReceived() {
+		return received.sum();
+	}
+
+	public long getErrors() {
+		return errors.sum();
+	}
+
+	public String getErrorCodes() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<Integer, Long> e : getErrorCounts().entrySet()) {
+			if (sb.length() > 0) {
+				sb.append(", ");
+			}
+			sb.append(e.getKey()).append('=').append(e.getValue());
+		}
+		return sb.toString();
+	}
+
+	public double getPublishRate() {
+		return publishRate.get(getPublished());
+	}
+
+	public double getAckRate() {
+		return ackRate.get(getAcked());
+	}
+
+	public double getReceiveRate() {
+		return receiveRate.get(getReceived());
+	}
+
+	public double getAckLatencyP50() {
+		return millis(ackLatency, 50);
+	}
+
+	public double getAckLatencyP90() {
+		return millis(ackLatency, 90);
+	}
+
+	public double getAckLatencyP99() {
+		return millis(ackLatency, 99);
+	}
+
+	public double getReceiveLatencyP50() {
+		return millis(receiveLatency, 50);
+	}
+
+	public double getReceiveLatencyP90() {
+		return millis(receiveLatency, 90);
+	}
+
+	public double getReceiveLatencyP99() {
+		return millis(receiveLatency, 99);
+	}
+
+	public String getConnectPhases() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < connectPhases.length; i++) {
+			if (connectPhases[i].getCount() > 0) {
+				if (sb.length() > 0) {
+					sb.append("; ");
+				}
+				sb.append(CONNECT_PHASES[i]).append(' ').append(connectPhases[i].toPercentilesString());
+			}
+		}
+		return sb.toString();
+	}
+
+	public String getPahoThreadCpu() {
+		PahoThreadCpu cpu = PahoThreadCpu.peek();
+		return (parent == null && cpu != null) ? cpu.toString() : "";
+	}
+
+	public boolean isGeneratorSaturated() {
+		SaturationDetector detector = SaturationDetector.peek();
+		return detector != null && detector.isSaturated();
+	}
+
+	public long getGeneratorSaturatedSeconds() {
+		SaturationDetector detector = SaturationDetector.peek();
+		return (detector == null) ? 0 : detector.getSaturatedSeconds();
+	}
+
+	public String getGeneratorState() {
+		SaturationDetector detector = SaturationDetector.peek();
+		return (detector == null) ? "" : detector.getState();
+	}
+
+	private static double millis(LatencyHistogram h, double percentile) {
+		return h.getCount() == 0 ? 0 : h.getValueAtPercentile(percentile) / 1000.0;
+	}
+
+	public void resetLatencies() {
+		ackLatency.reset();
+		receiveLatency.reset();
+		for (int i = 0; i < connectPhases.length; i++) {
+			connectPhases[i].reset();
+		}
+	}
+
+	public String dumpTrace(String file) {
+		TraceBuffer trace = TraceBuffer.getInstance();
+		Writer out = null;
+		try {
+			out = new FileWriter(file);
+			trace.dump(out);
+			return "Dumped the trace (" + trace.getRecorded() + " events recorded) to " + file;
+		} catch (IOException e) {
+			return "Could not dump the trace to " + file + ": " + e.getMessage();
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					//nothing more to do
+				}
+			}
+		}
+	}
+}
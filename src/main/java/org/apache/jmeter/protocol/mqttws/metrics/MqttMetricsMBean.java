@@ -0,0 +1,112 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.metrics;
+
+/**
+ * Live counters of the MQTTWS clients, for JConsole, VisualVM or any JMX
+ * client. Latencies are in milliseconds and rates in events per second,
+ * measured between two reads at least a second apart.
+ */
+public interface MqttMetricsMBean {
+
+	long getOpenConnections();
+
+	long getReconnects();
+
+	long getConnectionsLost();
+
+	/**
+	 * @return messages published with QoS 1 or 2 and not acked yet
+	 */
+	long getInFlight();
+
+	long getPublished();
+
+	long getAcked();
+
+	long getReceived();
+
+	long getErrors();
+
+	/**
+	 * @return error count by Paho reason code, e.g. "32103=4, 32104=1"
+	 */
+	String getErrorCodes();
+
+	double getPublishRate();
+
+	double getAckRate();
+
+	double getReceiveRate();
+
+	double getAckLatencyP50();
+
+	double getAckLatencyP90();
+
+	double getAckLatencyP99();
+
+	double getReceiveLatencyP50();
+
+	double getReceiveLatencyP90();
+
+	double getReceiveLatencyP99();
+
+	/**
+	 * @return percentiles of the duration of each connection phase (dns, tcp,
+	 * tls, ws, connack) when mqtt.connect_phases is set
+	 */
+	String getConnectPhases();
+
+	/**
+	 * @return CPU time of the Paho threads of the engine by kind, when
+	 * mqtt.accounting is set; empty for a sampler
+	 */
+	String getPahoThreadCpu();
+
+	/**
+	 * @return whether the load generator itself is the bottleneck now
+	 */
+	boolean isGeneratorSaturated();
+
+	/**
+	 * @return seconds the load generator was saturated during the test
+	 */
+	long getGeneratorSaturatedSeconds();
+
+	/**
+	 * @return send lag, busiest callback thread, gc and cpu readings of the
+	 * load generator, and why it is saturated
+	 */
+	String getGeneratorState();
+
+	/**
+	 * Restart the latency percentiles from now
+	 */
+	void resetLatencies();
+
+	/**
+	 * Write the engine trace buffer (high throughput mode) to a file
+	 *
+	 * @return what was done
+	 */
+	String dumpTrace(String file);
+}
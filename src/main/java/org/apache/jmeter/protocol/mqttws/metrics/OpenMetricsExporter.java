@@ -0,0 +1,311 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+package org.apache.jmeter.protocol.mqttws.metrics;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.apache.jmeter.protocol.mqttws.stats.LatencyHistogram;
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Engine wide export of the {@link MqttMetrics} of the samplers in the
+ * OpenMetrics (Prometheus) text format, enabled by the
+ * <code>mqtt.metrics.file</code> and/or <code>mqtt.metrics.port</code>
+ * properties.
+ * <p>
+ * The file is rewritten every <code>mqtt.metrics.interval</code> msecs and
+ * replaced in one rename, so a reader (node_exporter textfile collector, a
+ * sweep script) never sees half of it. The port serves the same text on
+ * <code>/metrics</code> at each scrape. Every series has a
+ * <code>sampler</code> label; sum them for the engine.
+ */
+public class OpenMetricsExporter {
+	public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8"; // $NON-NLS-1$
+	//histogram bounds, usecs
+	private static final long[] BOUNDS = { 500, 1000, 2500, 5000, 10000, 25000, 50000,
+			100000, 250000, 500000, 1000000, 2500000, 5000000, 10000000 };
+
+	private static final Logger log = LoggingManager.getLoggerForClass();
+	private static OpenMetricsExporter instance = null;
+
+	private final File file;
+	private final Timer timer;
+	private final HttpServer server;
+
+	/**
+	 * @return the exporter of this engine, started on the first call; null if
+	 * neither mqtt.metrics.file nor mqtt.metrics.port is set
+	 */
+	public static synchronized OpenMetricsExporter getInstance() {
+		if (instance == null) {
+			String file = JMeterUtils.getProperty("mqtt.metrics.file"); // $NON-NLS-1$
+			file = (file == null) ? "" : file.trim();
+			int port = JMeterUtils.getPropDefault("mqtt.metrics.port", 0); // $NON-NLS-1$
+			if (file.length() == 0 && port <= 0) {
+				return null;
+			}
+			try {
+				instance = new OpenMetricsExporter(
+						(file.length() == 0) ? null : new File(file),
+						JMeterUtils.getPropDefault("mqtt.metrics.interval", 5000), // $NON-NLS-1$
+						JMeterUtils.getPropDefault("mqtt.metrics.host", "127.0.0.1"), port); // $NON-NLS-1$ // $NON-NLS-2$
+				log.info("Exporting MQTT metrics to " + ((file.length() == 0) ? "" : file + " ")
+						+ ((port <= 0) ? "" : "port " + port));
+			} catch (IOException e) {
+				log.error("Could not start the MQTT metrics exporter", e);
+				return null;
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Write the file one last time and stop serving. The next test gets a new
+	 * exporter.
+	 */
+	public static synchronized void closeInstance() {
+		if (instance != null) {
+			instance.close();
+			instance = null;
+		}
+	}
+
+	/**
+	 * @param file rewritten every interval, null for none
+	 * @param interval msecs between two writes of the file
+	 * @param host address the HTTP endpoint is bound to
+	 * @param port of the HTTP endpoint, 0 for none
+	 */
+	public OpenMetricsExporter(File file, long interval, String host, int port) throws IOException {
+		this.file = file;
+		if (port > 0) {
+			server = HttpServer.create(new InetSocketAddress(host, port), 0);
+			server.createContext("/metrics", new HttpHandler() { // $NON-NLS-1$
+				public void handle(HttpExchange exchange) throws IOException {
+					byte[] body = render().getBytes("UTF-8"); // $NON-NLS-1$
+					exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE); // $NON-NLS-1$
+					exchange.sendResponseHeaders(200, body.length);
+					OutputStream out = exchange.getResponseBody();
+					try {
+						out.write(body);
+					} finally {
+						out.close();
+					}
+				}
+			});
+			server.start();
+		} else {
+			server = null;
+		}
+		if (file != null) {
+			timer = new Timer("mqtt-metrics", true); // $NON-NLS-1$
+			timer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					write();
+				}
+			}, interval, interval);
+		} else {
+			timer = null;
+		}
+	}
+
+	public void close() {
+		if (timer != null) {
+			timer.cancel();
+			write();
+		}
+		if (server != null) {
+			server.stop(0);
+		}
+	}
+
+	/**
+	 * Write to a temporary file next to the target then rename it
+	 */
+	void write() {
+		File tmp = new File(file.getPath() + ".tmp"); // $NON-NLS-1$
+		try {
+			OutputStream out = new FileOutputStream(tmp);
+			try {
+				out.write(render().getBytes("UTF-8")); // $NON-NLS-1$
+			} finally {
+				out.close();
+			}
+			//atomic on POSIX; elsewhere the target has to go first
+			if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+				log.warn("Could not replace " + file);
+			}
+		} catch (IOException e) {
+			log.warn("Could not write MQTT metrics to " + tmp, e);
+		}
+	}
+
+	/**
+	 * @return the OpenMetrics text of all samplers
+	 */
+	public static String render() {
+		Map<String, MqttMetrics> samplers = MqttMetrics.samplers();
+		StringBuilder sb = new StringBuilder(4096);
+		family(sb, "mqtt_connections_open", "gauge", "Open client connections"); // $NON-NLS-1$
+		for (Map.Entry<String, MqttMetrics> e : samplers.entrySet()) {
+			sample(sb, "mqtt_connections_open", e.getKey(), null, e.getValue().getOpenConnections()); // $NON-NLS-1$
+		}
+		family(sb, "mqtt_in_flight", "gauge", "Published messages waiting for an ack"); // $NON-NLS-1$
+		for (Map.Entry<String, MqttMetrics> e : samplers.entrySet()) {
+			sample(sb, "mqtt_in_flight", e.getKey(), null, e.getValue().getInFlight()); // $NON-NLS-1$
+		}
+		family(sb, "mqtt_reconnects", "counter", "Successful reconnections"); // $NON-NLS-1$
+		for (Map.Entry<String, MqttMetrics> e : samplers.entrySet()) {
+			sample(sb, "mqtt_reconnects_total", e.getKey(), null, e.getValue().getReconnects()); // $NON-NLS-1$
+		}
+		family(sb, "mqtt_connections_lost", "counter", "Connections lost"); // $NON-NLS-1$
+		for (Map.Entry<String, MqttMetrics> e : samplers.entrySet()) {
+			sample(sb, "mqtt_connections_lost_total", e.getKey(), null, e.getValue().getConnectionsLost()); // $NON-NLS-1$
+		}
+		family(sb, "mqtt_published", "counter", "Messages published"); // $NON-NLS-1$
+		for (Map.Entry<String, MqttMetrics> e : samplers.entrySet()) {
+			sample(sb, "mqtt_published_total", e.getKey(), null, e.getValue().getPublished()); // $NON-NLS-1$
+		}
+		family(sb, "mqtt_acked", "counter", "Messages acked by the broker"); // $NON-NLS-1$
+		for (Map.Entry<String, MqttMetrics> e : samplers.entrySet()) {
+			sample(sb, "mqtt_acked_total", e.getKey(), null, e.getValue().getAcked()); // $NON-NLS-1$
+		}
+		family(sb, "mqtt_received", "counter", "Messages received"); // $NON-NLS-1$
+		for (Map.Entry<String, MqttMetrics> e : samplers.entrySet()) {
+			sample(sb, "mqtt_received_total", e.getKey(), null, e.getValue().getReceived()); // $NON-NLS-1$
+		}
+		family(sb, "mqtt_errors", "counter", "Client errors by Paho reason code"); // $NON-NLS-1$
+		for (Map.Entry<String, MqttMetrics> e : samplers.entrySet()) {
+			for (Map.Entry<Integer, Long> code : e.getValue().getErrorCounts().entrySet()) {
+				sample(sb, "mqtt_errors_total", e.getKey(), "code=\"" + code.getKey() + "\"", code.getValue()); // $NON-NLS-1$
+			}
+		}
+		family(sb, "mqtt_ack_latency_seconds", "histogram", "Publish to ack time"); // $NON-NLS-1$
+		for (Map.Entry<String, MqttMetrics> e : samplers.entrySet()) {
+			histogram(sb, "mqtt_ack_latency_seconds", e.getKey(), null, e.getValue().getAckLatency()); // $NON-NLS-1$
+		}
+		family(sb, "mqtt_receive_latency_seconds", "histogram", "Publish to receive time"); // $NON-NLS-1$
+		for (Map.Entry<String, MqttMetrics> e : samplers.entrySet()) {
+			histogram(sb, "mqtt_receive_latency_seconds", e.getKey(), null, e.getValue().getReceiveLatency()); // $NON-NLS-1$
+		}
+		family(sb, "mqtt_connect_phase_seconds", "histogram", "Duration of the phases of a connection"); // $NON-NLS-1$
+		for (Map.Entry<String, MqttMetrics> e : samplers.entrySet()) {
+			for (int i = 0; i < MqttMetrics.CONNECT_PHASES.length; i++) {
+				LatencyHistogram h = e.getValue().getConnectPhase(i);
+				if (h.getCount() > 0) {
+					histogram(sb, "mqtt_connect_phase_seconds", e.getKey(), // $NON-NLS-1$
+							"phase=\"" + MqttMetrics.CONNECT_PHASES[i] + "\"", h); // $NON-NLS-1$
+				}
+			}
+		}
+		SaturationDetector detector = SaturationDetector.peek();
+		if (detector != null) {
+			family(sb, "mqtt_generator_saturated", "gauge", "1 while the load generator is the bottleneck"); // $NON-NLS-1$
+			sb.append("mqtt_generator_saturated ").append(detector.isSaturated() ? 1 : 0).append('\n'); // $NON-NLS-1$
+			family(sb, "mqtt_generator_saturated_seconds", "counter", "Time the load generator was the bottleneck"); // $NON-NLS-1$
+			sb.append("mqtt_generator_saturated_seconds_total ").append(detector.getSaturatedSeconds()).append('\n'); // $NON-NLS-1$
+			gauge(sb, "mqtt_generator_send_lag_seconds", "Highest send lag behind schedule over the last second", detector.getSendLag() / 1000); // $NON-NLS-1$
+			gauge(sb, "mqtt_generator_callback_busy_ratio", "Share of a core used by the busiest Paho callback or receiver thread", detector.getCallbackBusy()); // $NON-NLS-1$
+			gauge(sb, "mqtt_generator_gc_ratio", "Share of the time spent in garbage collection", detector.getGc()); // $NON-NLS-1$
+			gauge(sb, "mqtt_generator_cpu_ratio", "Process cpu per core", detector.getCpu()); // $NON-NLS-1$
+		}
+		PahoThreadCpu paho = PahoThreadCpu.peek();
+		if (paho != null) {
+			family(sb, "mqtt_paho_thread_cpu_seconds", "counter", "CPU time of the Paho threads of the engine"); // $NON-NLS-1$
+			long[] cpu = paho.getCpu();
+			for (int i = 0; i < cpu.length; i++) {
+				sb.append("mqtt_paho_thread_cpu_seconds_total{thread=\"").append(PahoThreadCpu.KINDS[i]) // $NON-NLS-1$
+						.append("\"} ").append(seconds(cpu[i] / 1000)).append('\n'); // $NON-NLS-1$
+			}
+		}
+		sb.append("# EOF\n"); // $NON-NLS-1$
+		return sb.toString();
+	}
+
+	private static void family(StringBuilder sb, String name, String type, String help) {
+		sb.append("# TYPE ").append(name).append(' ').append(type).append('\n'); // $NON-NLS-1$
+		sb.append("# HELP ").append(name).append(' ').append(help).append('\n'); // $NON-NLS-1$
+	}
+
+	/**
+	 * Engine wide gauge, left out when unknown (negative)
+	 */
+	private static void gauge(StringBuilder sb, String name, String help, double value) {
+		if (value >= 0) {
+			family(sb, name, "gauge", help); // $NON-NLS-1$
+			sb.append(name).append(' ').append(value).append('\n');
+		}
+	}
+
+	private static void sample(StringBuilder sb, String name, String sampler, String labels, long value) {
+		labels(sb.append(name), sampler, labels).append(' ').append(value).append('\n');
+	}
+
+	private static void histogram(StringBuilder sb, String name, String sampler, String labels, LatencyHistogram h) {
+		String prefix = (labels == null) ? "" : labels + ","; // $NON-NLS-1$
+		long[] cumulative = h.getCumulativeCounts(BOUNDS);
+		for (int i = 0; i < BOUNDS.length; i++) {
+			labels(sb.append(name).append("_bucket"), sampler, prefix + "le=\"" + seconds(BOUNDS[i]) + "\"") // $NON-NLS-1$
+					.append(' ').append(cumulative[i]).append('\n');
+		}
+		long count = cumulative[BOUNDS.length];
+		labels(sb.append(name).append("_bucket"), sampler, prefix + "le=\"+Inf\"").append(' ').append(count).append('\n'); // $NON-NLS-1$
+		labels(sb.append(name).append("_count"), sampler, labels).append(' ').append(count).append('\n'); // $NON-NLS-1$
+		labels(sb.append(name).append("_sum"), sampler, labels).append(' ').append(seconds(h.getSum())).append('\n'); // $NON-NLS-1$
+	}
+
+	private static StringBuilder labels(StringBuilder sb, String sampler, String labels) {
+		sb.append("{sampler=\""); // $NON-NLS-1$
+		for (int i = 0; i < sampler.length(); i++) {
+			char c = sampler.charAt(i);
+			if (c == '\\' || c == '"') {
+				sb.append('\\').append(c);
+			} else if (c == '\n') {
+				sb.append("\\n"); // $NON-NLS-1$
+			} else {
+				sb.append(c);
+			}
+		}
+		sb.append('"');
+		if (labels != null) {
+			sb.append(',').append(labels);
+		}
+		return sb.append('}');
+	}
+
+	private static String seconds(long micros) {
+		return BigDecimal.valueOf(micros, 6).stripTrailingZeros().toPlainString();
+	}
+}
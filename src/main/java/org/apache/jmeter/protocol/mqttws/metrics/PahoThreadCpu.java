@@ -0,0 +1,196 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+package org.apache.jmeter.protocol.mqttws.metrics;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Engine wide CPU time of the Paho client threads, by kind: callback (the
+ * MqttCallback methods of the samplers run there), receiver, sender, ping
+ * and others. Enabled with the per sample accounting
+ * (<code>mqtt.accounting</code>) or the {@link SaturationDetector}, which
+ * watches the busiest thread of each kind.
+ * <p>
+ * Threads are polled every second: Paho threads end with their client, so
+ * the last CPU time seen of a thread that is gone is kept in the totals
+ * (what it used during its last second is missed).
+ */
+public class PahoThreadCpu {
+	public static final String[] KINDS = { "call", "rec", "snd", "ping", "other" }; // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$ // $NON-NLS-4$ // $NON-NLS-5$
+	private static final String[] PREFIXES = { "MQTT Call", "MQTT Rec", "MQTT Snd", "MQTT Ping" }; // $NON-NLS-1$ // $NON-NLS-2$ // $NON-NLS-3$ // $NON-NLS-4$
+	private static final long PERIOD = 1000;
+
+	private static final Logger log = LoggingManager.getLoggerForClass();
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private static PahoThreadCpu instance = null;
+
+	//by thread id: kind, last cpu time seen
+	private final Map<Long, long[]> live = new HashMap<Long, long[]>();
+	private final long[] ended = new long[KINDS.length];
+	//share of a core used by the busiest thread of each kind between the last two polls
+	private final double[] busiest = new double[KINDS.length];
+	private long lastPoll = 0;
+	private final Timer timer;
+
+	/**
+	 * @return the poller of this engine, started on the first call; null if
+	 * neither mqtt.accounting nor mqtt.saturation is set, or thread CPU time
+	 * is not available
+	 */
+	public static synchronized PahoThreadCpu getInstance() {
+		if (instance == null) {
+			if (!(ThreadAccounting.isEnabled() || SaturationDetector.isEnabled()) || !threads.isThreadCpuTimeSupported()) {
+				return null;
+			}
+			instance = new PahoThreadCpu();
+		}
+		return instance;
+	}
+
+	/**
+	 * @return the poller of this engine if started, else null
+	 */
+	static synchronized PahoThreadCpu peek() {
+		return instance;
+	}
+
+	/**
+	 * Log the totals and stop polling. The next test starts from 0.
+	 */
+	public static synchronized void closeInstance() {
+		if (instance != null) {
+			instance.timer.cancel();
+			instance.poll();
+			log.info("CPU time of the Paho threads: " + instance);
+			instance = null;
+		}
+	}
+
+	PahoThreadCpu() {
+		if (!threads.isThreadCpuTimeEnabled()) {
+			threads.setThreadCpuTimeEnabled(true);
+		}
+		timer = new Timer("mqtt-paho-cpu", true); // $NON-NLS-1$
+		timer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				poll();
+			}
+		}, 0, PERIOD);
+	}
+
+	synchronized void poll() {
+		long now = System.nanoTime();
+		long elapsed = (lastPoll == 0) ? 0 : now - lastPoll;
+		lastPoll = now;
+		for (int i = 0; i < busiest.length; i++) {
+			busiest[i] = 0;
+		}
+		ThreadInfo[] infos = threads.getThreadInfo(threads.getAllThreadIds());
+		Set<Long> seen = new HashSet<Long>();
+		for (ThreadInfo info : infos) {
+			if (info == null || !info.getThreadName().startsWith("MQTT ")) { // $NON-NLS-1$
+				continue;
+			}
+			long cpu = threads.getThreadCpuTime(info.getThreadId());
+			if (cpu < 0) {
+				continue;
+			}
+			seen.add(info.getThreadId());
+			long[] last = live.get(info.getThreadId());
+			if (last == null) {
+				live.put(info.getThreadId(), new long[] { kindOf(info.getThreadName()), cpu });
+			} else {
+				if (elapsed > 0) {
+					int kind = (int) last[0];
+					busiest[kind] = Math.max(busiest[kind], (cpu - last[1]) / (double) elapsed);
+				}
+				last[1] = cpu;
+			}
+		}
+		Iterator<Map.Entry<Long, long[]>> it = live.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Long, long[]> e = it.next();
+			if (!seen.contains(e.getKey())) {
+				ended[(int) e.getValue()[0]] += e.getValue()[1];
+				it.remove();
+			}
+		}
+	}
+
+	private static int kindOf(String name) {
+		for (int i = 0; i < PREFIXES.length; i++) {
+			if (name.startsWith(PREFIXES[i])) {
+				return i;
+			}
+		}
+		return KINDS.length - 1;
+	}
+
+	/**
+	 * @return CPU time (nanos) of each of the {@link #KINDS} of threads, as of
+	 * the last poll
+	 */
+	public synchronized long[] getCpu() {
+		long[] cpu = ended.clone();
+		for (long[] thread : live.values()) {
+			cpu[(int) thread[0]] += thread[1];
+		}
+		return cpu;
+	}
+
+	/**
+	 * @param kind index in {@link #KINDS}
+	 * @return share of a core (0 to 1) used by the busiest thread of that
+	 * kind over the last poll period
+	 */
+	public synchronized double getBusiest(int kind) {
+		return busiest[kind];
+	}
+
+	public synchronized int getLiveThreads() {
+		return live.size();
+	}
+
+	/**
+	 * @return "call=1.2 rec=3.4 snd=0.5 ping=0.0 other=0.1 s (n threads)"
+	 */
+	@Override
+	public String toString() {
+		long[] cpu = getCpu();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < KINDS.length; i++) {
+			sb.append(KINDS[i]).append('=').append(Math.round(cpu[i] / 1e7) / 100.0).append(' ');
+		}
+		return sb.append("s (").append(getLiveThreads()).append(" threads)").toString();
+	}
+}
@@ -0,0 +1,294 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+package org.apache.jmeter.protocol.mqttws.metrics;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.threads.JMeterVariables;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Watches the health of the load generator once a second, to tell when it
+ * rather than the broker limits the results. The engine is saturated while
+ * any of these is over its threshold:
+ * <ul>
+ * <li>send lag: how late the clients publish compared to their schedule
+ * (<code>mqtt.saturation.lag</code> msecs, default 50)</li>
+ * <li>callback backlog: share of a core used by the busiest Paho callback or
+ * receiver thread; a thread near 100% cannot keep up with its arrivals and
+ * its queue grows (<code>mqtt.saturation.callback</code> %, default 90)</li>
+ * <li>share of the time spent in garbage collection
+ * (<code>mqtt.saturation.gc</code> %, default 10)</li>
+ * <li>process CPU per core (<code>mqtt.saturation.cpu</code> %, default 90)</li>
+ * </ul>
+ * The state is logged when it changes and summed up at test end; samples
+ * taken while saturated say so in their request data and the
+ * {@link #SATURATED} variable. Enabled by <code>mqtt.saturation=true</code>.
+ */
+public class SaturationDetector {
+	public static final String SATURATED = "mqtt_saturated"; // $NON-NLS-1$
+	private static final long PERIOD = 1000;
+
+	private static final Logger log = LoggingManager.getLoggerForClass();
+	private static final boolean ENABLED = JMeterUtils.getPropDefault("mqtt.saturation", false); // $NON-NLS-1$
+	private static final long MAX_LAG = JMeterUtils.getPropDefault("mqtt.saturation.lag", 50) * 1000000L; // $NON-NLS-1$
+	private static final double MAX_CALLBACK = JMeterUtils.getPropDefault("mqtt.saturation.callback", 90) / 100.0; // $NON-NLS-1$
+	private static final double MAX_GC = JMeterUtils.getPropDefault("mqtt.saturation.gc", 10) / 100.0; // $NON-NLS-1$
+	private static final double MAX_CPU = JMeterUtils.getPropDefault("mqtt.saturation.cpu", 90) / 100.0; // $NON-NLS-1$
+	//highest send lag (nanos) reported since the last check
+	private static final AtomicLong sendLag = new AtomicLong(0);
+	private static volatile SaturationDetector instance = null;
+
+	private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+	private final int cores = Runtime.getRuntime().availableProcessors();
+	private final Timer timer;
+	private long lastCheck;
+	private long lastGc;
+	private long lastCpu;
+	//readings of the last check, negative if unknown
+	private volatile double lag = 0;
+	private volatile double callback = -1;
+	private volatile double gc = 0;
+	private volatile double cpu = -1;
+	private volatile boolean saturated = false;
+	private volatile String reasons = "";
+	private volatile String lastReasons = "";
+	private volatile long firstSaturated = 0;
+	//number of checks that found the engine saturated
+	private final AtomicLong saturatedChecks = new AtomicLong(0);
+
+	public static boolean isEnabled() {
+		return ENABLED;
+	}
+
+	/**
+	 * @return the detector of this engine, started on the first call; null
+	 * unless mqtt.saturation is set
+	 */
+	public static synchronized SaturationDetector getInstance() {
+		if (instance == null && ENABLED) {
+			instance = new SaturationDetector();
+		}
+		return instance;
+	}
+
+	/**
+	 * @return the detector of this engine if started, else null
+	 */
+	public static SaturationDetector peek() {
+		return instance;
+	}
+
+	/**
+	 * Log the verdict for the test and stop watching
+	 */
+	public static synchronized void closeInstance() {
+		if (instance != null) {
+			instance.timer.cancel();
+			log.info(instance.getVerdict());
+			instance = null;
+		}
+	}
+
+	/**
+	 * @param nanos how late a message is sent compared to its schedule
+	 */
+	public static void onSendLag(long nanos) {
+		long m = sendLag.get();
+		while (nanos > m && !sendLag.compareAndSet(m, nanos)) {
+			m = sendLag.get();
+		}
+	}
+
+	/**
+	 * @return a mark to give to {@link #annotate} at the end of the sample
+	 */
+	public static long mark() {
+		SaturationDetector d = instance;
+		return (d == null) ? -1 : d.saturatedChecks.get();
+	}
+
+	/**
+	 * Tell whether the engine was saturated during the sample
+	 *
+	 * @param mark returned by {@link #mark} at the start of the sample
+	 */
+	public static void annotate(long mark, SampleResult result) {
+		SaturationDetector d = instance;
+		if (d == null || mark < 0) {
+			return;
+		}
+		boolean during = d.saturated || d.saturatedChecks.get() > mark;
+		JMeterVariables vars = JMeterContextService.getContext().getVariables();
+		if (vars != null) {
+			vars.put(SATURATED, Boolean.toString(during));
+		}
+		if (during) {
+			String data = result.getSamplerData();
+			result.setSamplerData(((data == null) ? "" : data + "\n") // $NON-NLS-1$
+					+ "Load generator saturated: " + d.lastReasons);
+		}
+	}
+
+	SaturationDetector() {
+		lastCheck = System.nanoTime();
+		lastGc = gcTime();
+		lastCpu = processCpuTime();
+		timer = new Timer("mqtt-saturation", true); // $NON-NLS-1$
+		timer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				check();
+			}
+		}, PERIOD, PERIOD);
+	}
+
+	synchronized void check() {
+		long now = System.nanoTime();
+		double elapsed = Math.max(1, now - lastCheck);
+		lastCheck = now;
+		long maxLag = sendLag.getAndSet(0);
+		lag = maxLag / 1e6;
+		long gcTime = gcTime();
+		gc = (gcTime - lastGc) * 1e6 / elapsed;
+		lastGc = gcTime;
+		long cpuTime = processCpuTime();
+		cpu = (cpuTime < 0 || lastCpu < 0) ? -1 : (cpuTime - lastCpu) / elapsed / cores;
+		lastCpu = cpuTime;
+		PahoThreadCpu paho = PahoThreadCpu.peek();
+		callback = (paho == null) ? -1 : Math.max(paho.getBusiest(0), paho.getBusiest(1));
+
+		StringBuilder why = new StringBuilder();
+		if (maxLag > MAX_LAG) {
+			reason(why, "send lag " + Math.round(lag) + " ms");
+		}
+		if (callback >= MAX_CALLBACK) {
+			reason(why, "callback thread " + percent(callback) + " busy");
+		}
+		if (gc >= MAX_GC) {
+			reason(why, "gc " + percent(gc) + " of the time");
+		}
+		if (cpu >= MAX_CPU) {
+			reason(why, "cpu " + percent(cpu) + " per core");
+		}
+		boolean isSaturated = why.length() > 0;
+		if (isSaturated) {
+			saturatedChecks.incrementAndGet();
+			lastReasons = why.toString();
+			if (firstSaturated == 0) {
+				firstSaturated = System.currentTimeMillis();
+			}
+			if (!saturated) {
+				log.warn("Load generator saturated: " + why);
+			}
+		} else if (saturated) {
+			log.info("Load generator no longer saturated");
+		}
+		reasons = why.toString();
+		saturated = isSaturated;
+	}
+
+	private static void reason(StringBuilder why, String reason) {
+		if (why.length() > 0) {
+			why.append(", ");
+		}
+		why.append(reason);
+	}
+
+	private static String percent(double share) {
+		return Math.round(share * 100) + "%";
+	}
+
+	private static long gcTime() {
+		long total = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			total += Math.max(0, gc.getCollectionTime());
+		}
+		return total;
+	}
+
+	private long processCpuTime() {
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+		}
+		return -1;
+	}
+
+	public boolean isSaturated() {
+		return saturated;
+	}
+
+	/**
+	 * @return seconds the engine was saturated since the test started
+	 */
+	public long getSaturatedSeconds() {
+		return saturatedChecks.get() * PERIOD / 1000;
+	}
+
+	public double getSendLag() {
+		return lag;
+	}
+
+	public double getCallbackBusy() {
+		return callback;
+	}
+
+	public double getGc() {
+		return gc;
+	}
+
+	public double getCpu() {
+		return cpu;
+	}
+
+	/**
+	 * @return the readings of the last check and why the engine is saturated
+	 */
+	public String getState() {
+		return (saturated ? "SATURATED (" + reasons + ")" : "ok")
+				+ ": send lag " + Math.round(lag) + " ms"
+				+ ", callback " + ((callback < 0) ? "?" : percent(callback))
+				+ ", gc " + percent(gc)
+				+ ", cpu " + ((cpu < 0) ? "?" : percent(cpu)) + " per core";
+	}
+
+	/**
+	 * @return whether results of the test can be trusted to measure the broker
+	 */
+	public String getVerdict() {
+		if (firstSaturated == 0) {
+			return "Load generator never saturated: results measure the broker";
+		}
+		return "Load generator saturated for " + getSaturatedSeconds() + " s, first at "
+				+ new SimpleDateFormat("HH:mm:ss").format(new Date(firstSaturated)) // $NON-NLS-1$
+				+ " (last: " + lastReasons + "): results may measure the generator";
+	}
+}
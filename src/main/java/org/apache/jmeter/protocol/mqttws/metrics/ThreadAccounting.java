@@ -0,0 +1,98 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+package org.apache.jmeter.protocol.mqttws.metrics;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.threads.JMeterVariables;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.util.JMeterUtils;
+
+/**
+ * CPU time and bytes allocated by a sampler thread during a sample, enabled
+ * by the <code>mqtt.accounting</code> property.
+ * <p>
+ * They are put in the {@link #CPU_NS} and {@link #ALLOC_BYTES} variables
+ * (add them to <code>sample_variables</code> to save them with the results)
+ * and in the request data. Allocations are only known on JVMs with the
+ * com.sun.management extension of {@link ThreadMXBean}.
+ */
+public class ThreadAccounting {
+	public static final String CPU_NS = "mqtt_cpu_ns"; // $NON-NLS-1$
+	public static final String ALLOC_BYTES = "mqtt_alloc_bytes"; // $NON-NLS-1$
+
+	private static final boolean ENABLED = JMeterUtils.getPropDefault("mqtt.accounting", false); // $NON-NLS-1$
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private static final com.sun.management.ThreadMXBean allocations =
+			(threads instanceof com.sun.management.ThreadMXBean) ? (com.sun.management.ThreadMXBean) threads : null;
+
+	private long cpu;
+	private long allocated;
+
+	/**
+	 * @return the accounting of a sampler, used by one thread; null if
+	 * mqtt.accounting is not set
+	 */
+	public static ThreadAccounting create() {
+		return ENABLED ? new ThreadAccounting() : null;
+	}
+
+	public static boolean isEnabled() {
+		return ENABLED;
+	}
+
+	/**
+	 * Start counting for the sample about to be taken
+	 */
+	public void start() {
+		cpu = cpuTime();
+		allocated = allocatedBytes();
+	}
+
+	/**
+	 * Report what the current thread used since {@link #start}
+	 */
+	public void stop(SampleResult result) {
+		long usedCpu = (cpu < 0) ? -1 : cpuTime() - cpu;
+		long usedBytes = (allocated < 0) ? -1 : allocatedBytes() - allocated;
+		JMeterVariables vars = JMeterContextService.getContext().getVariables();
+		if (vars != null) {
+			vars.put(CPU_NS, Long.toString(usedCpu));
+			vars.put(ALLOC_BYTES, Long.toString(usedBytes));
+		}
+		String data = result.getSamplerData();
+		result.setSamplerData(((data == null) ? "" : data + "\n") // $NON-NLS-1$
+				+ "Sampler thread: " + ((usedCpu < 0) ? "?" : Math.round(usedCpu / 100000.0) / 10.0) + " ms cpu, "
+				+ ((usedBytes < 0) ? "?" : Long.toString(usedBytes)) + " bytes allocated");
+	}
+
+	private static long cpuTime() {
+		return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : -1;
+	}
+
+	private static long allocatedBytes() {
+		if (allocations == null || !allocations.isThreadAllocatedMemorySupported()) {
+			return -1;
+		}
+		return allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
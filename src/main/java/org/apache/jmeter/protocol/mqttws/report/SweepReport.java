@@ -0,0 +1,471 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.report;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.jmeter.protocol.mqttws.journal.MessageJournal;
+import org.apache.jmeter.protocol.mqttws.journal.ResultReader;
+import org.apache.jmeter.protocol.mqttws.journal.ResultWriter;
+import org.apache.jmeter.protocol.mqttws.metrics.HistogramDump;
+import org.apache.jmeter.protocol.mqttws.metrics.HistogramSnapshot;
+import org.apache.jmeter.protocol.mqttws.stats.LatencyHistogram;
+
+/**
+ * Offline report of a sweep of test runs, read in one pass.
+ * <pre>
+ * java -cp mqttws.jar org.apache.jmeter.protocol.mqttws.report.SweepReport [-interval secs] [-out dir] file-or-directory...
+ * </pre>
+ * Reads JMeter CSV results files (with a header line), binary message results
+ * (<code>mqtt.results.file</code>) and histogram dumps (<code>mqtt.histogram.file</code>)
+ * of several engines, told apart by their content, and prints as tab separated values:
+ * <ul>
+ * <li>summary: per sweep point and group, the messages (samples for CSV files), failures,
+ * bytes, rate and latency percentiles. Groups are the labels of CSV files, the kind,
+ * QoS and retain flag of binary results and the samplers of histogram dumps, merged
+ * across engines.</li>
+ * <li>series (with -out only): per sweep point, series and interval, the rate and latency
+ * percentiles. Series are the labels of CSV files and the kind of binary results.</li>
+ * </ul>
+ * The sweep point of a file is its name without its extension and its first word:
+ * result.1000.1.true.jtl and histograms.1000.1.true.bin both belong to 1000.1.true.
+ * All the files of a point are read before the next point is, so memory depends on the
+ * number of groups and intervals of one point, not on the number of points or records.
+ */
+public class SweepReport {
+	private static final String[] KINDS = {"?", "published", "received"};
+
+	/**
+	 * Counters and latencies of a group of messages
+	 */
+	private static class Stats {
+		long messages;
+		long failed;
+		long bytes;
+		long first = Long.MAX_VALUE;
+		long last = Long.MIN_VALUE;
+		final LatencyHistogram latency = new LatencyHistogram();
+
+		void add(long time, long latency, long size, boolean ok) {
+			messages++;
+			if (!ok) {
+				failed++;
+			}
+			bytes += size;
+			first = Math.min(first, time);
+			last = Math.max(last, time);
+			if (latency >= 0) {
+				this.latency.record(latency);
+			}
+		}
+
+		void add(long messages, long failed, long start, long end, LatencyHistogram latency) {
+			this.messages += messages;
+			this.failed += failed;
+			first = Math.min(first, start);
+			last = Math.max(last, end);
+			this.latency.add(latency);
+		}
+
+		String rate(long duration) {
+			return format(messages * 1000.0 / Math.max(1, duration));
+		}
+
+		String percentiles() {
+			if (latency.getCount() == 0) {
+				return "\t\t\t\t";
+			}
+			return millis(latency.getValueAtPercentile(50)) + "\t" + millis(latency.getValueAtPercentile(90))
+					+ "\t" + millis(latency.getValueAtPercentile(99)) + "\t" + millis(latency.getValueAtPercentile(99.9))
+					+ "\t" + millis(latency.getMax());
+		}
+	}
+
+	private final long interval;
+	private final PrintStream summary;
+	private final PrintStream series;
+	//of the point being read: by source and group, by series and interval
+	private final Map<String, Stats> groups = new TreeMap<String, Stats>();
+	private final Map<String, TreeMap<Long, Stats>> timeSeries = new TreeMap<String, TreeMap<Long, Stats>>();
+	private long skipped = 0;
+
+	/**
+	 * @param interval msecs per line of the series
+	 * @param series where the series go, null for none
+	 */
+	public SweepReport(long interval, PrintStream summary, PrintStream series) {
+		this.interval = Math.max(1, interval);
+		this.summary = summary;
+		this.series = series;
+		summary.println("point\tsource\tgroup\tmessages\tfailed\tbytes\tseconds\tmsg/s\tmean\tp50\tp90\tp99\tp99.9\tmax");
+		if (series != null) {
+			series.println("point\tseries\tsecond\tmessages\tfailed\tmsg/s\tp50\tp90\tp99\tp99.9\tmax");
+		}
+	}
+
+	/**
+	 * Read all files, one sweep point after the other
+	 */
+	public void report(List<File> files) throws IOException {
+		TreeMap<String, List<File>> points = new TreeMap<String, List<File>>(new PointOrder());
+		for (File f : files) {
+			String point = pointOf(f);
+			List<File> pointFiles = points.get(point);
+			if (pointFiles == null) {
+				pointFiles = new ArrayList<File>();
+				points.put(point, pointFiles);
+			}
+			pointFiles.add(f);
+		}
+		for (Map.Entry<String, List<File>> e : points.entrySet()) {
+			for (File f : e.getValue()) {
+				read(f);
+			}
+			print(e.getKey());
+			groups.clear();
+			timeSeries.clear();
+		}
+		if (skipped > 0) {
+			System.err.println("Skipped " + skipped + " lines that are not results");
+		}
+	}
+
+	private static int magic(File f) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(f));
+		try {
+			return in.readInt();
+		} catch (IOException e) {
+			return 0;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @return the name of a file without its extension and its first word,
+	 *         and without the number of a binary results file after the first
+	 */
+	static String pointOf(File f) throws IOException {
+		String name = f.getName();
+		int dot = name.lastIndexOf('.');
+		if (dot > 0 && name.substring(dot + 1).matches("\\d+") && magic(f) == ResultWriter.MAGIC // $NON-NLS-1$
+				&& new File(f.getParentFile(), name.substring(0, dot)).exists()) {
+			name = name.substring(0, dot);
+		}
+		dot = name.lastIndexOf('.');
+		if (dot > 0) {
+			name = name.substring(0, dot);
+		}
+		dot = name.indexOf('.');
+		if (dot > 0) {
+			name = name.substring(dot + 1);
+		}
+		return name;
+	}
+
+	private void read(File f) throws IOException {
+		int magic = magic(f);
+		if (magic == ResultWriter.MAGIC) {
+			readResults(f);
+		} else if (magic == HistogramDump.MAGIC) {
+			readHistograms(f);
+		} else if (magic == MessageJournal.MAGIC || f.getName().endsWith(MessageJournal.NAMES_SUFFIX)) {
+			//nothing to report
+		} else if (!readCsv(f)) {
+			System.err.println("Skipped " + f + ": not a results file");
+		}
+	}
+
+	private Stats group(String source, String group) {
+		String key = source + "\t" + group;
+		Stats s = groups.get(key);
+		if (s == null) {
+			s = new Stats();
+			groups.put(key, s);
+		}
+		return s;
+	}
+
+	private Stats interval(String name, long time) {
+		TreeMap<Long, Stats> intervals = timeSeries.get(name);
+		if (intervals == null) {
+			intervals = new TreeMap<Long, Stats>();
+			timeSeries.put(name, intervals);
+		}
+		Long start = Long.valueOf(time - time % interval);
+		Stats s = intervals.get(start);
+		if (s == null) {
+			s = new Stats();
+			intervals.put(start, s);
+		}
+		return s;
+	}
+
+	private void readResults(File f) throws IOException {
+		//by kind, qos and retain flag
+		final Stats[] breakdown = new Stats[KINDS.length * 3 * 2];
+		final Stats[] kinds = new Stats[KINDS.length];
+		for (int k = 0; k < KINDS.length; k++) {
+			kinds[k] = group("results", KINDS[k]);
+			for (int q = 0; q < 3; q++) {
+				breakdown[(k * 3 + q) * 2] = group("results", KINDS[k] + " qos=" + q);
+				breakdown[(k * 3 + q) * 2 + 1] = group("results", KINDS[k] + " qos=" + q + " retained");
+			}
+		}
+		final boolean withSeries = series != null;
+		ResultReader.readSegment(f, new ResultReader.Visitor() {
+			public void record(long time, int latency, int size, int sampler, int topic, int msgId, int kind, int qos, int status, int flags) {
+				boolean ok = status == ResultWriter.OK;
+				int k = (kind > 0 && kind < KINDS.length) ? kind : 0;
+				kinds[k].add(time, latency, size, ok);
+				breakdown[(k * 3 + Math.min(Math.max(qos, 0), 2)) * 2 + (flags & ResultWriter.RETAINED)].add(time, latency, size, ok);
+				if (withSeries) {
+					interval(KINDS[k], time).add(time, latency, size, ok);
+				}
+			}
+		});
+	}
+
+	private void readHistograms(File f) throws IOException {
+		HistogramDump.read(f, new HistogramDump.Visitor() {
+			public void sampler(String engine, String name, long start, long end, long published, long acked, long received, long errors,
+					LatencyHistogram ackLatency, LatencyHistogram receiveLatency, Map<String, LatencyHistogram> connectPhases) {
+				if (published > 0 || acked > 0) {
+					group("histograms", name + " acked").add(acked, errors, start, end, ackLatency);
+				}
+				if (received > 0) {
+					group("histograms", name + " received").add(received, 0, start, end, receiveLatency);
+				}
+				for (Map.Entry<String, LatencyHistogram> phase : connectPhases.entrySet()) {
+					LatencyHistogram h = phase.getValue();
+					if (h.getCount() > 0) {
+						group("histograms", name + " connect " + phase.getKey()).add(h.getCount(), 0, start, end, h);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return false if the file is not a CSV results file
+	 */
+	private boolean readCsv(File f) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"), 1 << 16); // $NON-NLS-1$
+		try {
+			String header = in.readLine();
+			if (header == null || !header.startsWith("timeStamp,")) { // $NON-NLS-1$
+				return false;
+			}
+			List<String> columns = Arrays.asList(header.split(",")); // $NON-NLS-1$
+			int timeStamp = columns.indexOf("timeStamp"); // $NON-NLS-1$
+			int elapsed = columns.indexOf("elapsed"); // $NON-NLS-1$
+			int label = columns.indexOf("label"); // $NON-NLS-1$
+			int success = columns.indexOf("success"); // $NON-NLS-1$
+			int bytes = columns.indexOf("bytes"); // $NON-NLS-1$
+			if (elapsed < 0) {
+				return false;
+			}
+			List<String> fields = new ArrayList<String>(columns.size());
+			String line;
+			while ((line = in.readLine()) != null) {
+				//a quoted field may go on over several lines
+				while (!split(line, fields)) {
+					String next = in.readLine();
+					if (next == null) {
+						break;
+					}
+					line = line + "\n" + next;
+				}
+				try {
+					long time = Long.parseLong(fields.get(timeStamp));
+					long latency = Long.parseLong(fields.get(elapsed)) * 1000;
+					String group = (label >= 0) ? fields.get(label) : "all";
+					if (HistogramSnapshot.LABEL.equals(group)) {
+						//histogram snapshots for the collector, not messages
+						continue;
+					}
+					boolean ok = success < 0 || "true".equalsIgnoreCase(fields.get(success)); // $NON-NLS-1$
+					long size = (bytes >= 0) ? Long.parseLong(fields.get(bytes)) : 0;
+					group("jtl", group).add(time, latency, size, ok);
+					if (series != null) {
+						interval(group, time).add(time, latency, size, ok);
+					}
+				} catch (NumberFormatException e) {
+					skipped++;
+				} catch (IndexOutOfBoundsException e) {
+					skipped++;
+				}
+			}
+			return true;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Split a CSV line, with fields quoted by JMeter when needed
+	 *
+	 * @return false if a quoted field is not closed by the end of the line
+	 */
+	static boolean split(String line, List<String> fields) {
+		fields.clear();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c != '"') {
+					field.append(c);
+				} else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					field.append('"');
+					i++;
+				} else {
+					quoted = false;
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		fields.add(field.toString());
+		return !quoted;
+	}
+
+	private void print(String point) {
+		for (Map.Entry<String, Stats> e : groups.entrySet()) {
+			Stats s = e.getValue();
+			if (s.messages == 0) {
+				continue;
+			}
+			long duration = s.last - s.first;
+			summary.println(point + "\t" + e.getKey() + "\t" + s.messages + "\t" + s.failed + "\t" + s.bytes + "\t"
+					+ format(duration / 1000.0) + "\t" + s.rate(duration) + "\t"
+					+ ((s.latency.getCount() > 0) ? millis(Math.round(s.latency.getMean())) : "") + "\t" + s.percentiles());
+		}
+		if (series == null || timeSeries.isEmpty()) {
+			return;
+		}
+		long start = Long.MAX_VALUE;
+		for (TreeMap<Long, Stats> intervals : timeSeries.values()) {
+			start = Math.min(start, intervals.firstKey().longValue());
+		}
+		for (Map.Entry<String, TreeMap<Long, Stats>> e : timeSeries.entrySet()) {
+			for (Map.Entry<Long, Stats> i : e.getValue().entrySet()) {
+				Stats s = i.getValue();
+				series.println(point + "\t" + e.getKey() + "\t" + (i.getKey().longValue() - start) / 1000 + "\t"
+						+ s.messages + "\t" + s.failed + "\t" + s.rate(interval) + "\t" + s.percentiles());
+			}
+		}
+	}
+
+	private static String millis(long micros) {
+		return format(micros / 1000.0);
+	}
+
+	private static String format(double value) {
+		return String.valueOf(Math.round(value * 1000) / 1000.0);
+	}
+
+	/**
+	 * Sweep points in natural order: numbers between dots compare as numbers
+	 */
+	static class PointOrder implements Comparator<String> {
+		public int compare(String a, String b) {
+			String[] pa = a.split("\\."); // $NON-NLS-1$
+			String[] pb = b.split("\\."); // $NON-NLS-1$
+			for (int i = 0; i < Math.min(pa.length, pb.length); i++) {
+				int c;
+				if (pa[i].matches("\\d{1,18}") && pb[i].matches("\\d{1,18}")) { // $NON-NLS-1$ // $NON-NLS-2$
+					c = Long.valueOf(pa[i]).compareTo(Long.valueOf(pb[i]));
+				} else {
+					c = pa[i].compareTo(pb[i]);
+				}
+				if (c != 0) {
+					return c;
+				}
+			}
+			return pa.length - pb.length;
+		}
+	}
+
+	private static void addFiles(File f, List<File> files) {
+		if (f.isDirectory()) {
+			File[] children = f.listFiles();
+			if (children != null) {
+				Arrays.sort(children);
+				for (File child : children) {
+					addFiles(child, files);
+				}
+			}
+		} else if (f.isFile()) {
+			files.add(f);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		long interval = 10000;
+		File out = null;
+		List<File> files = new ArrayList<File>();
+		for (int i = 0; i < args.length; i++) {
+			if ("-interval".equals(args[i]) && i + 1 < args.length) {
+				interval = Math.round(Double.parseDouble(args[++i]) * 1000);
+			} else if ("-out".equals(args[i]) && i + 1 < args.length) {
+				out = new File(args[++i]);
+			} else {
+				addFiles(new File(args[i]), files);
+			}
+		}
+		if (files.isEmpty()) {
+			System.err.println("Usage: SweepReport [-interval secs] [-out dir] file-or-directory...");
+			System.exit(1);
+		}
+		PrintStream summary = System.out;
+		PrintStream series = null;
+		if (out != null) {
+			out.mkdirs();
+			summary = new PrintStream(new FileOutputStream(new File(out, "summary.tsv")), false, "UTF-8"); // $NON-NLS-1$ // $NON-NLS-2$
+			series = new PrintStream(new FileOutputStream(new File(out, "series.tsv")), false, "UTF-8"); // $NON-NLS-1$ // $NON-NLS-2$
+		}
+		new SweepReport(interval, summary, series).report(files);
+		summary.flush();
+		if (out != null) {
+			summary.close();
+			series.close();
+		}
+	}
+}
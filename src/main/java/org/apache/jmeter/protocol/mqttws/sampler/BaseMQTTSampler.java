@@ -42,6 +42,12 @@ public abstract class BaseMQTTSampler extends AbstractSampler {
 	private static final String PUBLISHER_THROTTLE_DEFAULT = "100"; // $NON-NLS-1$
 	private static final String CLEAN_SESSION="mqtt.clean.session";//$NON-NLS-1$
 	private static final String CLEAN_SESSION_DEFAULT = "false";//$NON-NLS-1$
+	private static final String HIGH_THROUGHPUT = "mqtt.high_throughput"; // $NON-NLS-1$
+	private static final String CONTINUOUS = "mqtt.continuous"; // $NON-NLS-1$
+	private static final String WINDOW = "mqtt.window"; // $NON-NLS-1$
+	private static final String WINDOW_DEFAULT = "1000"; // $NON-NLS-1$
+	private static final String MESSAGE_SAMPLES = "mqtt.message_samples"; // $NON-NLS-1$
+	private static final String MESSAGE_SAMPLES_DEFAULT = "0"; // $NON-NLS-1$
  
    
     /**
@@ -230,6 +236,59 @@ public abstract class BaseMQTTSampler extends AbstractSampler {
 		else 
 			setProperty(CLEAN_SESSION, "false");
 	}
+
+    /**
+     * Set whether per-message diagnostics go to the trace buffer instead of the log
+     *
+     * @param highThroughput
+     */
+	public void setHighThroughput(boolean highThroughput) {
+		setProperty(HIGH_THROUGHPUT, highThroughput);
+	}
+
+	public boolean isHighThroughput() {
+		return "TRUE".equalsIgnoreCase(getPropertyAsString(HIGH_THROUGHPUT));
+	}
+
+    /**
+     * Set whether the sampler keeps its client busy for the whole test and
+     * reports once per window instead of once per batch of messages
+     *
+     * @param continuous
+     */
+	public void setContinuous(boolean continuous) {
+		setProperty(CONTINUOUS, continuous);
+	}
+
+	public boolean isContinuous() {
+		return "TRUE".equalsIgnoreCase(getPropertyAsString(CONTINUOUS));
+	}
+
+    /**
+     * set the length (msecs) of a window in continuous mode
+     *
+     * @param window
+     */
+	public void setWindow(String window) {
+		setProperty(WINDOW, window, WINDOW_DEFAULT);
+	}
+
+	public String getWindow() {
+		return getPropertyAsString(WINDOW, WINDOW_DEFAULT);
+	}
+
+    /**
+     * set N to report one in N messages as sub results of the samples, 0 for none
+     *
+     * @param every
+     */
+	public void setMessageSamples(String every) {
+		setProperty(MESSAGE_SAMPLES, every, MESSAGE_SAMPLES_DEFAULT);
+	}
+
+	public String getMessageSamples() {
+		return getPropertyAsString(MESSAGE_SAMPLES, MESSAGE_SAMPLES_DEFAULT);
+	}
  
 	
 }
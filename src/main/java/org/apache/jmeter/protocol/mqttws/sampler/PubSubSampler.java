@@ -25,7 +25,14 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.jmeter.config.Arguments;
 import org.apache.jmeter.protocol.java.sampler.JavaSamplerContext;
 import org.apache.jmeter.protocol.mqttws.client.MqttPubSub;
+import org.apache.jmeter.protocol.mqttws.client.TraceBuffer;
 import org.apache.jmeter.protocol.mqttws.control.gui.MQTTPubSubGui;
+import org.apache.jmeter.protocol.mqttws.journal.MessageJournal;
+import org.apache.jmeter.protocol.mqttws.journal.ResultWriter;
+import org.apache.jmeter.protocol.mqttws.metrics.HistogramSnapshot;
+import org.apache.jmeter.protocol.mqttws.metrics.MqttMetrics;
+import org.apache.jmeter.protocol.mqttws.metrics.SaturationDetector;
+import org.apache.jmeter.protocol.mqttws.metrics.ThreadAccounting;
 import org.apache.jmeter.samplers.SampleResult;
 import org.apache.jmeter.testelement.TestStateListener;
 import org.apache.jmeter.testelement.ThreadListener;
@@ -43,6 +50,18 @@ public class PubSubSampler extends BaseMQTTSampler implements ThreadListener,Tes
 	private static final String TYPE_FIXED_VALUE = "mqtt.type_fixed_value"; //$NON-NLS-1$
 	private static final String PUBLISHER_ACKS_TIMEOUT = "mqtt.publisher.acks_timeout"; // $NON-NLS-1$
 	private static final String PUBLISHER_ACKS_TIMEOUT_DEFAULT = "5000"; // $NON-NLS-1$
+	private static final String CORRELATE = "mqtt.correlate"; // $NON-NLS-1$
+	private static final String RESPONSE_TOPIC = "mqtt.response_topic"; // $NON-NLS-1$
+	private static final String RESPONSE_TOPIC_DEFAULT = ""; // $NON-NLS-1$
+	private static final String LOOPBACK = "mqtt.loopback"; // $NON-NLS-1$
+	private static final String HEARTBEAT_TOPIC = "mqtt.heartbeat.topic"; // $NON-NLS-1$
+	private static final String HEARTBEAT_TOPIC_DEFAULT = "user/72353640-8f4a-102b-8b12-99c200cfc5b7/device-333/request"; // $NON-NLS-1$
+	private static final String HEARTBEAT_PAYLOAD = "mqtt.heartbeat.payload"; // $NON-NLS-1$
+	private static final String HEARTBEAT_PAYLOAD_DEFAULT = "{  \"type\": \"heartbeat\",  \"id\": \"cor-id-#11\" }"; // $NON-NLS-1$
+	private static final String HEARTBEAT_PERIOD = "mqtt.heartbeat.period"; // $NON-NLS-1$
+	private static final String HEARTBEAT_PERIOD_DEFAULT = "1000"; // $NON-NLS-1$
+	private static final String HEARTBEAT_QOS = "mqtt.heartbeat.qos"; // $NON-NLS-1$
+	private static final String HEARTBEAT_QOS_DEFAULT = "0"; // $NON-NLS-1$
 	private static String CLIENT_ID = "mqtt.clientid"; //$NON-NLS-1$
 	private static final String RETAIN = "mqtt.retain"; //$NON-NLS-1$
 	private static String USE_TIMESTAMP = "mqtt.use_timestamp"; //$NON-NLS-1$
@@ -119,6 +138,83 @@ public class PubSubSampler extends BaseMQTTSampler implements ThreadListener,Tes
 	public String getPublisherAcksTimeout() {
         return getPropertyAsString(PUBLISHER_ACKS_TIMEOUT, PUBLISHER_ACKS_TIMEOUT_DEFAULT);
     }
+
+	/**
+	 * Set whether requests carry a correlation header and wait for their responses
+	 *
+	 * @param correlate
+	 */
+	public void setCorrelate(boolean correlate) {
+		setProperty(CORRELATE, correlate);
+	}
+
+	public boolean isCorrelate() {
+		return "TRUE".equalsIgnoreCase(getPropertyAsString(CORRELATE));
+	}
+
+	public void setResponseTopic(String topic) {
+		setProperty(RESPONSE_TOPIC, topic, RESPONSE_TOPIC_DEFAULT);
+	}
+
+	public String getResponseTopic() {
+		return getPropertyAsString(RESPONSE_TOPIC, RESPONSE_TOPIC_DEFAULT);
+	}
+
+	/**
+	 * Set whether the broker echo of every request is matched to measure the
+	 * publish to delivery latency and the losses of the round trip
+	 *
+	 * @param loopback
+	 */
+	public void setLoopback(boolean loopback) {
+		setProperty(LOOPBACK, loopback);
+	}
+
+	public boolean isLoopback() {
+		return "TRUE".equalsIgnoreCase(getPropertyAsString(LOOPBACK));
+	}
+
+	public void setHeartbeatTopic(String topic) {
+		setProperty(HEARTBEAT_TOPIC, topic, HEARTBEAT_TOPIC_DEFAULT);
+	}
+
+	public String getHeartbeatTopic() {
+		return getPropertyAsString(HEARTBEAT_TOPIC, HEARTBEAT_TOPIC_DEFAULT);
+	}
+
+	/**
+	 * set the heartbeat message, {clientId}, {seq} and {timestamp} are replaced at each beat
+	 *
+	 * @param payload
+	 */
+	public void setHeartbeatPayload(String payload) {
+		setProperty(HEARTBEAT_PAYLOAD, payload, HEARTBEAT_PAYLOAD_DEFAULT);
+	}
+
+	public String getHeartbeatPayload() {
+		return getPropertyAsString(HEARTBEAT_PAYLOAD, HEARTBEAT_PAYLOAD_DEFAULT);
+	}
+
+	/**
+	 * set the time (msecs) between two heartbeats, 0 for none
+	 *
+	 * @param period
+	 */
+	public void setHeartbeatPeriod(String period) {
+		setProperty(HEARTBEAT_PERIOD, period, HEARTBEAT_PERIOD_DEFAULT);
+	}
+
+	public String getHeartbeatPeriod() {
+		return getPropertyAsString(HEARTBEAT_PERIOD, HEARTBEAT_PERIOD_DEFAULT);
+	}
+
+	public void setHeartbeatQoS(String qos) {
+		setProperty(HEARTBEAT_QOS, qos, HEARTBEAT_QOS_DEFAULT);
+	}
+
+	public String getHeartbeatQoS() {
+		return getPropertyAsString(HEARTBEAT_QOS, HEARTBEAT_QOS_DEFAULT);
+	}
 	 
 	public void setOneConnectionPerTopic(boolean oneConnectionPerTopic) {
 
@@ -341,11 +437,22 @@ public class PubSubSampler extends BaseMQTTSampler implements ThreadListener,Tes
 
 	@Override
 	public SampleResult sample() {
+		ThreadAccounting accounting = ThreadAccounting.create();
+		if (accounting != null) {
+			accounting.start();
+		}
+		long saturation = SaturationDetector.mark();
 		//get context just prior to our actual sampling
 		//so that we won't miss any updates by other samplers 
 		//made prior to that point 
 		context = getSamplerContext();
-		return this.producer.runTest(context);
+		SampleResult result = this.producer.runTest(context);
+		if (accounting != null) {
+			accounting.stop(result);
+		}
+		SaturationDetector.annotate(saturation, result);
+		HistogramSnapshot.attach(result);
+		return result;
 	}
 
 	@Override
@@ -354,6 +461,12 @@ public class PubSubSampler extends BaseMQTTSampler implements ThreadListener,Tes
 		if (producer != null) {
 			producer.close(context);
 		}
+		if (MqttMetrics.testEnded()) {
+			TraceBuffer.dumpIfConfigured();
+			ResultWriter.closeInstance();
+			MessageJournal.closeInstance();
+			MqttMetrics.closeAll();
+		}
 	}
 
 	@Override
@@ -362,7 +475,8 @@ public class PubSubSampler extends BaseMQTTSampler implements ThreadListener,Tes
 	}
 
 	@Override
-	public void testStarted() {			
+	public void testStarted() {
+		MqttMetrics.testStarted();
 	}
 
 	@Override
@@ -484,7 +598,26 @@ public class PubSubSampler extends BaseMQTTSampler implements ThreadListener,Tes
 		}else {
 			parameters.addArgument("RANDOM_SUFFIX","FALSE");
 		}
-		
+		if (this.isCorrelate()) {
+			parameters.addArgument("CORRELATE", "TRUE");
+		} else {
+			parameters.addArgument("CORRELATE", "FALSE");
+		}
+		parameters.addArgument("RESPONSE_TOPIC", this.getResponseTopic());
+		if (this.isLoopback()) {
+			parameters.addArgument("LOOPBACK", "TRUE");
+		} else {
+			parameters.addArgument("LOOPBACK", "FALSE");
+		}
+		parameters.addArgument("HEARTBEAT_TOPIC", this.getHeartbeatTopic());
+		parameters.addArgument("HEARTBEAT_PAYLOAD", this.getHeartbeatPayload());
+		parameters.addArgument("HEARTBEAT_PERIOD", this.getHeartbeatPeriod());
+		parameters.addArgument("HEARTBEAT_QOS", this.getHeartbeatQoS());
+		if (this.isHighThroughput()) {
+			parameters.addArgument("HIGH_THROUGHPUT", "TRUE");
+		} else {
+			parameters.addArgument("HIGH_THROUGHPUT", "FALSE");
+		}
 		return new JavaSamplerContext(parameters);
 	}
 
@@ -25,7 +25,14 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.jmeter.config.Arguments;
 import org.apache.jmeter.protocol.java.sampler.JavaSamplerContext;
 import org.apache.jmeter.protocol.mqttws.client.MqttPublisher;
+import org.apache.jmeter.protocol.mqttws.client.TraceBuffer;
 import org.apache.jmeter.protocol.mqttws.control.gui.MQTTPublisherGui;
+import org.apache.jmeter.protocol.mqttws.journal.MessageJournal;
+import org.apache.jmeter.protocol.mqttws.journal.ResultWriter;
+import org.apache.jmeter.protocol.mqttws.metrics.HistogramSnapshot;
+import org.apache.jmeter.protocol.mqttws.metrics.MqttMetrics;
+import org.apache.jmeter.protocol.mqttws.metrics.SaturationDetector;
+import org.apache.jmeter.protocol.mqttws.metrics.ThreadAccounting;
 import org.apache.jmeter.samplers.SampleResult;
 import org.apache.jmeter.testelement.TestStateListener;
 import org.apache.jmeter.testelement.ThreadListener;
@@ -43,6 +50,10 @@ public class PublisherSampler extends BaseMQTTSampler implements ThreadListener,
 	private static final String TYPE_FIXED_VALUE = "mqtt.type_fixed_value"; //$NON-NLS-1$
 	private static final String PUBLISHER_ACKS_TIMEOUT = "mqtt.publisher.acks_timeout"; // $NON-NLS-1$
 	private static final String PUBLISHER_ACKS_TIMEOUT_DEFAULT = "5000"; // $NON-NLS-1$
+	private static final String PUBLISHER_RATE = "mqtt.publisher.rate"; // $NON-NLS-1$
+	private static final String PUBLISHER_RATE_DEFAULT = "100"; // $NON-NLS-1$
+	private static final String INTENDED_TIME = "mqtt.publisher.intended_time"; // $NON-NLS-1$
+	private static final String BACKFILL = "mqtt.publisher.backfill"; // $NON-NLS-1$
 	private static String CLIENT_ID = "mqtt.clientid"; //$NON-NLS-1$
 	private static final String RETAIN = "mqtt.retain"; //$NON-NLS-1$
 	private static String USE_TIMESTAMP = "mqtt.use_timestamp"; //$NON-NLS-1$
@@ -119,6 +130,48 @@ public class PublisherSampler extends BaseMQTTSampler implements ThreadListener,
 	public String getPublisherAcksTimeout() {
         return getPropertyAsString(PUBLISHER_ACKS_TIMEOUT, PUBLISHER_ACKS_TIMEOUT_DEFAULT);
     }
+
+	/**
+	 * set the number of messages per second sent in continuous mode
+	 *
+	 * @param rate
+	 */
+	public void setPublisherRate(String rate) {
+	    	setProperty(PUBLISHER_RATE, rate, PUBLISHER_RATE_DEFAULT);
+	}
+
+	public String getPublisherRate() {
+        return getPropertyAsString(PUBLISHER_RATE, PUBLISHER_RATE_DEFAULT);
+    }
+
+	/**
+	 * set whether latencies start at the scheduled send time of a message in
+	 * continuous mode, rather than when it was actually sent
+	 *
+	 * @param intendedTime
+	 */
+	public void setIntendedTime(boolean intendedTime) {
+		setProperty(INTENDED_TIME, intendedTime);
+	}
+
+	public boolean isIntendedTime() {
+		return "TRUE".equalsIgnoreCase(getPropertyAsString(INTENDED_TIME));
+	}
+
+	/**
+	 * set whether the sends dropped when a stall puts a continuous publisher
+	 * more than a window behind its schedule are recorded with their send
+	 * lag, one interval less each
+	 *
+	 * @param backfill
+	 */
+	public void setBackfill(boolean backfill) {
+		setProperty(BACKFILL, backfill);
+	}
+
+	public boolean isBackfill() {
+		return "TRUE".equalsIgnoreCase(getPropertyAsString(BACKFILL));
+	}
 	 
 	public void setOneConnectionPerTopic(boolean oneConnectionPerTopic) {
 
@@ -341,11 +394,22 @@ public class PublisherSampler extends BaseMQTTSampler implements ThreadListener,
 
 	@Override
 	public SampleResult sample() {
+		ThreadAccounting accounting = ThreadAccounting.create();
+		if (accounting != null) {
+			accounting.start();
+		}
+		long saturation = SaturationDetector.mark();
 		//get context just prior to our actual sampling
 		//so that we won't miss any updates by other samplers 
 		//made prior to that point 
 		context = getSamplerContext();
-		return this.producer.runTest(context);
+		SampleResult result = this.producer.runTest(context);
+		if (accounting != null) {
+			accounting.stop(result);
+		}
+		SaturationDetector.annotate(saturation, result);
+		HistogramSnapshot.attach(result);
+		return result;
 	}
 
 	@Override
@@ -354,6 +418,12 @@ public class PublisherSampler extends BaseMQTTSampler implements ThreadListener,
 		if (producer != null) {
 			producer.cleanUpOnTestEnd(context);
 		}
+		if (MqttMetrics.testEnded()) {
+			TraceBuffer.dumpIfConfigured();
+			ResultWriter.closeInstance();
+			MessageJournal.closeInstance();
+			MqttMetrics.closeAll();
+		}
 	}
 
 	@Override
@@ -362,7 +432,8 @@ public class PublisherSampler extends BaseMQTTSampler implements ThreadListener,
 	}
 
 	@Override
-	public void testStarted() {			
+	public void testStarted() {
+		MqttMetrics.testStarted();
 	}
 
 	@Override
@@ -484,7 +555,29 @@ public class PublisherSampler extends BaseMQTTSampler implements ThreadListener,
 		}else {
 			parameters.addArgument("RANDOM_SUFFIX","FALSE");
 		}
-		
+		if (this.isContinuous()) {
+			parameters.addArgument("CONTINUOUS", "TRUE");
+		} else {
+			parameters.addArgument("CONTINUOUS", "FALSE");
+		}
+		parameters.addArgument("WINDOW", this.getWindow());
+		parameters.addArgument("PUBLISHER_RATE", this.getPublisherRate());
+		if (this.isIntendedTime()) {
+			parameters.addArgument("INTENDED_TIME", "TRUE");
+		} else {
+			parameters.addArgument("INTENDED_TIME", "FALSE");
+		}
+		if (this.isBackfill()) {
+			parameters.addArgument("BACKFILL", "TRUE");
+		} else {
+			parameters.addArgument("BACKFILL", "FALSE");
+		}
+		if (this.isHighThroughput()) {
+			parameters.addArgument("HIGH_THROUGHPUT", "TRUE");
+		} else {
+			parameters.addArgument("HIGH_THROUGHPUT", "FALSE");
+		}
+		parameters.addArgument("MESSAGE_SAMPLES", this.getMessageSamples());
 		return new JavaSamplerContext(parameters);
 	}
 
@@ -0,0 +1,139 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.sampler;
+
+import org.apache.jmeter.config.Arguments;
+import org.apache.jmeter.protocol.mqttws.client.MqttResponder;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Subscriber that replies to every request it receives, see {@link MqttResponder}
+ */
+public class ResponderSampler extends SubscriberSampler {
+
+	private static final long serialVersionUID = 240L;
+	private static final Logger log = LoggingManager.getLoggerForClass();
+	private static final String REQUEST_SUFFIX = "mqtt.responder.request_suffix"; // $NON-NLS-1$
+	private static final String REQUEST_SUFFIX_DEFAULT = "/request"; // $NON-NLS-1$
+	private static final String RESPONSE_SUFFIX = "mqtt.responder.response_suffix"; // $NON-NLS-1$
+	private static final String RESPONSE_SUFFIX_DEFAULT = "/response"; // $NON-NLS-1$
+	private static final String REPLY_DELAY = "mqtt.responder.delay"; // $NON-NLS-1$
+	private static final String REPLY_DELAY_DEFAULT = "0"; // $NON-NLS-1$
+	private static final String REPLY_CONCURRENCY = "mqtt.responder.concurrency"; // $NON-NLS-1$
+	private static final String REPLY_CONCURRENCY_DEFAULT = "1"; // $NON-NLS-1$
+	private static final String REPLY_QOS = "mqtt.responder.qos"; // $NON-NLS-1$
+	private static final String REPLY_QOS_DEFAULT = "0"; // $NON-NLS-1$
+	private static final String REPLY_MESSAGE = "mqtt.responder.message"; // $NON-NLS-1$
+	private static final String REPLY_MESSAGE_DEFAULT = ""; // $NON-NLS-1$
+
+	public ResponderSampler() {
+		super();
+	}
+
+	public void setRequestSuffix(String suffix) {
+		setProperty(REQUEST_SUFFIX, suffix, REQUEST_SUFFIX_DEFAULT);
+	}
+
+	public String getRequestSuffix() {
+		return getPropertyAsString(REQUEST_SUFFIX, REQUEST_SUFFIX_DEFAULT);
+	}
+
+	public void setResponseSuffix(String suffix) {
+		setProperty(RESPONSE_SUFFIX, suffix, RESPONSE_SUFFIX_DEFAULT);
+	}
+
+	public String getResponseSuffix() {
+		return getPropertyAsString(RESPONSE_SUFFIX, RESPONSE_SUFFIX_DEFAULT);
+	}
+
+	/**
+	 * set the time (msecs) a reply is delayed, to simulate processing
+	 *
+	 * @param delay
+	 */
+	public void setReplyDelay(String delay) {
+		setProperty(REPLY_DELAY, delay, REPLY_DELAY_DEFAULT);
+	}
+
+	public String getReplyDelay() {
+		return getPropertyAsString(REPLY_DELAY, REPLY_DELAY_DEFAULT);
+	}
+
+	/**
+	 * set the number of threads sending delayed replies
+	 *
+	 * @param concurrency
+	 */
+	public void setReplyConcurrency(String concurrency) {
+		setProperty(REPLY_CONCURRENCY, concurrency, REPLY_CONCURRENCY_DEFAULT);
+	}
+
+	public String getReplyConcurrency() {
+		return getPropertyAsString(REPLY_CONCURRENCY, REPLY_CONCURRENCY_DEFAULT);
+	}
+
+	public void setReplyQoS(String qos) {
+		setProperty(REPLY_QOS, qos, REPLY_QOS_DEFAULT);
+	}
+
+	public String getReplyQoS() {
+		return getPropertyAsString(REPLY_QOS, REPLY_QOS_DEFAULT);
+	}
+
+	/**
+	 * set the reply body, empty to echo the request
+	 *
+	 * @param message
+	 */
+	public void setReplyMessage(String message) {
+		setProperty(REPLY_MESSAGE, message, REPLY_MESSAGE_DEFAULT);
+	}
+
+	public String getReplyMessage() {
+		return getPropertyAsString(REPLY_MESSAGE, REPLY_MESSAGE_DEFAULT);
+	}
+
+	@Override
+	public void threadStarted() {
+		if (subscriber == null) {
+			try {
+				subscriber = new MqttResponder();
+			} catch (Exception e) {
+				log.warn(e.getLocalizedMessage(), e);
+			}
+		}
+		super.threadStarted();
+	}
+
+	@Override
+	protected Arguments getSamplerArguments() {
+		Arguments parameters = super.getSamplerArguments();
+		parameters.addArgument("REQUEST_SUFFIX", getRequestSuffix());
+		parameters.addArgument("RESPONSE_SUFFIX", getResponseSuffix());
+		parameters.addArgument("REPLY_DELAY", getReplyDelay());
+		parameters.addArgument("REPLY_CONCURRENCY", getReplyConcurrency());
+		parameters.addArgument("REPLY_QOS", getReplyQoS());
+		parameters.addArgument("REPLY_MESSAGE", getReplyMessage());
+		return parameters;
+	}
+}
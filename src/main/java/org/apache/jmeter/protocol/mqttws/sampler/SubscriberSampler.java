@@ -26,7 +26,14 @@ import org.apache.jmeter.config.Arguments;
 import org.apache.jmeter.protocol.java.sampler.JavaSamplerContext;
 //import org.apache.jmeter.protocol.mqtt.client.ListenerforSubscribe;
 import org.apache.jmeter.protocol.mqttws.client.MqttSubscriber;
+import org.apache.jmeter.protocol.mqttws.client.TraceBuffer;
 import org.apache.jmeter.protocol.mqttws.control.gui.MQTTPublisherGui;
+import org.apache.jmeter.protocol.mqttws.journal.MessageJournal;
+import org.apache.jmeter.protocol.mqttws.journal.ResultWriter;
+import org.apache.jmeter.protocol.mqttws.metrics.HistogramSnapshot;
+import org.apache.jmeter.protocol.mqttws.metrics.MqttMetrics;
+import org.apache.jmeter.protocol.mqttws.metrics.SaturationDetector;
+import org.apache.jmeter.protocol.mqttws.metrics.ThreadAccounting;
 import org.apache.jmeter.samplers.Interruptible;
 import org.apache.jmeter.samplers.SampleResult;
 import org.apache.jmeter.testelement.TestStateListener;
@@ -52,6 +59,7 @@ public class SubscriberSampler extends BaseMQTTSampler implements
     private static final String MAX_QOS_DEFAULT = "0"; // $NON-NLS-1$
 	private static final String SAMPLER_TIMEOUT = "mqtt.sampler.timeout"; // $NON-NLS-1$
 	private static final String SAMPLER_TIMEOUT_DEFAULT = "30000"; // $NON-NLS-1$
+	private static final String TOPIC_STATS = "mqtt.topic_stats"; // $NON-NLS-1$
 	//private static final String QUALITY = "mqtt.quality"; //$NON-NLS-1$
 	private static String OneConnectionPerTopic = "mqtt.one_connection_per_topic"; //$NON-NLS-1$
 	public transient MqttSubscriber subscriber = null;
@@ -138,6 +146,19 @@ public class SubscriberSampler extends BaseMQTTSampler implements
 		return getPropertyAsString(CLIENT_ID, CLIENT_ID_DEFAULT);
 	}
 
+	/**
+	 * Set whether received messages are also counted per topic
+	 *
+	 * @param topicStats
+	 */
+	public void setTopicStats(boolean topicStats) {
+		setProperty(TOPIC_STATS, topicStats);
+	}
+
+	public boolean isTopicStats() {
+		return "TRUE".equalsIgnoreCase(getPropertyAsString(TOPIC_STATS));
+	}
+
 	public String getSamplerTimeout() {
 		return getPropertyAsString(SAMPLER_TIMEOUT, SAMPLER_TIMEOUT_DEFAULT);
 	}
@@ -193,6 +214,12 @@ public class SubscriberSampler extends BaseMQTTSampler implements
 			}
 
 		}
+		if (MqttMetrics.testEnded()) {
+			TraceBuffer.dumpIfConfigured();
+			ResultWriter.closeInstance();
+			MessageJournal.closeInstance();
+			MqttMetrics.closeAll();
+		}
 	}
 
 	@Override
@@ -202,6 +229,7 @@ public class SubscriberSampler extends BaseMQTTSampler implements
 
 	@Override
 	public void testStarted() {
+		MqttMetrics.testStarted();
 	}
 
 	@Override
@@ -248,15 +276,33 @@ public class SubscriberSampler extends BaseMQTTSampler implements
 
 	@Override
 	public SampleResult sample() {
+		ThreadAccounting accounting = ThreadAccounting.create();
+		if (accounting != null) {
+			accounting.start();
+		}
+		long saturation = SaturationDetector.mark();
 		//get context just prior to our actual sampling
 		//so that we won't miss any updates by other samplers 
 		//made prior to that point 
 		context = getSamplerContext();
-		return this.subscriber.runTest(context);
+		SampleResult result = this.subscriber.runTest(context);
+		if (accounting != null) {
+			accounting.stop(result);
+		}
+		SaturationDetector.annotate(saturation, result);
+		HistogramSnapshot.attach(result);
+		return result;
 	}
 
 	//get sampler's JMeter context 
 	public JavaSamplerContext getSamplerContext() {
+		return new JavaSamplerContext(getSamplerArguments());
+	}
+
+	/**
+	 * @return the parameters passed to the client, subclasses may add theirs
+	 */
+	protected Arguments getSamplerArguments() {
 		String host = getProviderUrl();
 		String list_topic = getDestination();
 		String aggregate = "" + getIterationCount();
@@ -311,6 +357,23 @@ public class SubscriberSampler extends BaseMQTTSampler implements
 		} else {
 			parameters.addArgument("RANDOM_SUFFIX", "FALSE");
 		}
-		return new JavaSamplerContext(parameters);
+		if (this.isContinuous()) {
+			parameters.addArgument("CONTINUOUS", "TRUE");
+		} else {
+			parameters.addArgument("CONTINUOUS", "FALSE");
+		}
+		parameters.addArgument("WINDOW", this.getWindow());
+		if (this.isTopicStats()) {
+			parameters.addArgument("TOPIC_STATS", "TRUE");
+		} else {
+			parameters.addArgument("TOPIC_STATS", "FALSE");
+		}
+		if (this.isHighThroughput()) {
+			parameters.addArgument("HIGH_THROUGHPUT", "TRUE");
+		} else {
+			parameters.addArgument("HIGH_THROUGHPUT", "FALSE");
+		}
+		parameters.addArgument("MESSAGE_SAMPLES", this.getMessageSamples());
+		return parameters;
 	}
 }
@@ -0,0 +1,264 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+package org.apache.jmeter.protocol.mqttws.stats;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size, log-linear histogram of latencies in microseconds.
+ * <p>
+ * Values below 64 get a bucket each; above that every power of two is split
+ * in 32 buckets, so a reported percentile is never more than ~3% above the
+ * recorded value. Recording is lock free and allocation free, so it can be
+ * done from the Paho callback threads.
+ */
+public class LatencyHistogram {
+	private static final int LINEAR_BUCKETS = 64;
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	//2^47 usecs is more than four years
+	private static final int MAX_EXPONENT = 47;
+	static final int BUCKETS = LINEAR_BUCKETS + (MAX_EXPONENT - 6 + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong total = new AtomicLong(0);
+	private final AtomicLong sum = new AtomicLong(0);
+	private final AtomicLong max = new AtomicLong(0);
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+
+	static int indexFor(long value) {
+		if (value < LINEAR_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent > MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		int shift = exponent - SUB_BUCKET_BITS;
+		return LINEAR_BUCKETS + (exponent - 6) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	/**
+	 * @return the highest value that falls in the bucket
+	 */
+	static long valueFor(int index) {
+		if (index < LINEAR_BUCKETS) {
+			return index;
+		}
+		int exponent = 6 + (index - LINEAR_BUCKETS) / SUB_BUCKETS;
+		long sub = SUB_BUCKETS + (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+		int shift = exponent - SUB_BUCKET_BITS;
+		return (sub << shift) + (1L << shift) - 1;
+	}
+
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(indexFor(value));
+		total.incrementAndGet();
+		sum.addAndGet(value);
+		long m = max.get();
+		while (value > m && !max.compareAndSet(m, value)) {
+			m = max.get();
+		}
+		m = min.get();
+		while (value < m && !min.compareAndSet(m, value)) {
+			m = min.get();
+		}
+	}
+
+	public long getCount() {
+		return total.get();
+	}
+
+	public long getSum() {
+		return sum.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public long getMin() {
+		long m = min.get();
+		return (m == Long.MAX_VALUE) ? 0 : m;
+	}
+
+	public double getMean() {
+		long n = total.get();
+		return (n == 0) ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the value below which the given percentage of recorded values fall
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long[] snapshot = new long[BUCKETS];
+		long n = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			n += snapshot[i];
+		}
+		if (n == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long) Math.ceil(n * Math.min(percentile, 100.0) / 100.0));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= target) {
+				return Math.min(valueFor(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Counts of a cumulative histogram, as exported to Prometheus. A bucket is
+	 * counted below a bound when all its values are, so the counts are exact
+	 * to the bucket resolution.
+	 *
+	 * @param bounds increasing upper bounds, in microseconds
+	 * @return the number of values at or below each bound, followed by the
+	 * number of values
+	 */
+	public long[] getCumulativeCounts(long[] bounds) {
+		long[] cumulative = new long[bounds.length + 1];
+		long seen = 0;
+		int b = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			long upper = valueFor(i);
+			while (b < bounds.length && upper > bounds[b]) {
+				cumulative[b++] = seen;
+			}
+			seen += counts.get(i);
+		}
+		while (b < bounds.length) {
+			cumulative[b++] = seen;
+		}
+		cumulative[bounds.length] = seen;
+		return cumulative;
+	}
+
+	/**
+	 * Add the values recorded by another histogram to this one.
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < BUCKETS; i++) {
+			long c = other.counts.get(i);
+			if (c != 0) {
+				counts.addAndGet(i, c);
+			}
+		}
+		total.addAndGet(other.total.get());
+		sum.addAndGet(other.sum.get());
+		if (other.getCount() > 0) {
+			long m = max.get();
+			long om = other.max.get();
+			while (om > m && !max.compareAndSet(m, om)) {
+				m = max.get();
+			}
+			m = min.get();
+			om = other.min.get();
+			while (om < m && !min.compareAndSet(m, om)) {
+				m = min.get();
+			}
+		}
+	}
+
+	/**
+	 * Write the recorded values, non empty buckets only, for {@link #readFrom(DataInput)}
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		//a copy, as values may be recorded meanwhile
+		long[] copy = new long[BUCKETS];
+		int used = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = counts.get(i);
+			if (copy[i] != 0) {
+				used++;
+			}
+		}
+		out.writeLong(sum.get());
+		out.writeLong(min.get());
+		out.writeLong(max.get());
+		out.writeShort(used);
+		for (int i = 0; i < BUCKETS; i++) {
+			if (copy[i] != 0) {
+				out.writeShort(i);
+				out.writeLong(copy[i]);
+			}
+		}
+	}
+
+	/**
+	 * @return a histogram written by {@link #writeTo(DataOutput)}
+	 */
+	public static LatencyHistogram readFrom(DataInput in) throws IOException {
+		LatencyHistogram h = new LatencyHistogram();
+		h.sum.set(in.readLong());
+		h.min.set(in.readLong());
+		h.max.set(in.readLong());
+		int used = in.readUnsignedShort();
+		long total = 0;
+		for (int n = 0; n < used; n++) {
+			int i = in.readUnsignedShort();
+			long c = in.readLong();
+			if (i >= BUCKETS) {
+				throw new IOException("Not a latency histogram: bucket " + i);
+			}
+			h.counts.set(i, c);
+			total += c;
+		}
+		h.total.set(total);
+		return h;
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		total.set(0);
+		sum.set(0);
+		max.set(0);
+		min.set(Long.MAX_VALUE);
+	}
+
+	/**
+	 * @return "p50=.. p90=.. p99=.. p99.9=.. max=.." in milliseconds
+	 */
+	public String toPercentilesString() {
+		return "p50=" + millis(getValueAtPercentile(50))
+				+ " p90=" + millis(getValueAtPercentile(90))
+				+ " p99=" + millis(getValueAtPercentile(99))
+				+ " p99.9=" + millis(getValueAtPercentile(99.9))
+				+ " max=" + millis(getMax()) + " ms";
+	}
+
+	private static double millis(long micros) {
+		return Math.round(micros / 100.0) / 10.0;
+	}
+}
@@ -0,0 +1,211 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.stats;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.util.JMeterUtils;
+
+/**
+ * One in N messages of a sampler, reported as sub results of its next sample
+ * so that the standard listeners can plot the latency of single messages.
+ * <p>
+ * A publisher keeps a sampled message pending until its ack arrives, a
+ * subscriber adds it when it arrives. At most mqtt.message_samples.max
+ * messages are kept between two samples, later ones are only counted.
+ */
+public class MessageSamples {
+
+	private static final int MAX = JMeterUtils.getPropDefault("mqtt.message_samples.max", 1000); // $NON-NLS-1$
+
+	private static class Message {
+		private final String topic;
+		private final int id;
+		private final int size;
+		private final boolean published;
+		//wall clock time (msecs) of the publish or the arrival
+		private final long time;
+		//nanos, publishers only
+		private final long start;
+		//usecs, -1 if unknown
+		private long latency = -1;
+
+		Message(String topic, int id, int size, boolean published, long time, long start) {
+			this.topic = topic;
+			this.id = id;
+			this.size = size;
+			this.published = published;
+			this.time = time;
+			this.start = start;
+		}
+	}
+
+	private final int every;
+	private final AtomicLong seen = new AtomicLong(0);
+	private final AtomicInteger kept = new AtomicInteger(0);
+	private final AtomicLong dropped = new AtomicLong(0);
+	private final ConcurrentLinkedQueue<Message> done = new ConcurrentLinkedQueue<Message>();
+	//published messages waiting for their ack, by message id
+	private final ConcurrentHashMap<Integer, Message> pending = new ConcurrentHashMap<Integer, Message>();
+
+	/**
+	 * @param every report one message in every
+	 */
+	public MessageSamples(int every) {
+		this.every = Math.max(1, every);
+	}
+
+	/**
+	 * Count a message.
+	 *
+	 * @return whether it is one of the messages to report
+	 */
+	public boolean sample() {
+		if (seen.getAndIncrement() % every != 0) {
+			return false;
+		}
+		if (kept.incrementAndGet() > MAX) {
+			dropped.incrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @param id message id, 0 if no ack is expected (QoS 0)
+	 * @param size payload size in bytes
+	 * @param start nanos the ack latency starts at
+	 */
+	public void onPublished(String topic, int id, int size, long start) {
+		long time = System.currentTimeMillis() - (System.nanoTime() - start) / 1000000;
+		Message m = new Message(topic, id, size, true, time, start);
+		if (id > 0) {
+			pending.put(Integer.valueOf(id), m);
+		} else {
+			done.add(m);
+		}
+	}
+
+	/**
+	 * The ack of a message arrived, a no-op unless it was sampled.
+	 * May be called more than once for the same ack.
+	 */
+	public void onAck(int id) {
+		Message m = pending.remove(Integer.valueOf(id));
+		if (m != null) {
+			m.latency = (System.nanoTime() - m.start) / 1000;
+			done.add(m);
+		}
+	}
+
+	/**
+	 * @param time arrival time (msecs)
+	 * @param latency usecs since the message was published, -1 if unknown
+	 */
+	public void onArrived(String topic, int id, int size, long time, long latency) {
+		Message m = new Message(topic, id, size, false, time, 0);
+		m.latency = latency;
+		done.add(m);
+	}
+
+	/**
+	 * Add the messages reported since the last call to a sample, one sub result each,
+	 * and a line about them to its request data.
+	 *
+	 * @param expireBefore messages published before this time (msecs) and still
+	 *        waiting for their ack are reported as failed
+	 * @return the number of sub results added
+	 */
+	public int addSubResults(SampleResult parent, long expireBefore) {
+		for (Iterator<Message> it = pending.values().iterator(); it.hasNext();) {
+			Message m = it.next();
+			if (m.time < expireBefore && pending.remove(Integer.valueOf(m.id), m)) {
+				done.add(m);
+			}
+		}
+		int bytes = parent.getBytes();
+		long start = parent.getStartTime();
+		long end = parent.getEndTime();
+		int added = 0;
+		//messages completed while we drain are left for the next sample
+		for (int n = done.size(); n > 0; n--) {
+			Message m = done.poll();
+			if (m == null) {
+				break;
+			}
+			parent.addSubResult(toResult(parent.getSampleLabel() + " message", m));
+			added++;
+		}
+		long over = dropped.getAndSet(0);
+		kept.set(0);
+		parent.setSamplerData(parent.getSamplerData() + "\nMessage samples: " + added + " (1 in " + every + ")"
+				+ ((over > 0) ? ", " + over + " more over the limit of " + MAX : ""));
+		//addSubResult adds the bytes of the sub results to the parent and may stretch its end
+		parent.setBytes(bytes);
+		parent.setStampAndTime(start, end - start);
+		return added;
+	}
+
+	private static SampleResult toResult(String label, Message m) {
+		SampleResult sub = new SampleResult();
+		sub.setSampleLabel(label);
+		long elapsed = (m.latency < 0) ? 0 : m.latency / 1000;
+		//a publish starts when it was sent, an arrival ends when it arrived
+		sub.setStampAndTime(m.published ? m.time : m.time - elapsed, elapsed);
+		sub.setLatency(elapsed);
+		sub.setBytes(m.size);
+		sub.setResponseHeaders("topic: " + m.topic);
+		String summary;
+		if (!m.published) {
+			summary = (m.latency < 0) ? "Arrived, no time stamp" : "Arrived after " + millis(m.latency) + " ms";
+		} else if (m.id == 0) {
+			summary = "Published, no ack at QoS 0";
+		} else if (m.latency < 0) {
+			summary = "Published, no ack";
+		} else {
+			summary = "Acked after " + millis(m.latency) + " ms";
+		}
+		sub.setResponseMessage(summary);
+		sub.setSamplerData("Topic: " + m.topic
+				+ "\nMessage id: " + m.id
+				+ (m.published ? "\nPublished: " : "\nArrived: ") + new SimpleDateFormat("HH:mm:ss.SSS").format(new Date(m.time)) // $NON-NLS-1$
+				+ "\nSize: " + m.size + " bytes"
+				+ "\n" + summary);
+		if (m.published && m.id > 0 && m.latency < 0) {
+			sub.setResponseCode("FAILED");
+			sub.setSuccessful(false);
+		} else {
+			sub.setResponseOK();
+		}
+		return sub;
+	}
+
+	private static double millis(long micros) {
+		return Math.round(micros / 100.0) / 10.0;
+	}
+}
@@ -0,0 +1,70 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.stats;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that several threads can add to without contending on one value.
+ * <p>
+ * Each thread adds to one of a few cells, picked from its id, and the cells
+ * are spread over separate cache lines. Reading sums all cells, so it is meant
+ * for counters that are written often and read once per sample.
+ */
+public class StripedCounter {
+	private static final int STRIPES = 8;
+	//8 longs between two cells keeps them on different cache lines
+	private static final int PAD = 8;
+
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+	private static int cell() {
+		return (int) (Thread.currentThread().getId() & (STRIPES - 1)) * PAD;
+	}
+
+	public void add(long x) {
+		cells.addAndGet(cell(), x);
+	}
+
+	public void increment() {
+		cells.incrementAndGet(cell());
+	}
+
+	public long sum() {
+		long sum = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			sum += cells.get(i * PAD);
+		}
+		return sum;
+	}
+
+	/**
+	 * Sum the cells and reset them. Values added while this runs are either
+	 * counted now or in the next call, never lost.
+	 */
+	public long sumThenReset() {
+		long sum = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			sum += cells.getAndSet(i * PAD, 0);
+		}
+		return sum;
+	}
+}
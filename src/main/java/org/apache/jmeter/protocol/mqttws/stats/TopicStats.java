@@ -0,0 +1,245 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.stats;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.util.JMeterUtils;
+
+/**
+ * Receive statistics per concrete topic, for subscriptions with wildcards.
+ * <p>
+ * Counters are kept per topic the messages arrived on, not per filter, so a
+ * fan-in test on devices/# shows which devices the broker is starving. Once
+ * mqtt.topic_stats.max topics are known, messages on new topics are counted
+ * under {@link #OTHER_TOPICS} to keep memory bounded.
+ */
+public class TopicStats {
+	public static final String OTHER_TOPICS = "(other topics)";
+	private static final int MAX_TOPICS = JMeterUtils.getPropDefault("mqtt.topic_stats.max", 10000); // $NON-NLS-1$
+
+	public static class Topic {
+		private final String name;
+		private final StripedCounter messages = new StripedCounter();
+		private final StripedCounter bytes = new StripedCounter();
+		private final StripedCounter latencySum = new StripedCounter();
+		private final StripedCounter latencyCount = new StripedCounter();
+		private final AtomicLong latencyMax = new AtomicLong(0);
+		private volatile long lastSeen = 0;
+
+		Topic(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return time (msecs) the last message arrived, 0 if none did
+		 */
+		public long getLastSeen() {
+			return lastSeen;
+		}
+
+		void record(int size, long latencyMicros, long now) {
+			messages.increment();
+			bytes.add(size);
+			if (latencyMicros >= 0) {
+				latencySum.add(latencyMicros);
+				latencyCount.increment();
+				long m = latencyMax.get();
+				while (latencyMicros > m && !latencyMax.compareAndSet(m, latencyMicros)) {
+					m = latencyMax.get();
+				}
+			}
+			lastSeen = now;
+		}
+	}
+
+	/**
+	 * Counters of one topic since the previous {@link TopicStats#snapshot(boolean)}
+	 */
+	public static class Snapshot implements Comparable<Snapshot> {
+		private final String topic;
+		private final long messages;
+		private final long bytes;
+		private final long latencyMean;
+		private final long latencyMax;
+		private final long lastSeen;
+
+		Snapshot(Topic t, boolean reset) {
+			topic = t.name;
+			messages = reset ? t.messages.sumThenReset() : t.messages.sum();
+			bytes = reset ? t.bytes.sumThenReset() : t.bytes.sum();
+			long count = reset ? t.latencyCount.sumThenReset() : t.latencyCount.sum();
+			long sum = reset ? t.latencySum.sumThenReset() : t.latencySum.sum();
+			latencyMean = (count == 0) ? 0 : sum / count;
+			latencyMax = reset ? t.latencyMax.getAndSet(0) : t.latencyMax.get();
+			lastSeen = t.lastSeen;
+		}
+
+		public String getTopic() {
+			return topic;
+		}
+
+		public long getMessages() {
+			return messages;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * @return mean latency in microseconds, 0 if unknown
+		 */
+		public long getLatencyMean() {
+			return latencyMean;
+		}
+
+		/**
+		 * @return max latency in microseconds, 0 if unknown
+		 */
+		public long getLatencyMax() {
+			return latencyMax;
+		}
+
+		public long getLastSeen() {
+			return lastSeen;
+		}
+
+		public int compareTo(Snapshot o) {
+			return topic.compareTo(o.topic);
+		}
+	}
+
+	private final ConcurrentHashMap<String, Topic> topics = new ConcurrentHashMap<String, Topic>();
+
+	/**
+	 * @param topic the topic the message arrived on
+	 * @param size payload size in bytes
+	 * @param latencyMicros end to end latency, negative if unknown
+	 * @param now arrival time in msecs
+	 */
+	public void onMessage(String topic, int size, long latencyMicros, long now) {
+		Topic t = topics.get(topic);
+		if (t == null) {
+			t = add(topics.size() < MAX_TOPICS ? topic : OTHER_TOPICS);
+		}
+		t.record(size, latencyMicros, now);
+	}
+
+	private Topic add(String topic) {
+		Topic t = new Topic(topic);
+		Topic previous = topics.putIfAbsent(topic, t);
+		return (previous == null) ? t : previous;
+	}
+
+	public int size() {
+		return topics.size();
+	}
+
+	public void clear() {
+		topics.clear();
+	}
+
+	/**
+	 * @param reset start counting again from zero (topics stay known)
+	 * @return the counters of every topic seen so far, sorted by topic
+	 */
+	public List<Snapshot> snapshot(boolean reset) {
+		List<Snapshot> list = new ArrayList<Snapshot>(topics.size());
+		for (Topic t : topics.values()) {
+			list.add(new Snapshot(t, reset));
+		}
+		Collections.sort(list);
+		return list;
+	}
+
+	/**
+	 * Add one sub result per topic to a sample. Topics known from earlier
+	 * samples that got nothing this time are reported as failed.
+	 *
+	 * @param parent the sample, its bytes are kept as they are
+	 * @param snapshots the counters to report
+	 */
+	public static void addSubResults(SampleResult parent, List<Snapshot> snapshots) {
+		int bytes = parent.getBytes();
+		long start = parent.getStartTime();
+		long elapsed = parent.getEndTime() - start;
+		for (Snapshot s : snapshots) {
+			SampleResult sub = new SampleResult();
+			sub.setSampleLabel(parent.getSampleLabel() + " " + s.topic);
+			sub.setStampAndTime(start, elapsed);
+			sub.setBytes((int) Math.min(Integer.MAX_VALUE, s.bytes));
+			sub.setLatency(s.latencyMean / 1000);
+			String summary = s.messages + " messages, " + s.bytes + " bytes";
+			sub.setResponseMessage(summary);
+			sub.setSamplerData("Topic: " + s.topic + "\n" + summary
+					+ "\nLatency: mean=" + millis(s.latencyMean) + " max=" + millis(s.latencyMax) + " ms"
+					+ "\nLast seen: " + lastSeen(s.lastSeen));
+			if (s.messages > 0) {
+				sub.setResponseOK();
+			} else {
+				sub.setResponseCode("FAILED");
+				sub.setSuccessful(false);
+			}
+			parent.addSubResult(sub);
+		}
+		//addSubResult adds the bytes of the sub results to the parent
+		parent.setBytes(bytes);
+	}
+
+	/**
+	 * @return one line per topic: messages, bytes, mean and max latency (ms), last seen
+	 */
+	public static String toTable(List<Snapshot> snapshots) {
+		StringBuilder sb = new StringBuilder("topic\tmessages\tbytes\tlatency mean\tlatency max\tlast seen\n");
+		for (Snapshot s : snapshots) {
+			sb.append(s.topic).append('\t')
+				.append(s.messages).append('\t')
+				.append(s.bytes).append('\t')
+				.append(millis(s.latencyMean)).append('\t')
+				.append(millis(s.latencyMax)).append('\t')
+				.append(lastSeen(s.lastSeen)).append('\n');
+		}
+		return sb.toString();
+	}
+
+	private static double millis(long micros) {
+		return Math.round(micros / 100.0) / 10.0;
+	}
+
+	private static String lastSeen(long time) {
+		if (time == 0) {
+			return "never";
+		}
+		return new SimpleDateFormat("HH:mm:ss.SSS").format(new Date(time)); // $NON-NLS-1$
+	}
+}
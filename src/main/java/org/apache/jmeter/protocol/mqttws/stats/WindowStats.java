@@ -0,0 +1,175 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+package org.apache.jmeter.protocol.mqttws.stats;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Counters of a continuous sampler, collected per time window.
+ * <p>
+ * Messages are the messages received by a subscriber or sent by a publisher,
+ * acks and failures are only counted by publishers.
+ * <p>
+ * The Paho callback threads record into the current window while the sampler
+ * thread waits for the window to elapse, then {@link #roll(long)} swaps in a
+ * fresh window and hands back the finished one for reporting. An update that
+ * picked the old window just before the swap is still counted: roll waits for
+ * it to finish before handing the window back.
+ */
+public class WindowStats {
+
+	public static class Window {
+		private final long start;
+		private final AtomicLong messages = new AtomicLong(0);
+		private final AtomicLong bytes = new AtomicLong(0);
+		private final AtomicLong acked = new AtomicLong(0);
+		private final AtomicLong failed = new AtomicLong(0);
+		private final LatencyHistogram latency = new LatencyHistogram();
+		//updates in progress
+		private final AtomicInteger writers = new AtomicInteger(0);
+
+		Window(long start) {
+			this.start = start;
+		}
+
+		public long getStart() {
+			return start;
+		}
+
+		public long getMessages() {
+			return messages.get();
+		}
+
+		public long getBytes() {
+			return bytes.get();
+		}
+
+		public long getAcked() {
+			return acked.get();
+		}
+
+		public long getFailed() {
+			return failed.get();
+		}
+
+		/**
+		 * @return latencies in microseconds
+		 */
+		public LatencyHistogram getLatency() {
+			return latency;
+		}
+	}
+
+	private final AtomicReference<Window> current = new AtomicReference<Window>(new Window(System.currentTimeMillis()));
+
+	/**
+	 * @param size payload size in bytes
+	 * @param latencyMicros end to end latency, negative if unknown
+	 */
+	public void onMessage(int size, long latencyMicros) {
+		Window w = enter();
+		try {
+			w.messages.incrementAndGet();
+			w.bytes.addAndGet(size);
+			if (latencyMicros >= 0) {
+				w.latency.record(latencyMicros);
+			}
+		} finally {
+			w.writers.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @param latencyMicros time from publish to ack, negative if unknown
+	 */
+	public void onAck(long latencyMicros) {
+		Window w = enter();
+		try {
+			w.acked.incrementAndGet();
+			if (latencyMicros >= 0) {
+				w.latency.record(latencyMicros);
+			}
+		} finally {
+			w.writers.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Back-fill the send slots a publisher dropped after a stall: the
+	 * messages it did not send would have waited at least their send lag,
+	 * one interval less each.
+	 *
+	 * @param lagMicros send lag of the last message sent before the drop
+	 * @param intervalMicros time between two sends on schedule
+	 */
+	public void onMissed(long lagMicros, long intervalMicros) {
+		Window w = enter();
+		try {
+			for (long lag = lagMicros - intervalMicros; lag > 0; lag -= intervalMicros) {
+				w.latency.record(lag);
+			}
+		} finally {
+			w.writers.decrementAndGet();
+		}
+	}
+
+	public void onFailure() {
+		Window w = enter();
+		w.failed.incrementAndGet();
+		w.writers.decrementAndGet();
+	}
+
+	public long getStart() {
+		return current.get().start;
+	}
+
+	/**
+	 * Start a new window.
+	 *
+	 * @param start start time of the new window in msecs
+	 * @return the window that just ended
+	 */
+	public Window roll(long start) {
+		Window ended = current.getAndSet(new Window(start));
+		//let the updates that still hold the old window land in it
+		while (ended.writers.get() > 0) {
+			Thread.yield();
+		}
+		return ended;
+	}
+
+	/**
+	 * @return the current window, registered as being updated until its
+	 * writers count is decremented
+	 */
+	private Window enter() {
+		while (true) {
+			Window w = current.get();
+			w.writers.incrementAndGet();
+			if (current.get() == w) {
+				return w;
+			}
+			//rolled meanwhile - update the new window instead
+			w.writers.decrementAndGet();
+		}
+	}
+}
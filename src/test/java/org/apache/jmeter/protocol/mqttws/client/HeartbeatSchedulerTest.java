@@ -0,0 +1,143 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.client;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class HeartbeatSchedulerTest {
+	private static final long TICK = TimeUnit.MILLISECONDS.toNanos(1);
+
+	/**
+	 * Records the ticks a task ran at
+	 */
+	private static class Runs implements Runnable {
+		final List<Long> ticks = new ArrayList<Long>();
+		long tick;
+
+		public void run() {
+			ticks.add(tick);
+		}
+	}
+
+	/**
+	 * Advance the wheel tick by tick, on time
+	 */
+	private static void advance(HeartbeatScheduler s, Runs runs, long from, long to) {
+		for (long tick = from; tick < to; tick++) {
+			runs.tick = tick;
+			s.advance((tick + 1) * TICK);
+		}
+	}
+
+	private static List<Long> ticks(long... values) {
+		List<Long> l = new ArrayList<Long>();
+		for (long v : values) {
+			l.add(v);
+		}
+		return l;
+	}
+
+	@Test
+	public void runsOnceAfterTheDelay() {
+		HeartbeatScheduler s = new HeartbeatScheduler(1);
+		Runs runs = new Runs();
+		s.add(runs, 1000 * TICK, 0);
+		advance(s, runs, 0, 3000);
+		assertEquals(ticks(1000), runs.ticks);
+	}
+
+	@Test
+	public void periodOfAWholeTurnRunsEveryTurn() {
+		HeartbeatScheduler s = new HeartbeatScheduler(1);
+		Runs runs = new Runs();
+		s.add(runs, 0, 512 * TICK);
+		advance(s, runs, 0, 2100);
+		assertEquals(ticks(0, 512, 1024, 1536, 2048), runs.ticks);
+	}
+
+	@Test
+	public void periodOfSeveralTurnsRunsOnTime() {
+		HeartbeatScheduler s = new HeartbeatScheduler(1);
+		Runs runs = new Runs();
+		s.add(runs, 5 * TICK, 1024 * TICK);
+		advance(s, runs, 0, 3200);
+		assertEquals(ticks(5, 1029, 2053, 3077), runs.ticks);
+	}
+
+	@Test
+	public void shortPeriodRunsEveryPeriod() {
+		HeartbeatScheduler s = new HeartbeatScheduler(1);
+		Runs runs = new Runs();
+		s.add(runs, 0, 300 * TICK);
+		advance(s, runs, 0, 1000);
+		assertEquals(ticks(0, 300, 600, 900), runs.ticks);
+		assertEquals(4, s.getFired());
+	}
+
+	@Test
+	public void lateTicksDoNotShiftTheSchedule() {
+		HeartbeatScheduler s = new HeartbeatScheduler(1);
+		Runs runs = new Runs();
+		s.add(runs, 0, 100 * TICK);
+		advance(s, runs, 0, 150);
+		//the timer thread was held back: the next ticks all come at once
+		for (long tick = 150; tick < 250; tick++) {
+			runs.tick = tick;
+			s.advance(260 * TICK);
+		}
+		advance(s, runs, 250, 350);
+		assertEquals(ticks(0, 100, 200, 300), runs.ticks);
+		assertTrue(s.getDrift().getMax() > 0);
+	}
+
+	@Test
+	public void cancelledTaskDoesNotRun() {
+		HeartbeatScheduler s = new HeartbeatScheduler(1);
+		Runs runs = new Runs();
+		HeartbeatScheduler.Timeout t = s.add(runs, 0, 10 * TICK);
+		advance(s, runs, 0, 25);
+		t.cancel();
+		advance(s, runs, 25, 100);
+		assertEquals(ticks(0, 10, 20), runs.ticks);
+		assertTrue(t.isCancelled());
+	}
+
+	@Test
+	public void failingTaskKeepsItsSchedule() {
+		HeartbeatScheduler s = new HeartbeatScheduler(1);
+		final Runs runs = new Runs();
+		s.add(new Runnable() {
+			public void run() {
+				runs.run();
+				throw new IllegalStateException("failed");
+			}
+		}, 0, 50 * TICK);
+		advance(s, runs, 0, 120);
+		assertEquals(ticks(0, 50, 100), runs.ticks);
+	}
+}
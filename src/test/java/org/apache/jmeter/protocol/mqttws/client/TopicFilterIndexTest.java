@@ -0,0 +1,113 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.client;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TopicFilterIndexTest {
+
+	/**
+	 * @return the indexes of the filters matching the topic, sorted
+	 */
+	private static int[] match(TopicFilterIndex index, String topic) {
+		int[] matches = new int[index.size()];
+		int n = index.match(topic, matches);
+		int[] found = Arrays.copyOf(matches, n);
+		Arrays.sort(found);
+		return found;
+	}
+
+	@Test
+	public void exactLevels() {
+		TopicFilterIndex index = new TopicFilterIndex(new String[] { "a/b", "a/b/c", "a", "b/b" });
+		assertArrayEquals(new int[] { 0 }, match(index, "a/b"));
+		assertArrayEquals(new int[] { 1 }, match(index, "a/b/c"));
+		assertArrayEquals(new int[] { 2 }, match(index, "a"));
+		assertArrayEquals(new int[0], match(index, "a/c"));
+		assertArrayEquals(new int[0], match(index, "a/b/c/d"));
+		assertArrayEquals(new int[0], match(index, "ab"));
+	}
+
+	@Test
+	public void singleLevelWildcard() {
+		TopicFilterIndex index = new TopicFilterIndex(new String[] { "a/+", "+/b", "+/+", "a/+/c", "+" });
+		assertArrayEquals(new int[] { 0, 1, 2 }, match(index, "a/b"));
+		assertArrayEquals(new int[] { 0, 2 }, match(index, "a/x"));
+		assertArrayEquals(new int[] { 3 }, match(index, "a/x/c"));
+		assertArrayEquals(new int[] { 4 }, match(index, "a"));
+		//an empty level is a level
+		assertArrayEquals(new int[] { 0, 2 }, match(index, "a/"));
+	}
+
+	@Test
+	public void multiLevelWildcard() {
+		TopicFilterIndex index = new TopicFilterIndex(new String[] { "a/#", "#", "a/b/#", "+/b/#" });
+		assertArrayEquals(new int[] { 0, 1, 2, 3 }, match(index, "a/b/c/d"));
+		//# also matches its parent level
+		assertArrayEquals(new int[] { 0, 1 }, match(index, "a"));
+		assertArrayEquals(new int[] { 0, 1, 2, 3 }, match(index, "a/b"));
+		assertArrayEquals(new int[] { 1, 3 }, match(index, "x/b"));
+	}
+
+	@Test
+	public void wildcardsDoNotMatchSystemTopics() {
+		TopicFilterIndex index = new TopicFilterIndex(new String[] { "#", "+/broker", "$SYS/#", "$SYS/+" });
+		assertArrayEquals(new int[] { 2, 3 }, match(index, "$SYS/broker"));
+		assertArrayEquals(new int[] { 0, 1 }, match(index, "SYS/broker"));
+	}
+
+	@Test
+	public void sameFilterTwice() {
+		TopicFilterIndex index = new TopicFilterIndex(new String[] { "a/+", "a/+" });
+		assertArrayEquals(new int[] { 0, 1 }, match(index, "a/b"));
+	}
+
+	@Test
+	public void matchesAreCappedToTheArray() {
+		TopicFilterIndex index = new TopicFilterIndex(new String[] { "#", "a/#", "a/b" });
+		int[] matches = new int[2];
+		assertEquals(2, index.match("a/b", matches));
+	}
+
+	@Test
+	public void manyFilters() {
+		String[] filters = new String[5000];
+		for (int i = 0; i < filters.length; i++) {
+			filters[i] = "devices/" + i + "/+";
+		}
+		TopicFilterIndex index = new TopicFilterIndex(filters);
+		for (int i = 0; i < filters.length; i++) {
+			assertArrayEquals(new int[] { i }, match(index, "devices/" + i + "/temperature"));
+		}
+		assertArrayEquals(new int[0], match(index, "devices/5000/temperature"));
+		assertEquals("devices/42/+", index.getFilter(42));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void multiLevelWildcardMustBeLast() {
+		new TopicFilterIndex(new String[] { "a/#/b" });
+	}
+}
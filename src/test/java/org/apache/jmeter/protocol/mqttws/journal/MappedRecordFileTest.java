@@ -0,0 +1,224 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.journal;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedRecordFileTest {
+	private static final int MAGIC = 0x54455354;
+	private static final int RECORD_SIZE = 16;
+	//records per mapped region
+	private static final int REGION = 1 << 20;
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("records", ".bin");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	private static ByteBuffer records(long first, int count) {
+		ByteBuffer b = ByteBuffer.allocate(count * RECORD_SIZE);
+		for (int i = 0; i < count; i++) {
+			b.putLong(first + i);
+			b.putLong(~(first + i));
+		}
+		b.flip();
+		return b;
+	}
+
+	private long readRecord(RandomAccessFile in, long slot) throws IOException {
+		in.seek(MappedRecordFile.HEADER_SIZE + slot * RECORD_SIZE);
+		long value = in.readLong();
+		assertEquals(~value, in.readLong());
+		return value;
+	}
+
+	@Test
+	public void header() throws IOException {
+		new MappedRecordFile(file, MAGIC, RECORD_SIZE).close();
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			assertEquals(MAGIC, in.readInt());
+			assertEquals(RECORD_SIZE, in.readInt());
+		} finally {
+			in.close();
+		}
+	}
+
+	@Test
+	public void writeAcrossRegions() throws IOException {
+		MappedRecordFile f = new MappedRecordFile(file, MAGIC, RECORD_SIZE);
+		assertEquals(0, f.reserve(REGION - 3));
+		long slot = f.reserve(6);
+		assertEquals(REGION - 3, slot);
+		f.write(slot, records(slot, 6));
+		assertEquals(REGION + 3, f.size());
+		f.close();
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			for (long s = slot; s < slot + 6; s++) {
+				assertEquals(s, readRecord(in, s));
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	@Test
+	public void concurrentReservesDoNotOverlap() throws Exception {
+		final MappedRecordFile f = new MappedRecordFile(file, MAGIC, RECORD_SIZE);
+		final AtomicLongArray owners = new AtomicLongArray(8 * 1000 * 10);
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			final int thread = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < 1000; i++) {
+							long slot = f.reserve(10);
+							f.write(slot, records(slot, 10));
+							for (long s = slot; s < slot + 10; s++) {
+								assertTrue(owners.compareAndSet((int) s, 0, thread + 1));
+							}
+						}
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertEquals(owners.length(), f.size());
+		f.close();
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			for (int s = 0; s < owners.length(); s++) {
+				assertTrue(owners.get(s) != 0);
+				assertEquals(s, readRecord(in, s));
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	@Test
+	public void singleRecordReserve() throws IOException {
+		MappedRecordFile f = new MappedRecordFile(file, MAGIC, RECORD_SIZE);
+		long[] slot = new long[1];
+		for (int i = 0; i < 3; i++) {
+			ByteBuffer b = f.reserve(slot);
+			assertEquals(i, slot[0]);
+			b.putLong(f.offset(slot[0]), i);
+			b.putLong(f.offset(slot[0]) + 8, ~i);
+		}
+		f.close();
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			assertEquals(2, readRecord(in, 2));
+		} finally {
+			in.close();
+		}
+	}
+
+	@Test
+	public void closeRecordsTheCountAndCutsTheFile() throws IOException {
+		MappedRecordFile f = new MappedRecordFile(file, MAGIC, RECORD_SIZE);
+		long slot = f.reserve(5);
+		f.write(slot, records(slot, 2));
+		f.write(slot + 3, records(slot + 3, 2));
+		f.close();
+		assertEquals(MappedRecordFile.HEADER_SIZE + 5 * RECORD_SIZE, file.length());
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			in.seek(MappedRecordFile.COUNT_OFFSET);
+			assertEquals(5, in.readLong());
+			assertEquals(4, readRecord(in, 4));
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * A record reserved but never written must not hide the ones after it
+	 */
+	private static void writeWithGap(File file, int magic, int recordSize) throws IOException {
+		MappedRecordFile f = new MappedRecordFile(file, magic, recordSize);
+		long slot = f.reserve(4);
+		long[] times = { 1000, 0, 1002, 1003 };
+		ByteBuffer b = ByteBuffer.allocate(4 * recordSize);
+		for (int i = 0; i < times.length; i++) {
+			b.putLong(i * recordSize, times[i]);
+		}
+		f.write(slot, b);
+		f.close();
+	}
+
+	@Test
+	public void journalReaderSkipsUnwrittenRecords() throws IOException {
+		writeWithGap(file, MessageJournal.MAGIC, MessageJournal.RECORD_SIZE);
+		assertEquals(3, new JournalReader(file).read(new JournalReader.Visitor() {
+			public void record(long time, int direction, int qos, int client, int topic, int msgId, int size, int hash) {
+				assertTrue(time >= 1000);
+			}
+		}));
+	}
+
+	@Test
+	public void resultReaderSkipsUnwrittenRecords() throws IOException {
+		writeWithGap(file, ResultWriter.MAGIC, ResultWriter.RECORD_SIZE);
+		assertEquals(3, ResultReader.readSegment(file, new ResultReader.Visitor() {
+			public void record(long time, int latency, int size, int sampler, int topic, int msgId, int kind, int qos, int status, int flags) {
+				assertTrue(time >= 1000);
+			}
+		}));
+	}
+
+	@Test
+	public void noReserveOnceClosed() throws IOException {
+		MappedRecordFile f = new MappedRecordFile(file, MAGIC, RECORD_SIZE);
+		f.close();
+		assertEquals(-1, f.reserve(1));
+		assertNull(f.reserve(new long[1]));
+		//closing twice is harmless
+		f.close();
+	}
+}
@@ -0,0 +1,149 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.stats;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+	//relative precision of the buckets
+	private static final double PRECISION = 1.0 / 32;
+
+	private static void assertClose(long expected, long actual) {
+		assertTrue("expected about " + expected + " got " + actual,
+				actual >= expected && actual <= expected + Math.max(1, expected * PRECISION));
+	}
+
+	@Test
+	public void bucketsHoldTheirValues() {
+		for (long v = 0; v < (1L << 40); v = v * 3 / 2 + 1) {
+			int i = LatencyHistogram.indexFor(v);
+			assertTrue(i >= 0 && i < LatencyHistogram.BUCKETS);
+			assertClose(v, LatencyHistogram.valueFor(i));
+			if (i > 0) {
+				assertTrue(LatencyHistogram.valueFor(i - 1) < v);
+			}
+		}
+		assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.indexFor(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void percentiles() {
+		LatencyHistogram h = new LatencyHistogram();
+		for (long v = 1; v <= 10000; v++) {
+			h.record(v);
+		}
+		assertEquals(10000, h.getCount());
+		assertEquals(1, h.getMin());
+		assertEquals(10000, h.getMax());
+		assertEquals(5000.5, h.getMean(), 0.001);
+		assertClose(5000, h.getValueAtPercentile(50));
+		assertClose(9900, h.getValueAtPercentile(99));
+		assertClose(9990, h.getValueAtPercentile(99.9));
+		assertEquals(10000, h.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void empty() {
+		LatencyHistogram h = new LatencyHistogram();
+		assertEquals(0, h.getCount());
+		assertEquals(0, h.getValueAtPercentile(99));
+		assertEquals(0, h.getMean(), 0);
+	}
+
+	@Test
+	public void addMergesCountsAndBounds() {
+		LatencyHistogram a = new LatencyHistogram();
+		LatencyHistogram b = new LatencyHistogram();
+		for (long v = 1; v <= 100; v++) {
+			a.record(v);
+			b.record(v * 1000);
+		}
+		a.add(b);
+		assertEquals(200, a.getCount());
+		assertEquals(1, a.getMin());
+		assertEquals(100000, a.getMax());
+		assertClose(100, a.getValueAtPercentile(50));
+		assertClose(98000, a.getValueAtPercentile(99));
+		assertEquals(100, b.getCount());
+	}
+
+	@Test
+	public void writeThenRead() throws IOException {
+		LatencyHistogram h = new LatencyHistogram();
+		for (long v = 0; v < 100000; v += 7) {
+			h.record(v);
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		h.writeTo(new DataOutputStream(bytes));
+		LatencyHistogram read = LatencyHistogram.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		assertEquals(h.getCount(), read.getCount());
+		assertEquals(h.getSum(), read.getSum());
+		assertEquals(h.getMin(), read.getMin());
+		assertEquals(h.getMax(), read.getMax());
+		for (double p : new double[] { 1, 50, 90, 99, 99.9 }) {
+			assertEquals(h.getValueAtPercentile(p), read.getValueAtPercentile(p));
+		}
+	}
+
+	@Test
+	public void concurrentRecords() throws InterruptedException {
+		final LatencyHistogram h = new LatencyHistogram();
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (long v = 0; v < 100000; v++) {
+						h.record(v % 1000);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertEquals(800000, h.getCount());
+		assertEquals(8 * 100 * 499500L, h.getSum());
+		assertEquals(0, h.getMin());
+		assertEquals(999, h.getMax());
+	}
+
+	@Test
+	public void reset() {
+		LatencyHistogram h = new LatencyHistogram();
+		h.record(42);
+		h.reset();
+		assertEquals(0, h.getCount());
+		h.record(7);
+		assertEquals(7, h.getMin());
+		assertEquals(7, h.getMax());
+	}
+}
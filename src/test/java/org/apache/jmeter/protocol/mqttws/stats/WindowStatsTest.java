@@ -0,0 +1,86 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+*/
+
+
+package org.apache.jmeter.protocol.mqttws.stats;
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class WindowStatsTest {
+
+	@Test
+	public void rollKeepsEveryUpdate() throws InterruptedException {
+		final WindowStats stats = new WindowStats();
+		final AtomicBoolean done = new AtomicBoolean(false);
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 200000; i++) {
+						stats.onMessage(10, i % 100);
+						stats.onAck(-1);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		Thread roller = new Thread() {
+			@Override
+			public void run() {
+				while (!done.get()) {
+					count(stats.roll(System.currentTimeMillis()));
+				}
+			}
+		};
+		roller.start();
+		for (Thread t : threads) {
+			t.join();
+		}
+		done.set(true);
+		roller.join();
+		count(stats.roll(System.currentTimeMillis()));
+		assertEquals(800000, messages);
+		assertEquals(8000000, bytes);
+		assertEquals(800000, acked);
+		assertEquals(800000, latencies);
+	}
+
+	private long messages, bytes, acked, latencies;
+
+	private synchronized void count(WindowStats.Window w) {
+		messages += w.getMessages();
+		bytes += w.getBytes();
+		acked += w.getAcked();
+		latencies += w.getLatency().getCount();
+	}
+
+	@Test
+	public void missedSendsAreBackFilled() {
+		WindowStats stats = new WindowStats();
+		stats.onMissed(1000, 300);
+		LatencyHistogram h = stats.roll(0).getLatency();
+		assertEquals(3, h.getCount());
+		assertEquals(700 + 400 + 100, h.getSum());
+	}
+}